@@ -11,9 +11,11 @@ import com.iota.iri.network.replicator.Replicator;
 import com.iota.iri.zmq.MessageQ;
 import com.iota.iri.service.TipsManager;
 import com.iota.iri.storage.FileExportProvider;
+import com.iota.iri.storage.GroupCommitWriter;
 import com.iota.iri.storage.Indexable;
 import com.iota.iri.storage.Persistable;
 import com.iota.iri.storage.Tangle;
+import com.iota.iri.storage.TransactionCache;
 import com.iota.iri.storage.ZmqPublishProvider;
 import com.iota.iri.storage.rocksDB.RocksDBPersistenceProvider;
 import com.iota.iri.utils.Pair;
@@ -51,6 +53,7 @@ public class Iota {
     public final boolean testnet;
     public final int maxPeers;
     public final int udpPort;
+    public final int udpSockets;
     public final int tcpPort;
     public final int maxTipSearchDepth;
 
@@ -59,6 +62,7 @@ public class Iota {
         testnet = configuration.booling(Configuration.DefaultConfSettings.TESTNET);
         maxPeers = configuration.integer(Configuration.DefaultConfSettings.MAX_PEERS);
         udpPort = configuration.integer(Configuration.DefaultConfSettings.UDP_RECEIVER_PORT);
+        udpSockets = configuration.integer(Configuration.DefaultConfSettings.UDP_RECEIVER_SOCKETS);
         tcpPort = configuration.integer(Configuration.DefaultConfSettings.TCP_RECEIVER_PORT);
         maxTipSearchDepth = configuration.integer(Configuration.DefaultConfSettings.MAX_DEPTH);
         if(testnet) {
@@ -83,7 +87,7 @@ public class Iota {
         milestone =  new Milestone(tangle, coordinator, Snapshot.initialSnapshot.clone(), transactionValidator, testnet, messageQ);
         node = new Node(configuration, tangle, transactionValidator, transactionRequester, tipsViewModel, milestone, messageQ);
         replicator = new Replicator(node, tcpPort, maxPeers, testnet);
-        udpReceiver = new UDPReceiver(udpPort, node);
+        udpReceiver = new UDPReceiver(udpPort, udpSockets, node);
         ledgerValidator = new LedgerValidator(tangle, milestone, transactionRequester, messageQ);
         tipsManager = new TipsManager(tangle, ledgerValidator, transactionValidator, tipsViewModel, milestone, maxTipSearchDepth, messageQ);
     }
@@ -105,7 +109,8 @@ public class Iota {
         milestone.init(SpongeFactory.Mode.CURLP27, ledgerValidator, revalidate);
         transactionValidator.init(testnet, configuration.integer(Configuration.DefaultConfSettings.MAINNET_MWM), configuration.integer(Configuration.DefaultConfSettings.TESTNET_MWM));
         tipsManager.init();
-        transactionRequester.init(configuration.doubling(Configuration.DefaultConfSettings.P_REMOVE_REQUEST.name()));
+        transactionRequester.init(configuration.doubling(Configuration.DefaultConfSettings.P_REMOVE_REQUEST.name()),
+                configuration.integer(Configuration.DefaultConfSettings.MAX_TX_REQ_QUEUE_SIZE));
         udpReceiver.init();
         replicator.init();
         node.init();
@@ -198,13 +203,24 @@ public class Iota {
                 tangle.addPersistenceProvider(new RocksDBPersistenceProvider(
                         configuration.string(Configuration.DefaultConfSettings.DB_PATH),
                         configuration.string(Configuration.DefaultConfSettings.DB_LOG_PATH),
-                        configuration.integer(Configuration.DefaultConfSettings.DB_CACHE_SIZE)));
+                        configuration.integer(Configuration.DefaultConfSettings.DB_CACHE_SIZE),
+                        RocksDBPersistenceProvider.WalPolicy.valueOf(
+                                configuration.string(Configuration.DefaultConfSettings.DB_WAL_POLICY).toUpperCase())));
                 break;
             }
             default: {
                 throw new NotImplementedException("No such database type.");
             }
         }
+        long transactionCacheSize = configuration.integer(Configuration.DefaultConfSettings.TRANSACTION_CACHE_SIZE);
+        if (transactionCacheSize > 0) {
+            tangle.setTransactionCache(new TransactionCache(transactionCacheSize * 1024 * 1024));
+        }
+        int groupCommitSize = configuration.integer(Configuration.DefaultConfSettings.DB_GROUP_COMMIT_SIZE);
+        if (groupCommitSize > 0) {
+            tangle.setGroupCommitWriter(new GroupCommitWriter(groupCommitSize,
+                    configuration.integer(Configuration.DefaultConfSettings.DB_GROUP_COMMIT_DELAY)));
+        }
         if (configuration.booling(Configuration.DefaultConfSettings.EXPORT)) {
             tangle.addPersistenceProvider(new FileExportProvider());
         }
@@ -15,6 +15,8 @@ import java.util.*;
  */
 public class LedgerValidator {
 
+    private static final int LOAD_BATCH_SIZE = 1000;
+
     private final Logger log = LoggerFactory.getLogger(LedgerValidator.class);
     private final Tangle tangle;
     private final Milestone milestone;
@@ -56,15 +58,12 @@ public class LedgerValidator {
         Set<Hash> countedTx = new HashSet<>(Collections.singleton(Hash.NULL_HASH));
 
         final Queue<Hash> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(tip));
-        Hash transactionPointer;
-        while ((transactionPointer = nonAnalyzedTransactions.poll()) != null) {
-            if (visitedNonMilestoneSubtangleHashes.add(transactionPointer)) {
-
-                final TransactionViewModel transactionViewModel = TransactionViewModel.fromHash(tangle, transactionPointer);
+        while (!nonAnalyzedTransactions.isEmpty()) {
+            for (final TransactionViewModel transactionViewModel : loadBatch(nonAnalyzedTransactions, visitedNonMilestoneSubtangleHashes)) {
                 if (transactionViewModel.snapshotIndex() == 0 || transactionViewModel.snapshotIndex() > latestSnapshotIndex) {
                     numberOfAnalyzedTransactions++;
                     if (transactionViewModel.getType() == TransactionViewModel.PREFILLED_SLOT) {
-                        transactionRequester.requestTransaction(transactionViewModel.getHash(), milestone);
+                        transactionRequester.requestTransaction(transactionViewModel.getHash(), milestone, numberOfAnalyzedTransactions);
                         return null;
 
                     } else {
@@ -138,10 +137,8 @@ public class LedgerValidator {
     private void updateSnapshotMilestone(Hash hash, int index) throws Exception {
         Set<Hash> visitedHashes = new HashSet<>();
         final Queue<Hash> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(hash));
-        Hash hashPointer;
-        while ((hashPointer = nonAnalyzedTransactions.poll()) != null) {
-            if (visitedHashes.add(hashPointer)) {
-                final TransactionViewModel transactionViewModel2 = TransactionViewModel.fromHash(tangle, hashPointer);
+        while (!nonAnalyzedTransactions.isEmpty()) {
+            for (final TransactionViewModel transactionViewModel2 : loadBatch(nonAnalyzedTransactions, visitedHashes)) {
                 if(transactionViewModel2.snapshotIndex() == 0) {
                     transactionViewModel2.setSnapshot(tangle, index);
                     messageQ.publish("%s %s %d sn", transactionViewModel2.getAddressHash(), transactionViewModel2.getHash(), index);
@@ -165,18 +162,37 @@ public class LedgerValidator {
      */
     private void updateConsistentHashes(final Set<Hash> visitedHashes, Hash tip, int index) throws Exception {
         final Queue<Hash> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(tip));
-        Hash hashPointer;
-        while ((hashPointer = nonAnalyzedTransactions.poll()) != null) {
-            final TransactionViewModel transactionViewModel2 = TransactionViewModel.fromHash(tangle, hashPointer);
-            if((transactionViewModel2.snapshotIndex() == 0 || transactionViewModel2.snapshotIndex() > index) ) {
-                if(visitedHashes.add(hashPointer)) {
-                    nonAnalyzedTransactions.offer(transactionViewModel2.getTrunkTransactionHash());
-                    nonAnalyzedTransactions.offer(transactionViewModel2.getBranchTransactionHash());
+        while (!nonAnalyzedTransactions.isEmpty()) {
+            for (final TransactionViewModel transactionViewModel2 : loadBatch(nonAnalyzedTransactions, null)) {
+                if((transactionViewModel2.snapshotIndex() == 0 || transactionViewModel2.snapshotIndex() > index) ) {
+                    if(visitedHashes.add(transactionViewModel2.getHash())) {
+                        nonAnalyzedTransactions.offer(transactionViewModel2.getTrunkTransactionHash());
+                        nonAnalyzedTransactions.offer(transactionViewModel2.getBranchTransactionHash());
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Takes the next hashes off the queue of a breadth first search and loads their transactions in one read.
+     * Hashes which are appended to the queue while the batch is analyzed are visited in the same order as before.
+     * @param nonAnalyzedTransactions the queue of the search
+     * @param visitedHashes           skips the hashes already in it and adds the others, if not null
+     * @return the transactions of the polled hashes, in the order of the queue
+     * @throws Exception
+     */
+    private List<TransactionViewModel> loadBatch(final Queue<Hash> nonAnalyzedTransactions, final Set<Hash> visitedHashes) throws Exception {
+        final List<Hash> batch = new ArrayList<>(Math.min(nonAnalyzedTransactions.size(), LOAD_BATCH_SIZE));
+        Hash hashPointer;
+        while (batch.size() < LOAD_BATCH_SIZE && (hashPointer = nonAnalyzedTransactions.poll()) != null) {
+            if (visitedHashes == null || visitedHashes.add(hashPointer)) {
+                batch.add(hashPointer);
+            }
+        }
+        return TransactionViewModel.fromHashes(tangle, batch);
+    }
+
     /**
      * Initializes the LedgerValidator. This updates the latest milestone and solid subtangle milestone, and then
      * builds up the confirmed until it reaches the latest consistent confirmed. If any inconsistencies are detected,
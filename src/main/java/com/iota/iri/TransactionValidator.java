@@ -101,7 +101,14 @@ public class TransactionValidator {
     }
 
     public static TransactionViewModel validate(final byte[] bytes, int minWeightMagnitude, Sponge curl) {
-        TransactionViewModel transactionViewModel = new TransactionViewModel(bytes, Hash.calculate(bytes, TransactionViewModel.TRINARY_SIZE, curl));
+        return validate(bytes, minWeightMagnitude, Hash.calculate(bytes, TransactionViewModel.TRINARY_SIZE, curl));
+    }
+
+    /**
+     * Validates a transaction whose Curl-P-81 hash was already computed, e.g. by a {@link com.iota.iri.hash.BatchHasher}.
+     */
+    public static TransactionViewModel validate(final byte[] bytes, int minWeightMagnitude, Hash hash) {
+        TransactionViewModel transactionViewModel = new TransactionViewModel(bytes, hash);
         runValidation(transactionViewModel, minWeightMagnitude);
         return transactionViewModel;
     }
@@ -121,7 +128,7 @@ public class TransactionValidator {
                 final TransactionViewModel transaction = TransactionViewModel.fromHash(tangle, hashPointer);
                 if(!transaction.isSolid()) {
                     if (transaction.getType() == TransactionViewModel.PREFILLED_SLOT && !hashPointer.equals(Hash.NULL_HASH)) {
-                        transactionRequester.requestTransaction(hashPointer, milestone);
+                        transactionRequester.requestTransaction(hashPointer, milestone, analyzedHashes.size(), origin(transaction));
                         solid = false;
                         break;
                     } else {
@@ -140,6 +147,14 @@ public class TransactionValidator {
         return solid;
     }
 
+    /**
+     * @return the neighbor that sent us a transaction referencing the missing transaction, or <tt>null</tt>
+     */
+    private String origin(TransactionViewModel missingTransaction) throws Exception {
+        final Iterator<Hash> approvers = missingTransaction.getApprovers(tangle).getHashes().iterator();
+        return approvers.hasNext() ? TransactionViewModel.fromHash(tangle, approvers.next()).getSender() : null;
+    }
+
     public void addSolidTransaction(Hash hash) {
         synchronized (cascadeSync) {
             if (useFirst.get()) {
@@ -201,7 +216,7 @@ public class TransactionValidator {
     }
 
     public void updateStatus(TransactionViewModel transactionViewModel) throws Exception {
-        transactionRequester.clearTransactionRequest(transactionViewModel.getHash());
+        transactionRequester.clearTransactionRequest(transactionViewModel.getHash(), transactionViewModel.getSender());
         if(transactionViewModel.getApprovers(tangle).size() == 0) {
             tipsViewModel.addTipHash(transactionViewModel.getHash());
         }
@@ -225,10 +240,10 @@ public class TransactionValidator {
     private boolean quickSetSolid(final TransactionViewModel transactionViewModel) throws Exception {
         if(!transactionViewModel.isSolid()) {
             boolean solid = true;
-            if (!checkApproovee(transactionViewModel.getTrunkTransaction(tangle))) {
+            if (!checkApproovee(transactionViewModel.getTrunkTransaction(tangle), transactionViewModel.getSender())) {
                 solid = false;
             }
-            if (!checkApproovee(transactionViewModel.getBranchTransaction(tangle))) {
+            if (!checkApproovee(transactionViewModel.getBranchTransaction(tangle), transactionViewModel.getSender())) {
                 solid = false;
             }
             if(solid) {
@@ -241,9 +256,12 @@ public class TransactionValidator {
         return false;
     }
 
-    private boolean checkApproovee(TransactionViewModel approovee) throws Exception {
+    /**
+     * @param origin the neighbor that sent us the approver, which is asked for a missing approovee first
+     */
+    private boolean checkApproovee(TransactionViewModel approovee, String origin) throws Exception {
         if(approovee.getType() == PREFILLED_SLOT) {
-            transactionRequester.requestTransaction(approovee.getHash(), false);
+            transactionRequester.requestTransaction(approovee.getHash(), false, 0, origin);
             return false;
         }
         if(approovee.getHash().equals(Hash.NULL_HASH)) {
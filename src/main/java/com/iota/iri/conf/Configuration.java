@@ -29,6 +29,7 @@ public class Configuration {
         PORT,
         API_HOST,
         UDP_RECEIVER_PORT,
+        UDP_RECEIVER_SOCKETS,
         TCP_RECEIVER_PORT,
         TESTNET,
         DEBUG,
@@ -71,6 +72,27 @@ public class Configuration {
         Q_SIZE_NODE,
         P_DROP_CACHE_ENTRY,
         CACHE_SIZE_BYTES,
+        PIPELINE_HASH_THREADS,
+        PIPELINE_DEDUP_THREADS,
+        PIPELINE_PERSIST_THREADS,
+        PIPELINE_UPDATE_THREADS,
+        PIPELINE_BROADCAST_THREADS,
+        PIPELINE_SEND_THREADS,
+        NEIGHBOR_HASH_FILTER_SIZE,
+        REQUESTS_PER_NEIGHBOR,
+        SYNC_NEIGHBOR,
+        MAX_TX_REQ_QUEUE_SIZE,
+        NEIGHBOR_SEND_LIMIT,
+        LOAD_SHED_TARGET_LAG,
+        CAPTURE_PATH,
+        CAPTURE_FILE_SIZE,
+        CAPTURE_FILES,
+        REPLAY_PATH,
+        REPLAY_SPEED,
+        TRANSACTION_CACHE_SIZE,
+        DB_WAL_POLICY,
+        DB_GROUP_COMMIT_SIZE,
+        DB_GROUP_COMMIT_DELAY,
     }
 
     {
@@ -78,6 +100,7 @@ public class Configuration {
         conf.put(DefaultConfSettings.PORT.name(), "14600");
         conf.put(DefaultConfSettings.API_HOST.name(), "localhost");
         conf.put(DefaultConfSettings.UDP_RECEIVER_PORT.name(), "14600");
+        conf.put(DefaultConfSettings.UDP_RECEIVER_SOCKETS.name(), "1"); // >1 needs SO_REUSEPORT
         conf.put(DefaultConfSettings.TCP_RECEIVER_PORT.name(), "15600");
         conf.put(DefaultConfSettings.TESTNET.name(), "false");
         conf.put(DefaultConfSettings.DEBUG.name(), "false");
@@ -126,6 +149,27 @@ public class Configuration {
         conf.put(DefaultConfSettings.Q_SIZE_NODE.name(), "1000");
         conf.put(DefaultConfSettings.P_DROP_CACHE_ENTRY.name(), "0.02");
         conf.put(DefaultConfSettings.CACHE_SIZE_BYTES.name(), "15000");
+        conf.put(DefaultConfSettings.PIPELINE_HASH_THREADS.name(), "0"); // 0 = half the available processors
+        conf.put(DefaultConfSettings.PIPELINE_DEDUP_THREADS.name(), "1");
+        conf.put(DefaultConfSettings.PIPELINE_PERSIST_THREADS.name(), "2");
+        conf.put(DefaultConfSettings.PIPELINE_UPDATE_THREADS.name(), "1");
+        conf.put(DefaultConfSettings.PIPELINE_BROADCAST_THREADS.name(), "1");
+        conf.put(DefaultConfSettings.PIPELINE_SEND_THREADS.name(), "2");
+        conf.put(DefaultConfSettings.NEIGHBOR_HASH_FILTER_SIZE.name(), "4096"); // 0 disables the filter
+        conf.put(DefaultConfSettings.REQUESTS_PER_NEIGHBOR.name(), "350"); // hashes requested from each v2 neighbor per second
+        conf.put(DefaultConfSettings.SYNC_NEIGHBOR.name(), ""); // tcp neighbor streaming missing milestone subtangles, empty to disable
+        conf.put(DefaultConfSettings.MAX_TX_REQ_QUEUE_SIZE.name(), "10000"); // hashes requested at once, besides those of milestones
+        conf.put(DefaultConfSettings.NEIGHBOR_SEND_LIMIT.name(), "-1.0"); // Mbit/s sent to each neighbor, -1 for no limit
+        conf.put(DefaultConfSettings.LOAD_SHED_TARGET_LAG.name(), "200"); // ms received data may wait before low priority traffic is dropped, 0 to never drop
+        conf.put(DefaultConfSettings.CAPTURE_PATH.name(), ""); // where to record received messages, empty to not record
+        conf.put(DefaultConfSettings.CAPTURE_FILE_SIZE.name(), "64"); // MB per capture file
+        conf.put(DefaultConfSettings.CAPTURE_FILES.name(), "8"); // capture files kept
+        conf.put(DefaultConfSettings.REPLAY_PATH.name(), ""); // capture to feed into the node once started
+        conf.put(DefaultConfSettings.REPLAY_SPEED.name(), "1.0"); // times the captured pace, 0 for as fast as possible
+        conf.put(DefaultConfSettings.TRANSACTION_CACHE_SIZE.name(), "128"); // MB of recent transactions kept in memory, 0 to disable
+        conf.put(DefaultConfSettings.DB_WAL_POLICY.name(), "async"); // none, async or sync to fsync the write ahead log on each write
+        conf.put(DefaultConfSettings.DB_GROUP_COMMIT_SIZE.name(), "2000"); // stores and updates written to the db together, 0 to write each at once
+        conf.put(DefaultConfSettings.DB_GROUP_COMMIT_DELAY.name(), "10"); // ms a store or update may wait for others to be written with
 
     }
 
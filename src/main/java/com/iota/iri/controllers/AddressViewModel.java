@@ -9,8 +9,10 @@ import com.iota.iri.storage.Tangle;
 import com.iota.iri.utils.Pair;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Created by paul on 5/15/17.
@@ -32,6 +34,18 @@ public class AddressViewModel implements HashesViewModel {
         return new AddressViewModel((Address) tangle.load(Address.class, hash), hash);
     }
 
+    public static List<Hash> page(Tangle tangle, Indexable hash, Hash after, int limit) throws Exception {
+        return HashesViewModel.page(tangle, Address.class, hash, after, limit);
+    }
+
+    public static Stream<Hash> stream(Tangle tangle, Indexable hash) {
+        return HashesViewModel.stream(tangle, Address.class, hash);
+    }
+
+    public static long count(Tangle tangle, Indexable hash) throws Exception {
+        return HashesViewModel.count(tangle, Address.class, hash);
+    }
+
     public boolean store(Tangle tangle) throws Exception {
         return tangle.save(self, hash);
     }
@@ -10,6 +10,8 @@ import com.iota.iri.utils.Pair;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by paul on 5/6/17.
@@ -23,4 +25,51 @@ public interface HashesViewModel {
     void delete(Tangle tangle) throws Exception;
 
     HashesViewModel next(Tangle tangle) throws Exception;
+
+    // hashes read at once while streaming
+    int PAGE_SIZE = 1000;
+
+    static List<Hash> page(Tangle tangle, Class<?> model, Indexable index, Hash after, int limit) throws Exception {
+        return tangle.hashesAfter(model, index, after, limit);
+    }
+
+    /**
+     * Streams the hashes of an index page by page, so indexes referring to many transactions are not read at once.
+     */
+    static Stream<Hash> stream(Tangle tangle, Class<?> model, Indexable index) {
+        Iterator<Hash> iterator = new Iterator<Hash>() {
+            private List<Hash> page = Collections.emptyList();
+            private int position = 0;
+            private boolean last = false;
+
+            @Override
+            public boolean hasNext() {
+                if (position == page.size() && !last) {
+                    Hash after = page.isEmpty() ? null : page.get(page.size() - 1);
+                    try {
+                        page = page(tangle, model, index, after, PAGE_SIZE);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    position = 0;
+                    last = page.size() < PAGE_SIZE;
+                }
+                return position < page.size();
+            }
+
+            @Override
+            public Hash next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(position++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    static long count(Tangle tangle, Class<?> model, Indexable index) throws Exception {
+        return tangle.countHashes(model, index);
+    }
 }
@@ -10,8 +10,10 @@ import com.iota.iri.storage.Tangle;
 import com.iota.iri.utils.Pair;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 /**
  * Created by paul on 5/15/17.
  */
@@ -38,6 +40,18 @@ public class TagViewModel implements HashesViewModel {
         return new HashMap.SimpleEntry<>(hash, hashes);
     }
 
+    public static List<Hash> page(Tangle tangle, Indexable hash, Hash after, int limit) throws Exception {
+        return HashesViewModel.page(tangle, Tag.class, hash, after, limit);
+    }
+
+    public static Stream<Hash> stream(Tangle tangle, Indexable hash) {
+        return HashesViewModel.stream(tangle, Tag.class, hash);
+    }
+
+    public static long count(Tangle tangle, Indexable hash) throws Exception {
+        return HashesViewModel.count(tangle, Tag.class, hash);
+    }
+
     public boolean store(Tangle tangle) throws Exception {
         return tangle.save(self, hash);
     }
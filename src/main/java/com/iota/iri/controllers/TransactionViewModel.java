@@ -73,6 +73,21 @@ public class TransactionViewModel {
         return transactionViewModel;
     }
 
+    /**
+     * Loads the transactions of several hashes with one read of the tangle.
+     * @return the transactions in the order of the hashes
+     */
+    public static List<TransactionViewModel> fromHashes(final Tangle tangle, final Collection<Hash> hashes) throws Exception {
+        Map<Indexable, Persistable> transactions = tangle.multiGet(Transaction.class, hashes);
+        List<TransactionViewModel> transactionViewModels = new ArrayList<>(hashes.size());
+        for (Hash hash : hashes) {
+            TransactionViewModel transactionViewModel = new TransactionViewModel((Transaction) transactions.get(hash), hash);
+            fillMetadata(tangle, transactionViewModel);
+            transactionViewModels.add(transactionViewModel);
+        }
+        return transactionViewModels;
+    }
+
     public static boolean mightExist(final Tangle tangle, Hash hash) throws Exception {
         return tangle.maybeHas(Transaction.class, hash);
     }
@@ -0,0 +1,76 @@
+package com.iota.iri.hash;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.utils.Converter;
+import com.iota.iri.utils.Pair;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hashes up to {@link #MAX_BATCH_SIZE} inputs of the same length with a single pass of Curl.
+ *
+ * Every input is assigned one bit of the low/high long lanes used by {@link Curl}'s pair mode
+ * (the same encoding {@link PearlDiver} uses), so one transform hashes the whole batch.
+ * Instances are not thread safe.
+ */
+public class BatchHasher {
+
+    public static final int MAX_BATCH_SIZE = 64;
+
+    private final Curl curl;
+    private final int tritsLength;
+
+    private final int[] trits;
+    private final Pair<long[], long[]> input;
+    private final Pair<long[], long[]> output = new Pair<>(new long[Hash.SIZE_IN_TRITS], new long[Hash.SIZE_IN_TRITS]);
+
+    public BatchHasher(SpongeFactory.Mode mode, int tritsLength) {
+        this.curl = new Curl(true, mode);
+        this.tritsLength = tritsLength;
+        this.trits = new int[tritsLength];
+        this.input = new Pair<>(new long[tritsLength], new long[tritsLength]);
+    }
+
+    /**
+     * @param batch serialized inputs, each at least long enough to hold {@code tritsLength} trits
+     * @return the hashes, in the order of {@code batch}
+     */
+    public Hash[] hash(final List<byte[]> batch) {
+        if (batch.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size exceeds " + MAX_BATCH_SIZE + ": " + batch.size());
+        }
+        // unused lanes are left as zero trits
+        Arrays.fill(input.low, Converter.HIGH_LONG_BITS);
+        Arrays.fill(input.hi, Converter.HIGH_LONG_BITS);
+        for (int lane = 0; lane < batch.size(); lane++) {
+            Converter.getTrits(batch.get(lane), trits);
+            final long mask = ~(1L << lane);
+            for (int i = 0; i < tritsLength; i++) {
+                if (trits[i] == 1) {
+                    input.low[i] &= mask;
+                } else if (trits[i] == -1) {
+                    input.hi[i] &= mask;
+                }
+            }
+        }
+
+        curl.reset(true);
+        curl.absorb(input, 0, tritsLength);
+        curl.squeeze(output, 0, Hash.SIZE_IN_TRITS);
+
+        final Hash[] hashes = new Hash[batch.size()];
+        for (int lane = 0; lane < hashes.length; lane++) {
+            final int[] hashTrits = new int[Hash.SIZE_IN_TRITS];
+            for (int i = 0; i < Hash.SIZE_IN_TRITS; i++) {
+                if (((output.low[i] >>> lane) & 1L) == 0) {
+                    hashTrits[i] = 1;
+                } else if (((output.hi[i] >>> lane) & 1L) == 0) {
+                    hashTrits[i] = -1;
+                }
+            }
+            hashes[lane] = new Hash(hashTrits);
+        }
+        return hashes;
+    }
+}
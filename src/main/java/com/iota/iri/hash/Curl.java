@@ -33,6 +33,8 @@ public class Curl implements Sponge {
     private final long[] stateHigh;
 
     private final int[] scratchpad = new int[STATE_LENGTH];
+    private final long[] scratchpadLow;
+    private final long[] scratchpadHigh;
 
 
     protected Curl(SpongeFactory.Mode mode) {
@@ -48,6 +50,8 @@ public class Curl implements Sponge {
         state = new int[STATE_LENGTH];
         stateHigh = null;
         stateLow = null;
+        scratchpadHigh = null;
+        scratchpadLow = null;
     }
 
     public Curl(boolean pair, SpongeFactory.Mode mode) {
@@ -63,12 +67,16 @@ public class Curl implements Sponge {
         if(pair) {
             stateHigh = new long[STATE_LENGTH];
             stateLow = new long[STATE_LENGTH];
+            scratchpadHigh = new long[STATE_LENGTH];
+            scratchpadLow = new long[STATE_LENGTH];
             state = null;
             set();
         } else {
             state = new int[STATE_LENGTH];
             stateHigh = null;
             stateLow = null;
+            scratchpadHigh = null;
+            scratchpadLow = null;
         }
     }
 
@@ -128,8 +136,8 @@ public class Curl implements Sponge {
     }
 
     private void pairTransform() {
-        final long[] curlScratchpadLow = new long[STATE_LENGTH];
-        final long[] curlScratchpadHigh = new long[STATE_LENGTH];
+        final long[] curlScratchpadLow = scratchpadLow;
+        final long[] curlScratchpadHigh = scratchpadHigh;
         int curlScratchpadIndex = 0;
         for (int round = numberOfRounds; round-- > 0; ) {
             System.arraycopy(stateLow, 0, curlScratchpadLow, 0, STATE_LENGTH);
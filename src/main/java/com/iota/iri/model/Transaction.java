@@ -11,6 +11,10 @@ import java.nio.ByteBuffer;
  */
 public class Transaction implements Persistable {
     public static final int SIZE = 1604;
+    public static final int FLAGS_SIZE =
+            Integer.BYTES * 2 + //validity,snapshot
+                    Long.BYTES * 2 + //arrivalTime,height
+                    1; //solid, followed by the sender
 
     public byte[] bytes;
 
@@ -58,8 +62,7 @@ public class Transaction implements Persistable {
                 Hash.SIZE_IN_BYTES * 6 + //address,bundle,trunk,branch,obsoleteTag,tag
                         Long.BYTES * 9 + //value,currentIndex,lastIndex,timestamp,attachmentTimestampLowerBound,attachmentTimestampUpperBound,arrivalTime,height
                         Integer.BYTES * 3 + //validity,type,snapshot
-                        1 + //solid
-                        sender.getBytes().length; //sender
+                        1; //solid
         ByteBuffer buffer = ByteBuffer.allocate(allocateSize);
         buffer.put(address.bytes());
         buffer.put(bundle.bytes());
@@ -83,7 +86,6 @@ public class Transaction implements Persistable {
         //buffer.put((byte) (confirmed ? 1:0));
         buffer.put((byte) (solid ? 1 : 0));
         buffer.put(Serializer.serialize(snapshot));
-        buffer.put(sender.getBytes());
         return buffer.array();
     }
 
@@ -135,15 +137,48 @@ public class Transaction implements Persistable {
             i++;
             snapshot = Serializer.getInteger(bytes, i);
             i += Integer.BYTES;
-            byte[] senderBytes = new byte[bytes.length - i];
-            if (senderBytes.length != 0) {
-                System.arraycopy(bytes, i, senderBytes, 0, senderBytes.length);
-            }
-            sender = new String(senderBytes);
+            // metadata stored before the sender moved to the flags ends with it
+            sender = new String(bytes, i, bytes.length - i);
             parsed = true;
         }
     }
 
+    /**
+     * @return the fields changed after the transaction was stored, which {@link #metadata()} also holds as they were
+     * when it was stored, and the sender, which only the flags hold
+     */
+    public byte[] flags() {
+        final byte[] senderBytes = sender.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(FLAGS_SIZE + senderBytes.length);
+        buffer.put(Serializer.serialize(validity));
+        buffer.put(Serializer.serialize(arrivalTime));
+        buffer.put(Serializer.serialize(height));
+        buffer.put((byte) (solid ? 1 : 0));
+        buffer.put(Serializer.serialize(snapshot));
+        buffer.put(senderBytes);
+        return buffer.array();
+    }
+
+    public void readFlags(byte[] bytes) {
+        int i = 0;
+        if(bytes != null) {
+            validity = Serializer.getInteger(bytes, i);
+            i += Integer.BYTES;
+            arrivalTime = Serializer.getLong(bytes, i);
+            i += Long.BYTES;
+            height = Serializer.getLong(bytes, i);
+            i += Long.BYTES;
+            solid = bytes[i] == 1;
+            i++;
+            snapshot = Serializer.getInteger(bytes, i);
+            i += Integer.BYTES;
+            // flags without a sender leave the one of older metadata
+            if (bytes.length > i) {
+                sender = new String(bytes, i, bytes.length - i);
+            }
+        }
+    }
+
     @Override
     public boolean merge() {
         return false;
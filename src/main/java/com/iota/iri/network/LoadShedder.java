@@ -0,0 +1,97 @@
+package com.iota.iri.network;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops low priority traffic early while the node lags behind what it receives, instead of letting queues fill up
+ * and latency grow without bound.
+ *
+ * The load is the larger of the fullest ingest queue relative to {@link #HIGH_WATERMARK} and the time received
+ * datagrams waited before being processed relative to the target lag. While the load is above 1 the drop rate rises
+ * step by step, once it is below {@link #LOW_LOAD} the rate decays back to 0. Each kind of traffic is dropped with
+ * the drop rate scaled by its weight, so traffic of neighbors over their new transaction limit goes first and
+ * transactions nobody requested go last. Requested transactions and milestones are never dropped.
+ */
+public class LoadShedder {
+
+    public static final int SHED_OVER_LIMIT = 0;
+    public static final int SHED_RANDOM_TIP = 1;
+    public static final int SHED_UNREQUESTED = 2;
+    private static final double[] WEIGHTS = {2, 1, 0.5};
+
+    static final double HIGH_WATERMARK = 0.5;
+    static final double LOW_LOAD = 0.5;
+    static final double MAX_DROP_RATE = 0.95;
+    private static final double INCREASE = 0.05;
+    private static final double DECAY = 0.8;
+    private static final double MIN_DROP_RATE = 0.01;
+
+    private final long targetLagNanos;
+    private final AtomicLong maxLag = new AtomicLong(0L);
+    private final LongAdder[] shed = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private volatile double dropRate = 0;
+    private volatile double load = 0;
+
+    /**
+     * @param targetLag the processing lag in milliseconds to keep below, 0 to never drop anything
+     */
+    public LoadShedder(long targetLag) {
+        this.targetLagNanos = targetLag * 1000000L;
+    }
+
+    public boolean isEnabled() {
+        return targetLagNanos > 0;
+    }
+
+    /**
+     * Reports how long received data waited before it was processed.
+     */
+    public void recordLag(long nanos) {
+        maxLag.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Adjusts the drop rate to the current load, called periodically.
+     * @param queueFill the share of the fullest ingest queue that is in use
+     */
+    public synchronized void update(double queueFill) {
+        final long lag = maxLag.getAndSet(0L);
+        if (!isEnabled()) {
+            return;
+        }
+        load = Math.max(queueFill / HIGH_WATERMARK, (double) lag / targetLagNanos);
+        if (load > 1) {
+            dropRate = Math.min(MAX_DROP_RATE, dropRate + INCREASE * Math.min(load, 4));
+        } else if (load < LOW_LOAD) {
+            final double decayed = dropRate * DECAY;
+            dropRate = decayed < MIN_DROP_RATE ? 0 : decayed;
+        }
+    }
+
+    /**
+     * @param kind one of {@link #SHED_OVER_LIMIT}, {@link #SHED_RANDOM_TIP} and {@link #SHED_UNREQUESTED}
+     * @return <tt>true</tt> if the traffic is to be dropped
+     */
+    public boolean shed(int kind) {
+        final double rate = dropRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate * WEIGHTS[kind]) {
+            shed[kind].increment();
+            return true;
+        }
+        return false;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    public double getLoad() {
+        return load;
+    }
+
+    public long getShed(int kind) {
+        return shed[kind].sum();
+    }
+}
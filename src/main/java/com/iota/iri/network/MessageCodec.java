@@ -0,0 +1,305 @@
+package com.iota.iri.network;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import com.iota.iri.utils.Converter;
+
+import java.util.List;
+
+import static com.iota.iri.network.Node.REQUEST_HASH_SIZE;
+import static com.iota.iri.network.Node.TRANSACTION_PACKET_SIZE;
+
+/**
+ * Encodes the messages of protocol version 2, which is only spoken with neighbors that announced it.
+ *
+ * Legacy packets are always {@link Node#TRANSACTION_PACKET_SIZE} bytes, a transaction followed by the hash of a
+ * requested transaction. Every byte of them packs five trits, so it never leaves [-121, 121]. A v2 message starts
+ * with a type byte outside of that range, which tells the two formats apart on any transport.
+ *
+ * A v2 transaction message leaves out the trailing zeros of the signature message fragment, which takes the first
+ * {@link #SIGNATURE_BYTES} bytes of a transaction and is mostly empty on zero value transactions:
+ * the type, the fragment's trimmed length in 2 bytes, the trimmed fragment, the rest of the transaction and the
+ * request hash.
+ *
+ * Requests are sent separately, as a type, a count and up to {@link #MAX_REQUEST_HASHES} hashes. They are answered
+ * with messages of a type, a count and as many transactions as fit, each encoded like in a transaction message but
+ * without a request hash. Every message fits in {@link Node#TRANSACTION_PACKET_SIZE} bytes.
+ *
+ * {@link SubtangleSync} asks for a milestone's subtangle with a sync request, a type and the milestone index. It is
+ * streamed back in messages laid out like those answering requests, and closed by a sync done message of a type,
+ * the milestone index and the number of transactions sent.
+ */
+public class MessageCodec {
+
+    public static final int PROTOCOL_VERSION = 2;
+
+    public static final byte TYPE_HELLO = 127;
+    public static final byte TYPE_TRANSACTION = 126;
+    public static final byte TYPE_TRANSACTIONS = 125;
+    public static final byte TYPE_REQUEST = 124;
+    public static final byte TYPE_SYNC_REQUEST = 123;
+    public static final byte TYPE_SYNC_TRANSACTIONS = 122;
+    public static final byte TYPE_SYNC_DONE = -128;
+
+    private static final int MAX_PACKED_TRITS = 121;
+
+    static final int SIGNATURE_BYTES = TransactionViewModel.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_SIZE / Converter.NUMBER_OF_TRITS_IN_A_BYTE;
+    private static final int REST_BYTES = TransactionViewModel.SIZE - SIGNATURE_BYTES;
+    private static final int BODY_HEADER_BYTES = 2;
+    private static final int MIN_TRANSACTION_MESSAGE_SIZE = 1 + BODY_HEADER_BYTES + REST_BYTES + REQUEST_HASH_SIZE;
+    static final int TRANSACTIONS_HEADER_BYTES = 2;
+    private static final int REQUEST_HEADER_BYTES = 2;
+    private static final int MAX_COUNT = 255;
+    public static final int MAX_REQUEST_HASHES = (TRANSACTION_PACKET_SIZE - REQUEST_HEADER_BYTES) / REQUEST_HASH_SIZE;
+    public static final int MAX_TRANSACTIONS = (TRANSACTION_PACKET_SIZE - TRANSACTIONS_HEADER_BYTES) / (BODY_HEADER_BYTES + REST_BYTES);
+    private static final int SYNC_REQUEST_SIZE = 1 + 4;
+    private static final int SYNC_DONE_SIZE = 1 + 4 + 4;
+
+    private static final byte[] HELLO = {TYPE_HELLO, 'I', 'R', 'I', PROTOCOL_VERSION};
+
+    /**
+     * @return a copy of the message announcing that we speak protocol version 2
+     */
+    public static byte[] hello() {
+        return HELLO.clone();
+    }
+
+    public static int helloSize() {
+        return HELLO.length;
+    }
+
+    /**
+     * @return <tt>true</tt> if the message is a legacy packet rather than a typed v2 message
+     */
+    public static boolean isLegacyPacket(byte[] message, int length) {
+        return length == TRANSACTION_PACKET_SIZE && !isTypeByte(message[0]);
+    }
+
+    public static boolean isTypeByte(byte b) {
+        return b > MAX_PACKED_TRITS || b < -MAX_PACKED_TRITS;
+    }
+
+    /**
+     * @return the protocol version announced by a hello message, or 0 if the message is no valid hello
+     */
+    public static int helloVersion(byte[] message, int length) {
+        if (length < HELLO.length) {
+            return 0;
+        }
+        for (int i = 0; i < HELLO.length - 1; i++) {
+            if (message[i] != HELLO[i]) {
+                return 0;
+            }
+        }
+        return message[HELLO.length - 1];
+    }
+
+    /**
+     * Writes the transaction and the request hash to <tt>target</tt> as a v2 transaction message.
+     * @return the length of the message, or -1 if it would not be shorter than the legacy packet
+     */
+    public static int encodeTransaction(byte[] transaction, byte[] requestHash, byte[] target) {
+        final int signatureLength = trimmedSignatureLength(transaction);
+        final int length = MIN_TRANSACTION_MESSAGE_SIZE + signatureLength;
+        if (length >= TRANSACTION_PACKET_SIZE) {
+            return -1;
+        }
+        target[0] = TYPE_TRANSACTION;
+        final int offset = writeBody(transaction, signatureLength, target, 1);
+        System.arraycopy(requestHash, 0, target, offset, REQUEST_HASH_SIZE);
+        return length;
+    }
+
+    /**
+     * Restores the legacy packet a v2 transaction message was encoded from.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    public static boolean decodeTransaction(byte[] message, int length, byte[] packet) {
+        if (message[0] != TYPE_TRANSACTION) {
+            return false;
+        }
+        final int offset = readBody(message, 1, length - REQUEST_HASH_SIZE, packet);
+        if (offset != length - REQUEST_HASH_SIZE) {
+            return false;
+        }
+        System.arraycopy(message, offset, packet, TransactionViewModel.SIZE, REQUEST_HASH_SIZE);
+        return true;
+    }
+
+    /**
+     * Starts a v2 message carrying several transactions, which are added with
+     * {@link #appendTransaction(byte[], int, byte[])}.
+     * @return the length of the message so far
+     */
+    public static int startTransactions(byte[] message) {
+        return startTransactions(message, TYPE_TRANSACTIONS);
+    }
+
+    /**
+     * Starts a message of <tt>type</tt> {@link #TYPE_TRANSACTIONS} or {@link #TYPE_SYNC_TRANSACTIONS}.
+     */
+    public static int startTransactions(byte[] message, byte type) {
+        message[0] = type;
+        message[1] = 0;
+        return TRANSACTIONS_HEADER_BYTES;
+    }
+
+    /**
+     * @return the new length of the message, or -1 if the transaction does not fit in anymore
+     */
+    public static int appendTransaction(byte[] message, int length, byte[] transaction) {
+        final int signatureLength = trimmedSignatureLength(transaction);
+        if ((message[1] & 0xFF) == MAX_COUNT
+                || length + BODY_HEADER_BYTES + signatureLength + REST_BYTES > TRANSACTION_PACKET_SIZE) {
+            return -1;
+        }
+        message[1]++;
+        return writeBody(transaction, signatureLength, message, length);
+    }
+
+    /**
+     * @return the bytes the transaction takes in a message carrying several transactions
+     */
+    public static int transactionSize(byte[] transaction) {
+        return BODY_HEADER_BYTES + trimmedSignatureLength(transaction) + REST_BYTES;
+    }
+
+    /**
+     * @return the number of transactions in a message started with {@link #startTransactions(byte[])}
+     */
+    public static int transactionCount(byte[] message) {
+        return message[1] & 0xFF;
+    }
+
+    /**
+     * Reads the transaction starting at <tt>offset</tt> of a message started with {@link #startTransactions(byte[])},
+     * beginning at offset {@link #TRANSACTIONS_HEADER_BYTES}.
+     * @return the offset of the next transaction, or -1 if the message is malformed
+     */
+    public static int nextTransaction(byte[] message, int length, int offset, byte[] transaction) {
+        return readBody(message, offset, length, transaction);
+    }
+
+    /**
+     * Writes up to {@link #MAX_REQUEST_HASHES} of <tt>hashes</tt>, starting at <tt>from</tt>, as a v2 request message.
+     * @return the length of the message
+     */
+    public static int encodeRequest(List<Hash> hashes, int from, byte[] message) {
+        final int count = Math.min(MAX_REQUEST_HASHES, hashes.size() - from);
+        message[0] = TYPE_REQUEST;
+        message[1] = (byte) count;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(hashes.get(from + i).bytes(), 0, message, REQUEST_HEADER_BYTES + i * REQUEST_HASH_SIZE, REQUEST_HASH_SIZE);
+        }
+        return REQUEST_HEADER_BYTES + count * REQUEST_HASH_SIZE;
+    }
+
+    /**
+     * @return the number of hashes in a request message, or -1 if the message is malformed
+     */
+    public static int requestCount(byte[] message, int length) {
+        final int count = message[1] & 0xFF;
+        return length == REQUEST_HEADER_BYTES + count * REQUEST_HASH_SIZE ? count : -1;
+    }
+
+    public static Hash requestedHash(byte[] message, int index) {
+        return new Hash(message, REQUEST_HEADER_BYTES + index * REQUEST_HASH_SIZE, REQUEST_HASH_SIZE);
+    }
+
+    /**
+     * Writes a request for the subtangle of the milestone with the given index.
+     * @return the length of the message
+     */
+    public static int encodeSyncRequest(int milestoneIndex, byte[] message) {
+        message[0] = TYPE_SYNC_REQUEST;
+        writeInt(milestoneIndex, message, 1);
+        return SYNC_REQUEST_SIZE;
+    }
+
+    /**
+     * @return the milestone index of a sync request, or -1 if the message is malformed
+     */
+    public static int syncRequestIndex(byte[] message, int length) {
+        return length == SYNC_REQUEST_SIZE ? Math.max(-1, readInt(message, 1)) : -1;
+    }
+
+    /**
+     * Writes the message closing the subtangle of a milestone.
+     * @param count the number of transactions sent, or -1 if the milestone is unknown
+     * @return the length of the message
+     */
+    public static int encodeSyncDone(int milestoneIndex, int count, byte[] message) {
+        message[0] = TYPE_SYNC_DONE;
+        writeInt(milestoneIndex, message, 1);
+        writeInt(count, message, 5);
+        return SYNC_DONE_SIZE;
+    }
+
+    public static boolean isSyncDone(byte[] message, int length) {
+        return length == SYNC_DONE_SIZE && message[0] == TYPE_SYNC_DONE;
+    }
+
+    public static int syncDoneIndex(byte[] message) {
+        return readInt(message, 1);
+    }
+
+    public static int syncDoneCount(byte[] message) {
+        return readInt(message, 5);
+    }
+
+    private static void writeInt(int value, byte[] target, int offset) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] message, int offset) {
+        return ((message[offset] & 0xFF) << 24) | ((message[offset + 1] & 0xFF) << 16)
+                | ((message[offset + 2] & 0xFF) << 8) | (message[offset + 3] & 0xFF);
+    }
+
+    private static int trimmedSignatureLength(byte[] transaction) {
+        int signatureLength = SIGNATURE_BYTES;
+        while (signatureLength > 0 && transaction[signatureLength - 1] == 0) {
+            signatureLength--;
+        }
+        return signatureLength;
+    }
+
+    /**
+     * Writes the trimmed length of the signature message fragment, the trimmed fragment and the rest of the transaction.
+     * @return the offset following the transaction
+     */
+    private static int writeBody(byte[] transaction, int signatureLength, byte[] target, int offset) {
+        target[offset++] = (byte) (signatureLength >>> 8);
+        target[offset++] = (byte) signatureLength;
+        System.arraycopy(transaction, 0, target, offset, signatureLength);
+        offset += signatureLength;
+        System.arraycopy(transaction, SIGNATURE_BYTES, target, offset, REST_BYTES);
+        return offset + REST_BYTES;
+    }
+
+    /**
+     * Restores the first {@link TransactionViewModel#SIZE} bytes of <tt>transaction</tt> from a body written by
+     * {@link #writeBody(byte[], int, byte[], int)}, which has to end before <tt>end</tt>.
+     * @return the offset following the transaction, or -1 if the body is malformed
+     */
+    private static int readBody(byte[] message, int offset, int end, byte[] transaction) {
+        if (offset + BODY_HEADER_BYTES > end) {
+            return -1;
+        }
+        final int signatureLength = ((message[offset] & 0xFF) << 8) | (message[offset + 1] & 0xFF);
+        offset += BODY_HEADER_BYTES;
+        if (signatureLength > SIGNATURE_BYTES || offset + signatureLength + REST_BYTES > end) {
+            return -1;
+        }
+        System.arraycopy(message, offset, transaction, 0, signatureLength);
+        for (int i = signatureLength; i < SIGNATURE_BYTES; i++) {
+            transaction[i] = 0;
+        }
+        offset += signatureLength;
+        System.arraycopy(message, offset, transaction, SIGNATURE_BYTES, REST_BYTES);
+        return offset + REST_BYTES;
+    }
+}
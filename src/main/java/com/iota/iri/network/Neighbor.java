@@ -1,21 +1,58 @@
 package com.iota.iri.network;
 
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class Neighbor {
 
     private final InetSocketAddress address;
     
-    private long numberOfAllTransactions;
-    private long numberOfNewTransactions;
-    private long numberOfInvalidTransactions;
-    private long randomTransactionRequests;
-    private long numberOfSentTransactions;
+    private final LongAdder numberOfAllTransactions = new LongAdder();
+    private final LongAdder numberOfNewTransactions = new LongAdder();
+    private final LongAdder numberOfInvalidTransactions = new LongAdder();
+    private final LongAdder randomTransactionRequests = new LongAdder();
+    private final LongAdder numberOfSentTransactions = new LongAdder();
+    private final LongAdder numberOfDroppedTransactions = new LongAdder();
+    private final LongAdder numberOfSentRequests = new LongAdder();
+    private final LongAdder numberOfAnsweredRequests = new LongAdder();
+    private final LongAdder requestAnswerLatency = new LongAdder();
+    // decaying counts behind getRequestAnswerRatio, halved every REQUEST_WINDOW requests, guarded by requestWindowLock
+    private final Object requestWindowLock = new Object();
+    private long recentSentRequests;
+    private long recentAnsweredRequests;
+    private static final long REQUEST_WINDOW = 1000;
+    private static final double MIN_REQUEST_ANSWER_RATIO = 0.1;
+
+    // classes of outbound traffic, sent and given bandwidth in this order
+    public static final int PRIORITY_REPLY = 0;
+    public static final int PRIORITY_RANDOM_TIP = 1;
+    public static final int PRIORITY_BROADCAST = 2;
+    static final int PRIORITIES = 3;
+
+    public static final int OUTBOUND_QUEUE_SIZE = 1000;
+    private final List<BlockingQueue<TransactionViewModel>> outboundQueues = new ArrayList<>(PRIORITIES);
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private volatile TokenBucket sendBucket = new TokenBucket(-1, 0);
+    private final NeighborScore score = new NeighborScore();
+
+    private RecentHashFilter receivedHashes;
+    private volatile int protocolVersion = 1;
 
-    private int newTransactionsCounter;
+    // the new transactions of the current window, guarded by newTransactionsWindowLock
+    private final Object newTransactionsWindowLock = new Object();
+    private long newTransactionsCounter;
     private long newTransactionsTimer;
     private final double newTransactionsLimit;
     public static final long newTransactionsWindow = 30 * 1000L;
@@ -52,6 +89,7 @@ public abstract class Neighbor {
         this.hostAddress = address.getAddress().getHostAddress();
         this.flagged = isConfigured;
         this.newTransactionsLimit = 0;
+        initOutboundQueues();
     }
 
     public Neighbor(final InetSocketAddress address, boolean isConfigured, double limit) {
@@ -59,9 +97,121 @@ public abstract class Neighbor {
         this.hostAddress = address.getAddress().getHostAddress();
         this.flagged = isConfigured;
         this.newTransactionsLimit = (limit * newTransactionsWindow) / 1000;
+        initOutboundQueues();
+    }
+
+    private void initOutboundQueues() {
+        for (int i = 0; i < PRIORITIES; i++) {
+            outboundQueues.add(new ArrayBlockingQueue<>(OUTBOUND_QUEUE_SIZE));
+        }
     }
 
     public abstract void send(final DatagramPacket packet);
+
+    /**
+     * Sends the first <tt>count</tt> packets in order.
+     */
+    public void send(final DatagramPacket[] packets, final int count) {
+        for (int i = 0; i < count; i++) {
+            send(packets[i]);
+        }
+    }
+
+    /**
+     * Queues a transaction for this neighbor's writer, dropping it if the outbound queue of its priority is full.
+     * @return <tt>true</tt> if the neighbor has to be handed to a writer
+     */
+    boolean queueTransaction(final TransactionViewModel transactionViewModel, final int priority) {
+        if (!outboundQueues.get(priority).offer(transactionViewModel)) {
+            incDroppedTransactions(1);
+        }
+        return writerScheduled.compareAndSet(false, true);
+    }
+
+    int drainOutboundQueue(final int priority, final Collection<? super TransactionViewModel> target, final int maxElements) {
+        return outboundQueues.get(priority).drainTo(target, maxElements);
+    }
+
+    private boolean hasOutboundTransactions() {
+        for (final BlockingQueue<TransactionViewModel> outboundQueue : outboundQueues) {
+            if (!outboundQueue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by a writer once it is done with this neighbor.
+     * @return <tt>true</tt> if transactions were queued meanwhile and the neighbor has to be handed to a writer again
+     */
+    boolean releaseWriter() {
+        writerScheduled.set(false);
+        return hasOutboundTransactions() && writerScheduled.compareAndSet(false, true);
+    }
+
+    public int getOutboundQueueSize() {
+        int size = 0;
+        for (final BlockingQueue<TransactionViewModel> outboundQueue : outboundQueues) {
+            size += outboundQueue.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the bucket limiting and measuring what is sent to this neighbor
+     */
+    public TokenBucket getSendBucket() {
+        return sendBucket;
+    }
+
+    void setSendBucket(final TokenBucket sendBucket) {
+        this.sendBucket = sendBucket;
+    }
+
+    public NeighborScore getScore() {
+        return score;
+    }
+
+    /**
+     * Ends a scoring interval, see {@link NeighborScore}.
+     */
+    void updateScore() {
+        score.update(numberOfAllTransactions.sum(), numberOfNewTransactions.sum(), numberOfInvalidTransactions.sum(),
+                numberOfAnsweredRequests.sum(), requestAnswerLatency.sum(), getRequestAnswerRatio());
+    }
+
+    /**
+     * Enables remembering which transactions this neighbor recently sent us.
+     */
+    void setReceivedHashFilter(final RecentHashFilter receivedHashes) {
+        this.receivedHashes = receivedHashes;
+    }
+
+    void markReceived(final Hash hash) {
+        if (receivedHashes != null) {
+            receivedHashes.add(hash);
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if this neighbor recently sent us the transaction, so there is no need to send it back
+     */
+    boolean probablyHas(final Hash hash) {
+        return receivedHashes != null && receivedHashes.mightContain(hash);
+    }
+
+    /**
+     * @return the protocol version to encode messages to this neighbor with, see {@link MessageCodec}
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
     public abstract int getPort();
     public abstract String connectionType();
     public abstract boolean matches(SocketAddress address);
@@ -81,12 +231,16 @@ public abstract class Neighbor {
 	}
     
     void incAllTransactions() {
-    	numberOfAllTransactions++;
+    	numberOfAllTransactions.increment();
     }
     
     void incNewTransactions() {
-    	numberOfNewTransactions++;
-        newTransactionsCounter++;
+    	numberOfNewTransactions.increment();
+        if (newTransactionsLimit != 0) {
+            synchronized (newTransactionsWindowLock) {
+                newTransactionsCounter++;
+            }
+        }
     }
 
     public boolean isBelowNewTransactionLimit() {
@@ -95,44 +249,103 @@ public abstract class Neighbor {
         }
 
         long now = System.currentTimeMillis();
-        if ((now - newTransactionsTimer) > newTransactionsWindow) {
-            newTransactionsCounter = 0;
-            newTransactionsTimer = now;
+        synchronized (newTransactionsWindowLock) {
+            if ((now - newTransactionsTimer) > newTransactionsWindow) {
+                newTransactionsCounter = 0;
+                newTransactionsTimer = now;
+            }
+            return (newTransactionsCounter < newTransactionsLimit);
         }
-        return (newTransactionsCounter < newTransactionsLimit);
     }
 
 
     void incRandomTransactionRequests() {
-        randomTransactionRequests++;
+        randomTransactionRequests.increment();
     }
 
     public void incInvalidTransactions() {
-    	numberOfInvalidTransactions++;
+    	numberOfInvalidTransactions.increment();
     }
     
     public void incSentTransactions() {
-        numberOfSentTransactions++;
+        numberOfSentTransactions.increment();
+    }
+
+    public void incDroppedTransactions(long count) {
+        numberOfDroppedTransactions.add(count);
     }
     
+    void incSentRequests() {
+        numberOfSentRequests.increment();
+        synchronized (requestWindowLock) {
+            if (++recentSentRequests > REQUEST_WINDOW) {
+                recentSentRequests /= 2;
+                recentAnsweredRequests /= 2;
+            }
+        }
+    }
+
+    void incAnsweredRequests(long latency) {
+        numberOfAnsweredRequests.increment();
+        requestAnswerLatency.add(latency);
+        synchronized (requestWindowLock) {
+            recentAnsweredRequests++;
+        }
+    }
+
+    /**
+     * @return the share of recent requests this neighbor answered, but at least {@link #MIN_REQUEST_ANSWER_RATIO}
+     * so a neighbor that stopped answering is still tried now and then
+     */
+    public double getRequestAnswerRatio() {
+        final double ratio;
+        synchronized (requestWindowLock) {
+            ratio = (recentAnsweredRequests + 1) / (double) (recentSentRequests + 1);
+        }
+        return Math.max(MIN_REQUEST_ANSWER_RATIO, Math.min(1, ratio));
+    }
+
+    public long getNumberOfSentRequests() {
+        return numberOfSentRequests.sum();
+    }
+
+    public long getNumberOfAnsweredRequests() {
+        return numberOfAnsweredRequests.sum();
+    }
+
+    /**
+     * @return the average milliseconds between asking this neighbor for a transaction and receiving it from them
+     */
+    public long getAverageRequestLatency() {
+        final long answered = numberOfAnsweredRequests.sum();
+        return answered == 0 ? 0 : requestAnswerLatency.sum() / answered;
+    }
+
     public long getNumberOfAllTransactions() {
-		return numberOfAllTransactions;
+		return numberOfAllTransactions.sum();
 	}
     
     public long getNumberOfInvalidTransactions() {
-		return numberOfInvalidTransactions;
+		return numberOfInvalidTransactions.sum();
 	}
     
     public long getNumberOfNewTransactions() {
-		return numberOfNewTransactions;
+		return numberOfNewTransactions.sum();
 	}
 
 	public long getNumberOfRandomTransactionRequests() {
-        return randomTransactionRequests;
+        return randomTransactionRequests.sum();
     }
 	
 	public long getNumberOfSentTransactions() {
-	    return numberOfSentTransactions;
+	    return numberOfSentTransactions.sum();
 	}
+
+    /**
+     * @return transactions that were not sent because the outbound queue or the socket buffer was full
+     */
+    public long getNumberOfDroppedTransactions() {
+        return numberOfDroppedTransactions.sum();
+    }
     
 }
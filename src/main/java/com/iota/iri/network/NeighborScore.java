@@ -0,0 +1,93 @@
+package com.iota.iri.network;
+
+/**
+ * How much a neighbor contributes, updated every scoring interval from the counters of its {@link Neighbor}.
+ *
+ * The score combines the share of the transactions it sent that were new to us, the share of our requests it
+ * answers and how fast it answers them, and is reduced by the share of invalid transactions it sent.
+ * Ratios are smoothed over intervals, so a single busy or quiet interval does not swing the score. Higher scores
+ * are better, between 0 and 1.
+ */
+public class NeighborScore {
+
+    static final double SMOOTHING = 0.3;
+    // the answer latency in milliseconds that halves the latency part of the score
+    private static final double LATENCY_SCALE = 1000;
+    private static final double USEFUL_WEIGHT = 0.5;
+    private static final double ANSWER_WEIGHT = 0.3;
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final double MAX_INVALID_RATIO = 0.5;
+
+    private long lastAllTransactions;
+    private long lastNewTransactions;
+    private long lastInvalidTransactions;
+    private long lastAnsweredRequests;
+    private long lastRequestLatency;
+
+    private volatile double usefulRatio = 0.5;
+    private volatile double invalidRatio = 0;
+    private volatile double latency = 0;
+    private volatile double score = 0.5;
+    private volatile int uselessIntervals = 0;
+
+    /**
+     * Takes the counters of the neighbor, which only ever grow, at the end of an interval.
+     * @param answerRatio the share of recent requests the neighbor answered
+     */
+    synchronized void update(long allTransactions, long newTransactions, long invalidTransactions,
+                             long answeredRequests, long requestLatency, double answerRatio) {
+        final long all = allTransactions - lastAllTransactions;
+        final long fresh = newTransactions - lastNewTransactions;
+        final long invalid = invalidTransactions - lastInvalidTransactions;
+        final long answered = answeredRequests - lastAnsweredRequests;
+        final long answerLatency = requestLatency - lastRequestLatency;
+        lastAllTransactions = allTransactions;
+        lastNewTransactions = newTransactions;
+        lastInvalidTransactions = invalidTransactions;
+        lastAnsweredRequests = answeredRequests;
+        lastRequestLatency = requestLatency;
+
+        //a neighbor that sends nothing is not useful either
+        usefulRatio = smooth(usefulRatio, all > 0 ? Math.min(1, (double) fresh / all) : 0);
+        if (all > 0) {
+            invalidRatio = smooth(invalidRatio, Math.min(1, (double) invalid / all));
+        }
+        if (answered > 0) {
+            latency = smooth(latency, (double) answerLatency / answered);
+        }
+        score = (USEFUL_WEIGHT * usefulRatio + ANSWER_WEIGHT * answerRatio
+                + LATENCY_WEIGHT * LATENCY_SCALE / (LATENCY_SCALE + latency)) * (1 - invalidRatio);
+        uselessIntervals = fresh == 0 && answered == 0 || invalidRatio > MAX_INVALID_RATIO ? uselessIntervals + 1 : 0;
+    }
+
+    private static double smooth(double average, double value) {
+        return average + SMOOTHING * (value - average);
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public double getUsefulRatio() {
+        return usefulRatio;
+    }
+
+    public double getInvalidRatio() {
+        return invalidRatio;
+    }
+
+    /**
+     * @return the smoothed milliseconds between asking the neighbor for a transaction and receiving it
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the number of intervals in a row in which the neighbor sent nothing new and answered no request,
+     * or sent mostly invalid transactions
+     */
+    public int getUselessIntervals() {
+        return uselessIntervals;
+    }
+}
@@ -5,8 +5,13 @@ import com.iota.iri.TransactionValidator;
 import com.iota.iri.conf.Configuration;
 import com.iota.iri.controllers.TipsViewModel;
 import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.hash.BatchHasher;
+import com.iota.iri.hash.SpongeFactory;
 import com.iota.iri.model.Hash;
+import com.iota.iri.storage.GroupCommitWriter;
 import com.iota.iri.storage.Tangle;
+import com.iota.iri.storage.TransactionCache;
+import com.iota.iri.utils.BoundedPriorityBlockingQueue;
 import com.iota.iri.zmq.MessageQ;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -16,13 +21,13 @@ import org.slf4j.LoggerFactory;
 
 import java.net.*;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.DatagramChannel;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * The class node is responsible for managing Thread's connection.
@@ -36,24 +41,58 @@ public class Node {
     private int BROADCAST_QUEUE_SIZE;
     private int RECV_QUEUE_SIZE;
     private int REPLY_QUEUE_SIZE;
-    private static final int PAUSE_BETWEEN_TRANSACTIONS = 1;
+    private static final int QUEUE_POLL_TIMEOUT = 100;
+    private static final int QUEUE_OFFER_TIMEOUT = 50;
+    private static final int QUEUE_DRAIN_BATCH_SIZE = 64;
+    private static final int SEND_BATCH_SIZE = 32;
+    private static final long REQUEST_INTERVAL = 1000L;
+    private static final long SCORE_INTERVAL = 10000L;
+    // scoring intervals an auto added peer may stay useless before it is dropped
+    private static final int MAX_USELESS_INTERVALS = 30;
+    // how long a dropped peer is not added back automatically
+    private static final long DROPPED_NEIGHBOR_COOLDOWN = 180 * SCORE_INTERVAL;
     public static final int REQUEST_HASH_SIZE = 46;
     private static double P_SELECT_MILESTONE;
 
     private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
     private final List<Neighbor> neighbors = new CopyOnWriteArrayList<>();
-    private final ConcurrentSkipListSet<TransactionViewModel> broadcastQueue = weightQueue();
-    private final ConcurrentSkipListSet<Pair<TransactionViewModel, Neighbor>> receiveQueue = weightQueueTxPair();
-    private final ConcurrentSkipListSet<Pair<Hash, Neighbor>> replyQueue = weightQueueHashPair();
+    // ingest pipeline: hash -> dedup (receiveQueue) -> persist -> update -> broadcast
+    private BlockingQueue<HashingRequest> hashingQueue;
+    private BoundedPriorityBlockingQueue<Pair<TransactionViewModel, Neighbor>> receiveQueue;
+    private final List<BoundedPriorityBlockingQueue<Pair<TransactionViewModel, Neighbor>>> persistQueues = new ArrayList<>();
+    private BoundedPriorityBlockingQueue<Pair<TransactionViewModel, Neighbor>> updateQueue;
+    private BoundedPriorityBlockingQueue<Pair<TransactionViewModel, Neighbor>> broadcastQueue;
+    private BoundedPriorityBlockingQueue<ReplyRequest> replyQueue;
+    // neighbors with queued outbound transactions, waiting for a writer
+    private final BlockingQueue<Neighbor> readyNeighbors = new LinkedBlockingQueue<>();
+    private final AtomicLong hashingDropped = new AtomicLong(0L);
+    private final AtomicLong suppressedBroadcasts = new AtomicLong(0L);
+    private final AtomicLong invalidMessages = new AtomicLong(0L);
+    private final AtomicLong requestedTransactions = new AtomicLong(0L);
+    private int requestsPerNeighbor;
+    // legacy packets restored from v2 transaction messages, see preProcessReceivedMessage
+    private final ThreadLocal<byte[]> decodedPackets = ThreadLocal.withInitial(() -> new byte[TRANSACTION_PACKET_SIZE]);
+    private int neighborHashFilterSize;
+    private SubtangleSync subtangleSync;
+    private LoadShedder loadShedder;
+    private PacketRecorder packetRecorder;
+    private PacketReplayer packetReplayer;
+    private static final long LOAD_SHED_INTERVAL = 100L;
+
+    private StageMetrics hashStage;
+    private StageMetrics dedupStage;
+    private StageMetrics persistStage;
+    private StageMetrics updateStage;
+    private StageMetrics broadcastStage;
+    private StageMetrics replyStage;
+    private StageMetrics sendStage;
 
 
-    private final DatagramPacket sendingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
-            TRANSACTION_PACKET_SIZE);
     private final DatagramPacket tipRequestingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
             TRANSACTION_PACKET_SIZE);
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
     private final Configuration configuration;
     private final Tangle tangle;
     private final TipsViewModel tipsViewModel;
@@ -69,20 +108,18 @@ public class Node {
     private double P_PROPAGATE_REQUEST;
 
 
-    private FIFOCache<ByteBuffer, Hash> recentSeenBytes;
-
-    private boolean debug;
-    private static AtomicLong recentSeenBytesMissCount = new AtomicLong(0L);
-    private static AtomicLong recentSeenBytesHitCount = new AtomicLong(0L);
+    private RecentSeenBytesCache recentSeenBytes;
 
-    private static long sendLimit = -1;
-    private static AtomicLong sendPacketsCounter = new AtomicLong(0L);
-    private static AtomicLong sendPacketsTimer = new AtomicLong(0L);
+    // all traffic sent by the node, besides the buckets of the neighbors
+    private TokenBucket sendBucket;
+    private double neighborSendLimit;
 
     private static double newTxLimit;
 
     public static final ConcurrentSkipListSet<String> rejectedAddresses = new ConcurrentSkipListSet<String>();
-    private DatagramSocket udpSocket;
+    // the end of the cool down of each dropped peer, by host address
+    private final Map<String, Long> droppedNeighbors = new ConcurrentHashMap<>();
+    private List<DatagramChannel> udpChannels = Collections.emptyList();
 
     public Node(final Configuration configuration,
                 final Tangle tangle,
@@ -108,31 +145,103 @@ public class Node {
         P_SEND_MILESTONE = configuration.doubling(Configuration.DefaultConfSettings.P_SEND_MILESTONE.name());
         P_REPLY_RANDOM_TIP = configuration.doubling(Configuration.DefaultConfSettings.P_REPLY_RANDOM_TIP.name());
         P_PROPAGATE_REQUEST = configuration.doubling(Configuration.DefaultConfSettings.P_PROPAGATE_REQUEST.name());
-        sendLimit = (long) ((configuration.doubling(Configuration.DefaultConfSettings.SEND_LIMIT.name()) * 1000000) / (TRANSACTION_PACKET_SIZE * 8));
+        sendBucket = newSendBucket(configuration.doubling(Configuration.DefaultConfSettings.SEND_LIMIT.name()));
+        neighborSendLimit = configuration.doubling(Configuration.DefaultConfSettings.NEIGHBOR_SEND_LIMIT.name());
         newTxLimit = configuration.doubling(Configuration.DefaultConfSettings.NEW_TX_LIMIT.name());
-        debug = configuration.booling(Configuration.DefaultConfSettings.DEBUG);
+        neighborHashFilterSize = configuration.integer(Configuration.DefaultConfSettings.NEIGHBOR_HASH_FILTER_SIZE);
+        requestsPerNeighbor = configuration.integer(Configuration.DefaultConfSettings.REQUESTS_PER_NEIGHBOR);
+        loadShedder = new LoadShedder(configuration.integer(Configuration.DefaultConfSettings.LOAD_SHED_TARGET_LAG));
+        final String capturePath = configuration.string(Configuration.DefaultConfSettings.CAPTURE_PATH);
+        if (!capturePath.isEmpty()) {
+            packetRecorder = new PacketRecorder(capturePath,
+                    configuration.integer(Configuration.DefaultConfSettings.CAPTURE_FILE_SIZE) * 1024L * 1024L,
+                    configuration.integer(Configuration.DefaultConfSettings.CAPTURE_FILES));
+            log.info("Capturing received messages to {}", capturePath);
+        }
 
         BROADCAST_QUEUE_SIZE = RECV_QUEUE_SIZE = REPLY_QUEUE_SIZE = configuration.integer(Configuration.DefaultConfSettings.Q_SIZE_NODE);
         double pDropCacheEntry = configuration.doubling(Configuration.DefaultConfSettings.P_DROP_CACHE_ENTRY.name());
-        recentSeenBytes = new FIFOCache<>(configuration.integer(Configuration.DefaultConfSettings.CACHE_SIZE_BYTES), pDropCacheEntry);
+        recentSeenBytes = new RecentSeenBytesCache(configuration.integer(Configuration.DefaultConfSettings.CACHE_SIZE_BYTES), pDropCacheEntry);
+
+        int hashThreads = configuration.integer(Configuration.DefaultConfSettings.PIPELINE_HASH_THREADS);
+        hashStage = new StageMetrics("hash", hashThreads > 0 ? hashThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        dedupStage = new StageMetrics("dedup", Math.max(1, configuration.integer(Configuration.DefaultConfSettings.PIPELINE_DEDUP_THREADS)));
+        persistStage = new StageMetrics("persist", Math.max(1, configuration.integer(Configuration.DefaultConfSettings.PIPELINE_PERSIST_THREADS)));
+        updateStage = new StageMetrics("update", Math.max(1, configuration.integer(Configuration.DefaultConfSettings.PIPELINE_UPDATE_THREADS)));
+        broadcastStage = new StageMetrics("broadcast", Math.max(1, configuration.integer(Configuration.DefaultConfSettings.PIPELINE_BROADCAST_THREADS)));
+        replyStage = new StageMetrics("reply", 1);
+        sendStage = new StageMetrics("send", Math.max(1, configuration.integer(Configuration.DefaultConfSettings.PIPELINE_SEND_THREADS)));
+
+        hashingQueue = new ArrayBlockingQueue<>(RECV_QUEUE_SIZE);
+        receiveQueue = new BoundedPriorityBlockingQueue<>(RECV_QUEUE_SIZE, Node::compareTransactionPair);
+        // every persist worker owns a queue and transactions are routed by hash, so a hash is never stored twice concurrently
+        for (int i = 0; i < persistStage.getWorkers(); i++) {
+            persistQueues.add(new BoundedPriorityBlockingQueue<>(Math.max(1, RECV_QUEUE_SIZE / persistStage.getWorkers()), Node::compareTransactionPair));
+        }
+        updateQueue = new BoundedPriorityBlockingQueue<>(RECV_QUEUE_SIZE, Node::compareTransactionPair);
+        broadcastQueue = new BoundedPriorityBlockingQueue<>(BROADCAST_QUEUE_SIZE, Node::compareTransactionPair);
+        replyQueue = new BoundedPriorityBlockingQueue<>(REPLY_QUEUE_SIZE, ReplyRequest::compareTo);
 
         parseNeighborsConfig();
 
-        executor.submit(spawnBroadcasterThread());
+        subtangleSync = new SubtangleSync(this, tangle, transactionValidator, milestone,
+                configuration.string(Configuration.DefaultConfSettings.SYNC_NEIGHBOR));
+        executor.submit(subtangleSync.spawnSyncServerThread());
+        if (subtangleSync.isEnabled()) {
+            executor.submit(subtangleSync.spawnSyncRequesterThread());
+            executor.submit(subtangleSync.spawnSyncIngestThread());
+        }
         executor.submit(spawnTipRequesterThread());
+        executor.submit(spawnTransactionRequestThread());
         executor.submit(spawnNeighborDNSRefresherThread());
-        executor.submit(spawnProcessReceivedThread());
-        executor.submit(spawnReplyToRequestThread());
+        final String replayPath = configuration.string(Configuration.DefaultConfSettings.REPLAY_PATH);
+        if (!replayPath.isEmpty()) {
+            packetReplayer = new PacketReplayer(replayPath, configuration.doubling(Configuration.DefaultConfSettings.REPLAY_SPEED.name()));
+            executor.submit(packetReplayer.spawnReplayThread(this));
+        }
+        if (loadShedder.isEnabled()) {
+            executor.submit(spawnLoadShedderThread());
+        }
+        executor.submit(spawnNeighborScoringThread());
+        executor.submit(spawnStageThread(replyStage, replyQueue, request -> replyToRequest(request.hash, request.neighbor)));
+        for (int i = 0; i < hashStage.getWorkers(); i++) {
+            executor.submit(spawnBatchHashingThread());
+        }
+        for (int i = 0; i < dedupStage.getWorkers(); i++) {
+            executor.submit(spawnStageThread(dedupStage, receiveQueue, this::dedupReceivedData));
+        }
+        for (final BoundedPriorityBlockingQueue<Pair<TransactionViewModel, Neighbor>> persistQueue : persistQueues) {
+            executor.submit(spawnStageThread(persistStage, persistQueue, receivedData -> {
+                if (storeReceivedData(receivedData.getLeft(), receivedData.getRight())) {
+                    handOff(updateStage, updateQueue, receivedData, true);
+                }
+            }));
+        }
+        for (int i = 0; i < updateStage.getWorkers(); i++) {
+            executor.submit(spawnStageThread(updateStage, updateQueue, receivedData -> updateReceivedData(receivedData.getLeft(), receivedData.getRight())));
+        }
+        for (int i = 0; i < broadcastStage.getWorkers(); i++) {
+            executor.submit(spawnBroadcasterThread());
+        }
+        for (int i = 0; i < sendStage.getWorkers(); i++) {
+            executor.submit(spawnNeighborWriterThread());
+        }
 
         executor.shutdown();
     }
 
-    public void setUDPSocket(final DatagramSocket socket) {
-        this.udpSocket = socket;
+    public void setUDPChannels(final List<DatagramChannel> channels) {
+        this.udpChannels = channels;
     }
 
-    public DatagramSocket getUdpSocket() {
-        return udpSocket;
+    /**
+     * Every neighbor is always served by the same socket, picked by its address.
+     */
+    public DatagramChannel getUdpChannel(final InetSocketAddress address) {
+        if (udpChannels.isEmpty()) {
+            return null;
+        }
+        return udpChannels.get(Math.floorMod(address.hashCode(), udpChannels.size()));
     }
 
     private final Map<String, String> neighborIpCache = new HashMap<>();
@@ -220,93 +329,155 @@ public class Node {
         return Optional.of(hostAddress);
     }
 
-    public void preProcessReceivedData(byte[] receivedData, SocketAddress senderAddress, String uriScheme) {
-        TransactionViewModel receivedTransactionViewModel = null;
-        Hash receivedTransactionHash = null;
-
-        boolean addressMatch = false;
-        boolean cached = false;
-
-        for (final Neighbor neighbor : getNeighbors()) {
-            addressMatch = neighbor.matches(senderAddress);
-            if (addressMatch) {
-                //Validate transaction
-                neighbor.incAllTransactions();
-                if (rnd.nextDouble() < P_DROP_TRANSACTION) {
-                    //log.info("Randomly dropping transaction. Stand by... ");
-                    break;
+    /**
+     * Handles a message in either the legacy format or one of the v2 formats of {@link MessageCodec}.
+     * {@code message} is copied if it needs to outlive this call, so callers may reuse their buffer.
+     */
+    public void preProcessReceivedMessage(byte[] message, int length, SocketAddress senderAddress, String uriScheme) {
+        if (MessageCodec.isLegacyPacket(message, length)) {
+            preProcessReceivedData(message, senderAddress, uriScheme);
+            return;
+        }
+        switch (message[0]) {
+            case MessageCodec.TYPE_TRANSACTION:
+                final byte[] packet = decodedPackets.get();
+                if (MessageCodec.decodeTransaction(message, length, packet)) {
+                    preProcessReceivedData(packet, senderAddress, uriScheme);
+                    return;
                 }
-                try {
-
-                    //Transaction bytes
-
-                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                    digest.update(receivedData, 0, TransactionViewModel.SIZE);
-                    ByteBuffer byteHash = ByteBuffer.wrap(digest.digest());
-
-                    //check if cached
-                    synchronized (recentSeenBytes) {
-                        cached = (receivedTransactionHash = recentSeenBytes.get(byteHash)) != null;
-                    }
-
-                    if (!cached) {
-                        //if not, then validate
-                        receivedTransactionViewModel = TransactionValidator.validate(receivedData, transactionValidator.getMinWeightMagnitude());
-                        receivedTransactionHash = receivedTransactionViewModel.getHash();
-
-                        synchronized (recentSeenBytes) {
-                            recentSeenBytes.put(byteHash, receivedTransactionHash);
-                        }
-
-                        //if valid - add to receive queue (receivedTransactionViewModel, neighbor)
-                        addReceivedDataToReceiveQueue(receivedTransactionViewModel, neighbor);
+                break;
+            case MessageCodec.TYPE_TRANSACTIONS:
+                if (transactionsReceived(message, length, senderAddress)) {
+                    return;
+                }
+                break;
+            case MessageCodec.TYPE_REQUEST:
+                if (requestReceived(message, length, senderAddress)) {
+                    return;
+                }
+                break;
+            case MessageCodec.TYPE_SYNC_REQUEST:
+            case MessageCodec.TYPE_SYNC_TRANSACTIONS:
+            case MessageCodec.TYPE_SYNC_DONE:
+                if (syncMessageReceived(message, length, senderAddress)) {
+                    return;
+                }
+                break;
+            case MessageCodec.TYPE_HELLO:
+                final int version = MessageCodec.helloVersion(message, length);
+                if (version > 0) {
+                    helloReceived(senderAddress, version);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        invalidMessages.incrementAndGet();
+    }
 
-                    }
+    private Neighbor findNeighbor(SocketAddress senderAddress) {
+        for (final Neighbor neighbor : getNeighbors()) {
+            if (neighbor.matches(senderAddress)) {
+                return neighbor;
+            }
+        }
+        return null;
+    }
 
-                } catch (NoSuchAlgorithmException e) {
-                    log.error("MessageDigest: " + e);
-                } catch (final RuntimeException e) {
-                    log.error(e.getMessage());
-                    log.error("Received an Invalid TransactionViewModel. Dropping it...");
-                    neighbor.incInvalidTransactions();
-                    break;
-                }
+    private void helloReceived(SocketAddress senderAddress, int version) {
+        final Neighbor neighbor = findNeighbor(senderAddress);
+        if (neighbor != null) {
+            final boolean known = neighbor.getProtocolVersion() >= MessageCodec.PROTOCOL_VERSION;
+            neighbor.setProtocolVersion(Math.min(version, MessageCodec.PROTOCOL_VERSION));
+            if (!known && neighbor instanceof UDPNeighbor) {
+                //answer right away instead of waiting for our next round of hellos
+                ((UDPNeighbor) neighbor).sendHello();
+            }
+        }
+    }
 
-                //Request bytes
+    /**
+     * Transactions sent in one message are answers to our requests, or broadcasts, and are not replied to.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    private boolean transactionsReceived(byte[] message, int length, SocketAddress senderAddress) {
+        final Neighbor neighbor = findNeighbor(senderAddress);
+        if (neighbor == null) {
+            return true;
+        }
+        final byte[] packet = decodedPackets.get();
+        int offset = MessageCodec.TRANSACTIONS_HEADER_BYTES;
+        for (int i = MessageCodec.transactionCount(message); i > 0; i--) {
+            offset = MessageCodec.nextTransaction(message, length, offset, packet);
+            if (offset < 0) {
+                return false;
+            }
+            preProcessTransaction(packet, neighbor, false);
+        }
+        return offset == length;
+    }
 
-                //add request to reply queue (requestedHash, neighbor)
-                Hash requestedHash = new Hash(receivedData, TransactionViewModel.SIZE, TransactionRequester.REQUEST_HASH_SIZE);
-                if (requestedHash.equals(receivedTransactionHash)) {
-                    //requesting a random tip
-                    requestedHash = Hash.NULL_HASH;
-                }
+    /**
+     * Hands a message of the subtangle sync to {@link SubtangleSync}, which only talks to tcp neighbors.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    private boolean syncMessageReceived(byte[] message, int length, SocketAddress senderAddress) {
+        final Neighbor neighbor = findNeighbor(senderAddress);
+        if (neighbor == null || subtangleSync == null) {
+            return true;
+        }
+        switch (message[0]) {
+            case MessageCodec.TYPE_SYNC_REQUEST:
+                return subtangleSync.syncRequestReceived(neighbor, message, length);
+            case MessageCodec.TYPE_SYNC_TRANSACTIONS:
+                return subtangleSync.syncTransactionsReceived(neighbor, message, length);
+            default:
+                return subtangleSync.syncDoneReceived(neighbor, message, length);
+        }
+    }
 
+    /**
+     * Queues a reply for every requested hash. The replies are sent back batched into as few messages as possible.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    private boolean requestReceived(byte[] message, int length, SocketAddress senderAddress) {
+        final int count = MessageCodec.requestCount(message, length);
+        if (count < 0) {
+            return false;
+        }
+        final Neighbor neighbor = findNeighbor(senderAddress);
+        if (neighbor == null) {
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            final Hash requestedHash = MessageCodec.requestedHash(message, i);
+            //random tips are only asked for by legacy packets
+            if (!requestedHash.equals(Hash.NULL_HASH)) {
                 addReceivedDataToReplyQueue(requestedHash, neighbor);
+            }
+        }
+        return true;
+    }
 
-                //recentSeenBytes statistics
-
-                if (debug) {
-                    long hitCount, missCount;
-                    if (cached) {
-                        hitCount = recentSeenBytesHitCount.incrementAndGet();
-                        missCount = recentSeenBytesMissCount.get();
-                    } else {
-                        hitCount = recentSeenBytesHitCount.get();
-                        missCount = recentSeenBytesMissCount.incrementAndGet();
-                    }
-                    if (((hitCount + missCount) % 50000L == 0)) {
-                        log.info("RecentSeenBytes cache hit/miss ratio: " + hitCount + "/" + missCount);
-                        messageQ.publish("hmr %d/%d", hitCount, missCount);
-                        recentSeenBytesMissCount.set(0L);
-                        recentSeenBytesHitCount.set(0L);
-                    }
-                }
+    /**
+     * Matches the packet to a neighbor and looks it up in the recently seen cache.
+     * Unseen transactions are handed to the batch hashing stage, which validates them and queues them for processing.
+     * {@code receivedData} is copied if it needs to outlive this call, so callers may reuse their buffer.
+     */
+    public void preProcessReceivedData(byte[] receivedData, SocketAddress senderAddress, String uriScheme) {
+        boolean addressMatch = false;
 
+        for (final Neighbor neighbor : getNeighbors()) {
+            addressMatch = neighbor.matches(senderAddress);
+            if (addressMatch) {
+                preProcessTransaction(receivedData, neighbor, true);
                 break;
             }
         }
 
-        if (!addressMatch && configuration.booling(Configuration.DefaultConfSettings.TESTNET)) {
+        if (!addressMatch && configuration.booling(Configuration.DefaultConfSettings.TESTNET)
+                && !isCoolingDown(((InetSocketAddress) senderAddress).getAddress().getHostAddress())) {
             int maxPeersAllowed = configuration.integer(Configuration.DefaultConfSettings.MAX_PEERS);
             String uriString = uriScheme + ":/" + senderAddress.toString();
             if (Neighbor.getNumPeers() < maxPeersAllowed) {
@@ -336,37 +507,160 @@ public class Node {
         }
     }
 
-    public void addReceivedDataToReceiveQueue(TransactionViewModel receivedTransactionViewModel, Neighbor neighbor) {
-        receiveQueue.add(new ImmutablePair<>(receivedTransactionViewModel, neighbor));
-        if (receiveQueue.size() > RECV_QUEUE_SIZE) {
-            receiveQueue.pollLast();
+    /**
+     * @param reply whether to answer the request hash of the packet
+     */
+    private void preProcessTransaction(byte[] receivedData, Neighbor neighbor, boolean reply) {
+        //Validate transaction
+        neighbor.incAllTransactions();
+        if (rnd.nextDouble() < P_DROP_TRANSACTION) {
+            //log.info("Randomly dropping transaction. Stand by... ");
+            return;
+        }
+        //under load, don't even hash what would not be stored anyway
+        if (!neighbor.isBelowNewTransactionLimit() && loadShedder.shed(LoadShedder.SHED_OVER_LIMIT)) {
+            return;
+        }
+
+        //Transaction bytes
+
+        long fingerprint = recentSeenBytes.fingerprint(receivedData, TransactionViewModel.SIZE);
+
+        //check if cached
+        Hash receivedTransactionHash = recentSeenBytes.get(fingerprint);
+
+        if (receivedTransactionHash != null) {
+            neighbor.markReceived(receivedTransactionHash);
+            if (reply) {
+                //add request to reply queue (requestedHash, neighbor)
+                addReceivedDataToReplyQueue(getRequestedHash(receivedData, receivedTransactionHash), neighbor);
+            }
+        } else {
+            //if not, then hash and validate it in a batch, unseen transactions are replied to once hashed
+            HashingRequest request = new HashingRequest(Arrays.copyOf(receivedData, TRANSACTION_PACKET_SIZE), fingerprint, neighbor, reply);
+            try {
+                //waiting for room slows the receivers down to the pace of the pipeline, except for the replicator's
+                //I/O loops serving all tcp neighbors, whose sources stop reading while there is no room instead
+                if (!(neighbor instanceof TCPNeighbor ? hashingQueue.offer(request)
+                        : hashingQueue.offer(request, QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS))) {
+                    hashingDropped.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void processHashedData(HashingRequest request, Hash receivedTransactionHash) {
+        final TransactionViewModel receivedTransactionViewModel;
+        try {
+            receivedTransactionViewModel = TransactionValidator.validate(request.data, transactionValidator.getMinWeightMagnitude(), receivedTransactionHash);
+        } catch (final RuntimeException e) {
+            log.error(e.getMessage());
+            log.error("Received an Invalid TransactionViewModel. Dropping it...");
+            request.neighbor.incInvalidTransactions();
+            return;
+        }
+
+        request.neighbor.markReceived(receivedTransactionHash);
+        if (isSheddable(receivedTransactionViewModel) && loadShedder.shed(LoadShedder.SHED_UNREQUESTED)) {
+            //not cached, so the transaction is processed when it is sent again
+            return;
+        }
+        recentSeenBytes.put(request.fingerprint, receivedTransactionHash);
+
+        //if valid - add to receive queue (receivedTransactionViewModel, neighbor)
+        handOff(dedupStage, receiveQueue, new ImmutablePair<>(receivedTransactionViewModel, request.neighbor), false);
+        if (request.reply) {
+            addReceivedDataToReplyQueue(getRequestedHash(request.data, receivedTransactionHash), request.neighbor);
         }
+    }
+
+    private static Hash getRequestedHash(byte[] receivedData, Hash receivedTransactionHash) {
+        Hash requestedHash = new Hash(receivedData, TransactionViewModel.SIZE, TransactionRequester.REQUEST_HASH_SIZE);
+        if (requestedHash.equals(receivedTransactionHash)) {
+            //requesting a random tip
+            requestedHash = Hash.NULL_HASH;
+        }
+        return requestedHash;
+    }
 
+    public void addReceivedDataToReceiveQueue(TransactionViewModel receivedTransactionViewModel, Neighbor neighbor) {
+        receiveQueue.offer(new ImmutablePair<>(receivedTransactionViewModel, neighbor));
+    }
+
+    /**
+     * @return whether the transaction may be dropped under load, which requested ones and milestones may not
+     */
+    private boolean isSheddable(TransactionViewModel transactionViewModel) {
+        return loadShedder.getDropRate() > 0
+                && !transactionRequester.isTransactionRequested(transactionViewModel.getHash())
+                && (milestone == null || !milestone.getCoordinator().equals(transactionViewModel.getAddressHash()));
     }
 
     public void addReceivedDataToReplyQueue(Hash requestedHash, Neighbor neighbor) {
-        replyQueue.add(new ImmutablePair<>(requestedHash, neighbor));
-        if (replyQueue.size() > REPLY_QUEUE_SIZE) {
-            replyQueue.pollLast();
+        if (requestedHash.equals(Hash.NULL_HASH) && loadShedder.shed(LoadShedder.SHED_RANDOM_TIP)) {
+            return;
         }
+        replyQueue.offer(new ReplyRequest(requestedHash, neighbor));
     }
 
 
     public void processReceivedDataFromQueue() {
-        final Pair<TransactionViewModel, Neighbor> receivedData = receiveQueue.pollFirst();
+        final Pair<TransactionViewModel, Neighbor> receivedData = receiveQueue.poll();
         if (receivedData != null) {
             processReceivedData(receivedData.getLeft(), receivedData.getRight());
         }
     }
 
     public void replyToRequestFromQueue() {
-        final Pair<Hash, Neighbor> receivedData = replyQueue.pollFirst();
-        if (receivedData != null) {
-            replyToRequest(receivedData.getLeft(), receivedData.getRight());
+        final ReplyRequest request = replyQueue.poll();
+        if (request != null) {
+            replyToRequest(request.hash, request.neighbor);
         }
     }
 
+    /**
+     * Hands <tt>item</tt> to the next pipeline stage, waiting while that stage is full so that backpressure
+     * propagates to the receivers. A lossy hand off falls back to dropping the lowest weight item once the wait is over,
+     * counted as a drop of <tt>stage</tt>.
+     */
+    private <T> void handOff(final StageMetrics stage, final BoundedPriorityBlockingQueue<T> queue, final T item, final boolean lossless) {
+        try {
+            while (!queue.offer(item, QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (!lossless || shuttingDown.get() || queue.contains(item)) {
+                    if (!lossless) {
+                        stage.incDropped();
+                    }
+                    queue.offer(item);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dedupReceivedData(Pair<TransactionViewModel, Neighbor> receivedData) {
+        final Hash hash = receivedData.getLeft().getHash();
+        try {
+            if (TransactionViewModel.exists(tangle, hash)) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Error accessing persistence store.", e);
+            return;
+        }
+        handOff(persistStage, persistQueues.get(Math.floorMod(hash.hashCode(), persistQueues.size())), receivedData, false);
+    }
+
     public void processReceivedData(TransactionViewModel receivedTransactionViewModel, Neighbor neighbor) {
+        if (storeReceivedData(receivedTransactionViewModel, neighbor)) {
+            updateReceivedData(receivedTransactionViewModel, neighbor);
+        }
+    }
+
+    private boolean storeReceivedData(TransactionViewModel receivedTransactionViewModel, Neighbor neighbor) {
 
         boolean stored = false;
 
@@ -379,21 +673,22 @@ public class Node {
             log.error("Error accessing persistence store.", e);
             neighbor.incInvalidTransactions();
         }
+        return stored;
+    }
 
-        //if new, then broadcast to all neighbors
-        if (stored) {
-            receivedTransactionViewModel.setArrivalTime(System.currentTimeMillis());
-            try {
-                transactionValidator.updateStatus(receivedTransactionViewModel);
-                receivedTransactionViewModel.updateSender(neighbor.getAddress().toString());
-                receivedTransactionViewModel.update(tangle, "arrivalTime|sender");
-            } catch (Exception e) {
-                log.error("Error updating transactions.", e);
-            }
-            neighbor.incNewTransactions();
-            broadcast(receivedTransactionViewModel);
+    //new transaction, update it and then broadcast to all neighbors
+    private void updateReceivedData(TransactionViewModel receivedTransactionViewModel, Neighbor neighbor) {
+        receivedTransactionViewModel.setArrivalTime(System.currentTimeMillis());
+        try {
+            //the sender is needed first, missing approvees are requested from it
+            receivedTransactionViewModel.updateSender(neighbor.getAddress().toString());
+            transactionValidator.updateStatus(receivedTransactionViewModel);
+            receivedTransactionViewModel.update(tangle, "arrivalTime|sender");
+        } catch (Exception e) {
+            log.error("Error updating transactions.", e);
         }
-
+        neighbor.incNewTransactions();
+        handOff(broadcastStage, broadcastQueue, new ImmutablePair<>(receivedTransactionViewModel, neighbor), false);
     }
 
     public void replyToRequest(Hash requestedHash, Neighbor neighbor) {
@@ -429,12 +724,8 @@ public class Node {
 
         if (transactionViewModel != null && transactionViewModel.getType() == TransactionViewModel.FILLED_SLOT) {
             //send trytes back to neighbor
-            try {
-                sendPacket(sendingPacket, transactionViewModel, neighbor);
-
-            } catch (Exception e) {
-                log.error("Error fetching transaction to request.", e);
-            }
+            queueForNeighbor(neighbor, transactionViewModel, requestedHash.equals(Hash.NULL_HASH)
+                    ? Neighbor.PRIORITY_RANDOM_TIP : Neighbor.PRIORITY_REPLY);
         } else {
             //trytes not found
             if (!requestedHash.equals(Hash.NULL_HASH) && rnd.nextDouble() < P_PROPAGATE_REQUEST) {
@@ -457,192 +748,516 @@ public class Node {
     }
 
     public void sendPacket(DatagramPacket sendingPacket, TransactionViewModel transactionViewModel, Neighbor neighbor) throws Exception {
+        synchronized (sendingPacket) {
+            fillPacket(sendingPacket, transactionViewModel, neighbor);
+            if (consumeSendTokens(neighbor, sendingPacket.getLength(), Neighbor.PRIORITY_REPLY)) {
+                neighbor.send(sendingPacket);
+            }
+        }
+    }
+
+    /**
+     * @param limit the send limit in Mbit/s, or a negative value for none
+     */
+    private static TokenBucket newSendBucket(double limit) {
+        final double rate = limit < 0 ? -1 : limit * 1000000 / 8;
+        //a burst of a second, but never too small for a few packets
+        return new TokenBucket(rate, Math.max(rate, 4 * TRANSACTION_PACKET_SIZE));
+    }
 
-        //limit amount of sends per second
-        long now = System.currentTimeMillis();
-        if ((now - sendPacketsTimer.get()) > 1000L) {
-            //reset counter every second
-            sendPacketsCounter.set(0);
-            sendPacketsTimer.set(now);
+    /**
+     * Takes <tt>bytes</tt> from the neighbor's and the global send bucket.
+     * @return <tt>false</tt> if either limit does not allow sending them now at the given priority
+     */
+    boolean consumeSendTokens(Neighbor neighbor, int bytes, int priority) {
+        if (!neighbor.getSendBucket().tryConsume(bytes, priority)) {
+            return false;
         }
-        if (sendLimit >= 0 && sendPacketsCounter.get() > sendLimit) {
-            //if exceeded limit - don't send
-            //log.info("exceeded limit - don't send - {}",sendPacketsCounter.get());
-            return;
+        if (!sendBucket.tryConsume(bytes, priority)) {
+            neighbor.getSendBucket().refund(bytes);
+            return false;
         }
+        return true;
+    }
 
-        synchronized (sendingPacket) {
-            System.arraycopy(transactionViewModel.getBytes(), 0, sendingPacket.getData(), 0, TransactionViewModel.SIZE);
-            Hash hash = transactionRequester.transactionToRequest(rnd.nextDouble() < P_SELECT_MILESTONE);
-            System.arraycopy(hash != null ? hash.bytes() : transactionViewModel.getHash().bytes(), 0,
-                    sendingPacket.getData(), TransactionViewModel.SIZE, REQUEST_HASH_SIZE);
-            neighbor.send(sendingPacket);
+    /**
+     * Copies the transaction into <tt>packet</tt>, piggybacking the hash of a transaction we are requesting about as
+     * often as the neighbor answers requests.
+     * Neighbors speaking protocol version 2 get the shorter v2 transaction message where it saves anything.
+     */
+    private void fillPacket(DatagramPacket packet, TransactionViewModel transactionViewModel, Neighbor neighbor) throws Exception {
+        final Hash hash = rnd.nextDouble() < neighbor.getRequestAnswerRatio()
+                ? transactionRequester.transactionToRequest(rnd.nextDouble() < P_SELECT_MILESTONE, neighbor) : null;
+        final byte[] requestHash = hash != null ? hash.bytes() : transactionViewModel.getHash().bytes();
+        if (neighbor.getProtocolVersion() >= MessageCodec.PROTOCOL_VERSION) {
+            final int length = MessageCodec.encodeTransaction(transactionViewModel.getBytes(), requestHash, packet.getData());
+            if (length > 0) {
+                packet.setLength(length);
+                return;
+            }
         }
+        System.arraycopy(transactionViewModel.getBytes(), 0, packet.getData(), 0, TransactionViewModel.SIZE);
+        System.arraycopy(requestHash, 0, packet.getData(), TransactionViewModel.SIZE, REQUEST_HASH_SIZE);
+        packet.setLength(TRANSACTION_PACKET_SIZE);
+    }
 
-        sendPacketsCounter.getAndIncrement();
+    /**
+     * Queues the transaction on the neighbor's outbound queue, handing the neighbor to a writer if none serves it yet.
+     */
+    private void queueForNeighbor(Neighbor neighbor, TransactionViewModel transactionViewModel, int priority) {
+        if (neighbor.queueTransaction(transactionViewModel, priority)) {
+            readyNeighbors.offer(neighbor);
+        }
     }
 
     private Runnable spawnBroadcasterThread() {
+        return spawnStageThread(broadcastStage, broadcastQueue, broadcastData -> {
+            final TransactionViewModel transactionViewModel = broadcastData.getLeft();
+            for (final Neighbor neighbor : neighbors) {
+                //don't echo the transaction to a neighbor that sent it to us
+                if (neighbor.equals(broadcastData.getRight()) || neighbor.probablyHas(transactionViewModel.getHash())) {
+                    suppressedBroadcasts.incrementAndGet();
+                    continue;
+                }
+                queueForNeighbor(neighbor, transactionViewModel, Neighbor.PRIORITY_BROADCAST);
+            }
+        });
+    }
+
+    /**
+     * Writers take turns on the neighbors with queued transactions, sending up to {@link #SEND_BATCH_SIZE} of them
+     * per turn, so a slow neighbor holds up one writer for one batch only. Replies are taken before random tips and
+     * those before broadcasts, and transactions exceeding the send limits for their priority are dropped.
+     */
+    private Runnable spawnNeighborWriterThread() {
         return () -> {
 
-            log.info("Spawning Broadcaster Thread");
+            log.info("Spawning Neighbor Writer Thread");
+
+            final List<TransactionViewModel> batch = new ArrayList<>(SEND_BATCH_SIZE);
+            final int[] priorities = new int[SEND_BATCH_SIZE];
+            final DatagramPacket[] packets = new DatagramPacket[SEND_BATCH_SIZE];
+            for (int i = 0; i < packets.length; i++) {
+                packets[i] = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE], TRANSACTION_PACKET_SIZE);
+            }
 
             while (!shuttingDown.get()) {
 
+                Neighbor neighbor = null;
                 try {
-                    final TransactionViewModel transactionViewModel = broadcastQueue.pollFirst();
-                    if (transactionViewModel != null) {
-
-                        for (final Neighbor neighbor : neighbors) {
-                            try {
-                                sendPacket(sendingPacket, transactionViewModel, neighbor);
-                            } catch (final Exception e) {
-                                // ignore
+                    neighbor = readyNeighbors.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (neighbor == null) {
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    for (int priority = 0; priority < Neighbor.PRIORITIES && batch.size() < SEND_BATCH_SIZE; priority++) {
+                        final int from = batch.size();
+                        neighbor.drainOutboundQueue(priority, batch, SEND_BATCH_SIZE - from);
+                        Arrays.fill(priorities, from, batch.size(), priority);
+                    }
+                    final int count;
+                    if (neighbor.getProtocolVersion() >= MessageCodec.PROTOCOL_VERSION) {
+                        count = packTransactions(batch, priorities, packets, neighbor);
+                    } else {
+                        int filled = 0;
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (!consumeSendTokens(neighbor, TRANSACTION_PACKET_SIZE, priorities[i])) {
+                                neighbor.incDroppedTransactions(1);
+                                continue;
                             }
+                            fillPacket(packets[filled++], batch.get(i), neighbor);
                         }
+                        count = filled;
                     }
-                    Thread.sleep(PAUSE_BETWEEN_TRANSACTIONS);
+                    neighbor.send(packets, count);
+                    sendStage.record(batch.size(), System.nanoTime() - start);
+                } catch (final InterruptedException e) {
+                    log.error("Neighbor Writer Thread Interrupted");
                 } catch (final Exception e) {
-                    log.error("Broadcaster Thread Exception:", e);
+                    log.error("Neighbor Writer Thread Exception:", e);
+                } finally {
+                    batch.clear();
+                    if (neighbor != null && neighbor.releaseWriter()) {
+                        readyNeighbors.offer(neighbor);
+                    }
                 }
             }
-            log.info("Shutting down Broadcaster Thread");
+            log.info("Shutting down Neighbor Writer Thread");
         };
     }
 
-    private Runnable spawnTipRequesterThread() {
+    /**
+     * Packs the batch into as few v2 messages as possible. Requests travel in their own messages with v2 neighbors,
+     * so nothing is piggybacked.
+     * @return the number of packets filled
+     */
+    private int packTransactions(List<TransactionViewModel> batch, int[] priorities, DatagramPacket[] packets, Neighbor neighbor) {
+        int count = 0;
+        int length = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final byte[] transaction = batch.get(i).getBytes();
+            if (!consumeSendTokens(neighbor, MessageCodec.transactionSize(transaction), priorities[i])) {
+                neighbor.incDroppedTransactions(1);
+                continue;
+            }
+            int appended = length > 0 ? MessageCodec.appendTransaction(packets[count].getData(), length, transaction) : -1;
+            if (appended < 0) {
+                if (length > 0) {
+                    packets[count++].setLength(length);
+                }
+                length = MessageCodec.startTransactions(packets[count].getData());
+                appended = MessageCodec.appendTransaction(packets[count].getData(), length, transaction);
+            }
+            length = appended;
+        }
+        if (length > 0) {
+            packets[count++].setLength(length);
+        }
+        return count;
+    }
+
+    /**
+     * Sends every v2 neighbor request messages for up to {@link #requestsPerNeighbor} of the transactions we miss,
+     * once per {@link #REQUEST_INTERVAL}. Legacy neighbors only get requests piggybacked on transactions.
+     * The best scored neighbors are asked first, so they get the most urgent hashes.
+     */
+    private Runnable spawnTransactionRequestThread() {
         return () -> {
 
-            log.info("Spawning Tips Requester Thread");
-            long lastTime = 0;
+            log.info("Spawning Transaction Request Thread");
+
+            final DatagramPacket packet = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE], TRANSACTION_PACKET_SIZE);
             while (!shuttingDown.get()) {
 
                 try {
-                    final TransactionViewModel transactionViewModel = TransactionViewModel.fromHash(tangle, milestone.latestMilestone);
-                    System.arraycopy(transactionViewModel.getBytes(), 0, tipRequestingPacket.getData(), 0, TransactionViewModel.SIZE);
-                    System.arraycopy(transactionViewModel.getHash().bytes(), 0, tipRequestingPacket.getData(), TransactionViewModel.SIZE,
-                            TransactionRequester.REQUEST_HASH_SIZE);
-                    //Hash.SIZE_IN_BYTES);
+                    Thread.sleep(REQUEST_INTERVAL);
+                    for (final Neighbor neighbor : getNeighborsByScore()) {
+                        if (neighbor.getProtocolVersion() < MessageCodec.PROTOCOL_VERSION
+                                || transactionRequester.numberOfTransactionsToRequest() == 0) {
+                            continue;
+                        }
+                        //neighbors that leave requests unanswered are asked for less
+                        final int maxHashes = (int) Math.ceil(requestsPerNeighbor * neighbor.getRequestAnswerRatio());
+                        final List<Hash> hashes = transactionRequester.transactionsToRequest(maxHashes,
+                                rnd.nextDouble() < P_SELECT_MILESTONE, neighbor);
+                        for (int from = 0; from < hashes.size(); from += MessageCodec.MAX_REQUEST_HASHES) {
+                            packet.setLength(MessageCodec.encodeRequest(hashes, from, packet.getData()));
+                            if (consumeSendTokens(neighbor, packet.getLength(), Neighbor.PRIORITY_REPLY)) {
+                                neighbor.send(packet);
+                            }
+                        }
+                        requestedTransactions.addAndGet(hashes.size());
+                    }
+                } catch (final InterruptedException e) {
+                    log.error("Transaction Request Thread Interrupted");
+                } catch (final Exception e) {
+                    log.error("Transaction Request Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Transaction Request Thread");
+        };
+    }
 
-                    neighbors.forEach(n -> n.send(tipRequestingPacket));
+    /**
+     * Scores every neighbor once per {@link #SCORE_INTERVAL} and drops auto added peers that stayed useless for
+     * {@link #MAX_USELESS_INTERVALS} in a row, making room for others.
+     */
+    private Runnable spawnNeighborScoringThread() {
+        return () -> {
 
-                    long now = System.currentTimeMillis();
-                    if ((now - lastTime) > 10000L) {
-                        lastTime = now;
-                        messageQ.publish("rstat %d %d %d %d %d",
-                                getReceiveQueueSize(), getBroadcastQueueSize(),
-                                transactionRequester.numberOfTransactionsToRequest(), getReplyQueueSize(),
-                                TransactionViewModel.getNumberOfStoredTransactions(tangle));
-                        log.info("toProcess = {} , toBroadcast = {} , toRequest = {} , toReply = {} / totalTransactions = {}",
-                                getReceiveQueueSize(), getBroadcastQueueSize(),
-                                transactionRequester.numberOfTransactionsToRequest(), getReplyQueueSize(),
-                                TransactionViewModel.getNumberOfStoredTransactions(tangle));
+            log.info("Spawning Neighbor Scoring Thread");
+            while (!shuttingDown.get()) {
+                try {
+                    Thread.sleep(SCORE_INTERVAL);
+                    final long now = System.currentTimeMillis();
+                    droppedNeighbors.values().removeIf(until -> until <= now);
+                    for (final Neighbor neighbor : neighbors) {
+                        neighbor.updateScore();
+                        if (!neighbor.isFlagged() && neighbor.getScore().getUselessIntervals() >= MAX_USELESS_INTERVALS
+                                && neighbors.remove(neighbor)) {
+                            if (neighbor instanceof TCPNeighbor) {
+                                ((TCPNeighbor) neighbor).clear();
+                            }
+                            transactionRequester.removeOrigin(neighbor.getAddress().toString());
+                            droppedNeighbors.put(neighbor.getHostAddress(), now + DROPPED_NEIGHBOR_COOLDOWN);
+                            Neighbor.decNumPeers();
+                            log.info("Dropped useless neighbor {} , score = {}", neighbor.getAddress(),
+                                    String.format("%.3f", neighbor.getScore().getScore()));
+                            messageQ.publish("dnbr %s", neighbor.getAddress());
+                        }
                     }
-
-                    Thread.sleep(5000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 } catch (final Exception e) {
-                    log.error("Tips Requester Thread Exception:", e);
+                    log.error("Neighbor Scoring Thread Exception:", e);
                 }
             }
-            log.info("Shutting down Requester Thread");
+            log.info("Shutting down Neighbor Scoring Thread");
         };
     }
 
-    private Runnable spawnProcessReceivedThread() {
+    /**
+     * @return <tt>true</tt> if a peer of the host was dropped for being useless recently, and is not to be added back
+     * automatically yet
+     */
+    public boolean isCoolingDown(String hostAddress) {
+        final Long until = droppedNeighbors.get(hostAddress);
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    /**
+     * @return the neighbors, best scored first
+     */
+    List<Neighbor> getNeighborsByScore() {
+        final List<Neighbor> sorted = new ArrayList<>(neighbors);
+        sorted.sort(Comparator.comparingDouble((Neighbor n) -> n.getScore().getScore()).reversed());
+        return sorted;
+    }
+
+    /**
+     * A worker of a pipeline stage, handling the items of <tt>queue</tt> in batches.
+     */
+    private <T> Runnable spawnStageThread(final StageMetrics stage, final BoundedPriorityBlockingQueue<T> queue, final Consumer<T> handler) {
         return () -> {
 
-            log.info("Spawning Process Received Data Thread");
+            log.info("Spawning {} Stage Thread", stage.getName());
 
+            final List<T> batch = new ArrayList<>(QUEUE_DRAIN_BATCH_SIZE);
             while (!shuttingDown.get()) {
 
                 try {
-                    processReceivedDataFromQueue();
-                    Thread.sleep(1);
+                    if (queue.drainTo(batch, QUEUE_DRAIN_BATCH_SIZE, QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS) == 0) {
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    for (final T item : batch) {
+                        handler.accept(item);
+                    }
+                    stage.record(batch.size(), System.nanoTime() - start);
                 } catch (final Exception e) {
-                    log.error("Process Received Data Thread Exception:", e);
+                    log.error(stage.getName() + " Stage Thread Exception:", e);
+                } finally {
+                    batch.clear();
                 }
             }
-            log.info("Shutting down Process Received Data Thread");
+            log.info("Shutting down {} Stage Thread", stage.getName());
         };
     }
 
-    private Runnable spawnReplyToRequestThread() {
+    private Runnable spawnBatchHashingThread() {
         return () -> {
 
-            log.info("Spawning Reply To Request Thread");
+            log.info("Spawning Batch Hashing Thread");
+
+            final BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+            final List<HashingRequest> batch = new ArrayList<>(BatchHasher.MAX_BATCH_SIZE);
+            final List<byte[]> batchData = new ArrayList<>(BatchHasher.MAX_BATCH_SIZE);
 
             while (!shuttingDown.get()) {
 
                 try {
-                    replyToRequestFromQueue();
-                    Thread.sleep(1);
+                    final HashingRequest request = hashingQueue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (request == null) {
+                        continue;
+                    }
+                    //take whatever else is waiting, so the batch grows with the load
+                    batch.add(request);
+                    hashingQueue.drainTo(batch, BatchHasher.MAX_BATCH_SIZE - 1);
+                    final long start = System.nanoTime();
+                    for (final HashingRequest r : batch) {
+                        batchData.add(r.data);
+                    }
+
+                    final Hash[] hashes = batchHasher.hash(batchData);
+                    for (int i = 0; i < hashes.length; i++) {
+                        processHashedData(batch.get(i), hashes[i]);
+                    }
+                    hashStage.record(batch.size(), System.nanoTime() - start);
+                } catch (final InterruptedException e) {
+                    log.error("Batch Hashing Thread Interrupted");
                 } catch (final Exception e) {
-                    log.error("Reply To Request Thread Exception:", e);
+                    log.error("Batch Hashing Thread Exception:", e);
+                } finally {
+                    batch.clear();
+                    batchData.clear();
                 }
             }
-            log.info("Shutting down Reply To Request Thread");
+            log.info("Shutting down Batch Hashing Thread");
         };
     }
 
+    private void logPipelineStatus() {
+        long persistDropped = 0;
+        for (final BoundedPriorityBlockingQueue<?> persistQueue : persistQueues) {
+            persistDropped += persistQueue.getDroppedCount();
+        }
+        logStageStatus(hashStage, hashingQueue.size(), hashingDropped.get());
+        logStageStatus(dedupStage, receiveQueue.size(), receiveQueue.getDroppedCount());
+        logStageStatus(persistStage, getPersistQueueSize(), persistDropped);
+        logStageStatus(updateStage, updateQueue.size(), updateQueue.getDroppedCount());
+        logStageStatus(broadcastStage, broadcastQueue.size(), broadcastQueue.getDroppedCount());
+        logStageStatus(replyStage, replyQueue.size(), replyQueue.getDroppedCount());
+        int sendQueued = 0;
+        long sendDropped = 0;
+        for (final Neighbor neighbor : neighbors) {
+            sendQueued += neighbor.getOutboundQueueSize();
+            sendDropped += neighbor.getNumberOfDroppedTransactions();
+        }
+        logStageStatus(sendStage, sendQueued, sendDropped);
+        log.info("Broadcasts suppressed, neighbor already had the transaction: {}", suppressedBroadcasts.get());
+        log.info("Invalid v2 messages received: {}, transactions requested in v2 messages: {}", invalidMessages.get(), requestedTransactions.get());
+        messageQ.publish("lshed %.3f %.2f %d %d %d", loadShedder.getDropRate(), loadShedder.getLoad(),
+                loadShedder.getShed(LoadShedder.SHED_OVER_LIMIT), loadShedder.getShed(LoadShedder.SHED_RANDOM_TIP),
+                loadShedder.getShed(LoadShedder.SHED_UNREQUESTED));
+        log.info("Load shedding : drop rate = {} , load = {} , shed over limit = {} , random tip = {} , unrequested = {}",
+                String.format("%.3f", loadShedder.getDropRate()), String.format("%.2f", loadShedder.getLoad()),
+                loadShedder.getShed(LoadShedder.SHED_OVER_LIMIT), loadShedder.getShed(LoadShedder.SHED_RANDOM_TIP),
+                loadShedder.getShed(LoadShedder.SHED_UNREQUESTED));
+    }
 
-    private static ConcurrentSkipListSet<TransactionViewModel> weightQueue() {
-        return new ConcurrentSkipListSet<>((transaction1, transaction2) -> {
-            if (transaction1.weightMagnitude == transaction2.weightMagnitude) {
-                for (int i = Hash.SIZE_IN_BYTES; i-- > 0; ) {
-                    if (transaction1.getHash().bytes()[i] != transaction2.getHash().bytes()[i]) {
-                        return transaction2.getHash().bytes()[i] - transaction1.getHash().bytes()[i];
-                    }
-                }
-                return 0;
-            }
-            return transaction2.weightMagnitude - transaction1.weightMagnitude;
-        });
+    private void logStageStatus(StageMetrics stage, int queued, long dropped) {
+        messageQ.publish("pstat %s %d %d %d %d", stage.getName(), queued, stage.getProcessed(),
+                stage.getAverageLatencyMicros(), dropped);
+        log.info("Stage {} : workers = {} , queued = {} , processed = {} , latency = {}us , dropped = {} , full on hand off = {}",
+                stage.getName(), stage.getWorkers(), queued, stage.getProcessed(), stage.getAverageLatencyMicros(), dropped,
+                stage.getDropped());
+        stage.resetInterval();
     }
 
-    //TODO generalize these weightQueues
-    private static ConcurrentSkipListSet<Pair<Hash, Neighbor>> weightQueueHashPair() {
-        return new ConcurrentSkipListSet<Pair<Hash, Neighbor>>((transaction1, transaction2) -> {
-            Hash tx1 = transaction1.getLeft();
-            Hash tx2 = transaction2.getLeft();
+    private Runnable spawnLoadShedderThread() {
+        return () -> {
 
-            for (int i = Hash.SIZE_IN_BYTES; i-- > 0; ) {
-                if (tx1.bytes()[i] != tx2.bytes()[i]) {
-                    return tx2.bytes()[i] - tx1.bytes()[i];
+            log.info("Spawning Load Shedder Thread");
+            while (!shuttingDown.get()) {
+                try {
+                    loadShedder.update(getIngestQueueFill());
+                    Thread.sleep(LOAD_SHED_INTERVAL);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final Exception e) {
+                    log.error("Load Shedder Thread Exception:", e);
                 }
             }
-            return 0;
+            log.info("Shutting down Load Shedder Thread");
+        };
+    }
 
-        });
+    /**
+     * @return the share in use of the fullest queue transactions pass through before they are stored
+     */
+    private double getIngestQueueFill() {
+        double fill = (double) hashingQueue.size() / RECV_QUEUE_SIZE;
+        fill = Math.max(fill, (double) receiveQueue.size() / receiveQueue.getCapacity());
+        for (final BoundedPriorityBlockingQueue<?> persistQueue : persistQueues) {
+            fill = Math.max(fill, (double) persistQueue.size() / persistQueue.getCapacity());
+        }
+        return Math.max(fill, (double) updateQueue.size() / updateQueue.getCapacity());
     }
 
-    private static ConcurrentSkipListSet<Pair<TransactionViewModel, Neighbor>> weightQueueTxPair() {
-        return new ConcurrentSkipListSet<Pair<TransactionViewModel, Neighbor>>((transaction1, transaction2) -> {
-            TransactionViewModel tx1 = transaction1.getLeft();
-            TransactionViewModel tx2 = transaction2.getLeft();
+    private Runnable spawnTipRequesterThread() {
+        return () -> {
+
+            log.info("Spawning Tips Requester Thread");
+            long lastTime = 0;
+            long lastHello = 0;
+            while (!shuttingDown.get()) {
+
+                try {
+                    if (System.currentTimeMillis() - lastHello > UDPNeighbor.HELLO_INTERVAL) {
+                        lastHello = System.currentTimeMillis();
+                        neighbors.stream().filter(n -> n instanceof UDPNeighbor)
+                                .forEach(n -> ((UDPNeighbor) n).sendHello());
+                    }
+
+                    final TransactionViewModel transactionViewModel = TransactionViewModel.fromHash(tangle, milestone.latestMilestone);
+                    System.arraycopy(transactionViewModel.getBytes(), 0, tipRequestingPacket.getData(), 0, TransactionViewModel.SIZE);
+                    System.arraycopy(transactionViewModel.getHash().bytes(), 0, tipRequestingPacket.getData(), TransactionViewModel.SIZE,
+                            TransactionRequester.REQUEST_HASH_SIZE);
+                    //Hash.SIZE_IN_BYTES);
+
+                    neighbors.stream().filter(n -> consumeSendTokens(n, TRANSACTION_PACKET_SIZE, Neighbor.PRIORITY_REPLY))
+                            .forEach(n -> n.send(tipRequestingPacket));
 
-            if (tx1.weightMagnitude == tx2.weightMagnitude) {
-                for (int i = Hash.SIZE_IN_BYTES; i-- > 0; ) {
-                    if (tx1.getHash().bytes()[i] != tx2.getHash().bytes()[i]) {
-                        return tx2.getHash().bytes()[i] - tx1.getHash().bytes()[i];
+                    long now = System.currentTimeMillis();
+                    if ((now - lastTime) > 10000L) {
+                        lastTime = now;
+                        messageQ.publish("hmr %d/%d", recentSeenBytes.getHitCount(), recentSeenBytes.getMissCount());
+                        log.info("RecentSeenBytes cache hit/miss: {}/{}", recentSeenBytes.getHitCount(), recentSeenBytes.getMissCount());
+                        final TransactionCache transactionCache = tangle.getTransactionCache();
+                        if (transactionCache != null) {
+                            messageQ.publish("thmr %d/%d", transactionCache.getHitCount(), transactionCache.getMissCount());
+                            log.info("Transaction cache hit/miss: {}/{} ({} transactions, {} MB)", transactionCache.getHitCount(),
+                                    transactionCache.getMissCount(), transactionCache.size(), transactionCache.getBytes() / (1024 * 1024));
+                        }
+                        final GroupCommitWriter groupCommitWriter = tangle.getGroupCommitWriter();
+                        if (groupCommitWriter != null) {
+                            log.info("Group commits: {} writing {} stores and updates", groupCommitWriter.getCommitCount(),
+                                    groupCommitWriter.getWriteCount());
+                        }
+                        messageQ.publish("rstat %d %d %d %d %d",
+                                getReceiveQueueSize(), getBroadcastQueueSize(),
+                                transactionRequester.numberOfTransactionsToRequest(), getReplyQueueSize(),
+                                TransactionViewModel.getNumberOfStoredTransactions(tangle));
+                        log.info("toHash = {} , toProcess = {} , toPersist = {} , toUpdate = {} , toBroadcast = {} , toRequest = {} , toReply = {} / totalTransactions = {}",
+                                getHashingQueueSize(), getReceiveQueueSize(), getPersistQueueSize(), getUpdateQueueSize(), getBroadcastQueueSize(),
+                                transactionRequester.numberOfTransactionsToRequest(), getReplyQueueSize(),
+                                TransactionViewModel.getNumberOfStoredTransactions(tangle));
+                        logPipelineStatus();
                     }
+
+                    Thread.sleep(5000);
+                } catch (final Exception e) {
+                    log.error("Tips Requester Thread Exception:", e);
                 }
-                return 0;
             }
-            return tx2.weightMagnitude - tx1.weightMagnitude;
-        });
+            log.info("Shutting down Requester Thread");
+        };
     }
 
+    /**
+     * Orders heavier transactions first, ties are broken by hash.
+     */
+    private static int compareWeight(TransactionViewModel transaction1, TransactionViewModel transaction2) {
+        if (transaction1.weightMagnitude == transaction2.weightMagnitude) {
+            return compareHash(transaction1.getHash(), transaction2.getHash());
+        }
+        return transaction2.weightMagnitude - transaction1.weightMagnitude;
+    }
 
-    public void broadcast(final TransactionViewModel transactionViewModel) {
-        broadcastQueue.add(transactionViewModel);
-        if (broadcastQueue.size() > BROADCAST_QUEUE_SIZE) {
-            broadcastQueue.pollLast();
+    private static int compareTransactionPair(Pair<TransactionViewModel, Neighbor> pair1, Pair<TransactionViewModel, Neighbor> pair2) {
+        return compareWeight(pair1.getLeft(), pair2.getLeft());
+    }
+
+    private static int compareHash(Hash hash1, Hash hash2) {
+        for (int i = Hash.SIZE_IN_BYTES; i-- > 0; ) {
+            if (hash1.bytes()[i] != hash2.bytes()[i]) {
+                return hash2.bytes()[i] - hash1.bytes()[i];
+            }
         }
+        return 0;
+    }
+
+    /**
+     * Broadcasts a transaction that did not come from a neighbor, e.g. one attached through the API.
+     */
+    public void broadcast(final TransactionViewModel transactionViewModel) {
+        broadcastQueue.offer(new ImmutablePair<>(transactionViewModel, null));
     }
 
     public void shutdown() throws InterruptedException {
         shuttingDown.set(true);
+        if (subtangleSync != null) {
+            subtangleSync.shutdown();
+        }
+        if (packetReplayer != null) {
+            packetReplayer.shutdown();
+        }
         executor.awaitTermination(6, TimeUnit.SECONDS);
+        if (packetRecorder != null) {
+            packetRecorder.close();
+        }
     }
 
     // helpers methods
@@ -655,6 +1270,8 @@ public class Node {
                     .filter(n -> n.equals(neighbor))
                     .forEach(TCPNeighbor::clear);
         }
+        neighbors.stream().filter(n -> n.equals(neighbor))
+                .forEach(n -> transactionRequester.removeOrigin(n.getAddress().toString()));
         return neighbors.remove(neighbor);
     }
 
@@ -679,15 +1296,28 @@ public class Node {
     public Neighbor newNeighbor(final URI uri, boolean isConfigured) {
         if (isUriValid(uri)) {
             if (uri.getScheme().equals("tcp")) {
-                return new TCPNeighbor(new InetSocketAddress(uri.getHost(), uri.getPort()), isConfigured, newTxLimit);
+                return withSendBucket(withHashFilter(new TCPNeighbor(new InetSocketAddress(uri.getHost(), uri.getPort()), isConfigured, newTxLimit)));
             }
             if (uri.getScheme().equals("udp")) {
-                return new UDPNeighbor(new InetSocketAddress(uri.getHost(), uri.getPort()), udpSocket, isConfigured, newTxLimit);
+                final InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort());
+                return withSendBucket(withHashFilter(new UDPNeighbor(address, getUdpChannel(address), isConfigured, newTxLimit)));
             }
         }
         throw new RuntimeException(uri.toString());
     }
 
+    private Neighbor withHashFilter(final Neighbor neighbor) {
+        if (neighborHashFilterSize > 0) {
+            neighbor.setReceivedHashFilter(new RecentHashFilter(neighborHashFilterSize));
+        }
+        return neighbor;
+    }
+
+    private Neighbor withSendBucket(final Neighbor neighbor) {
+        neighbor.setSendBucket(newSendBucket(neighborSendLimit));
+        return neighbor;
+    }
+
     public static Optional<URI> uri(final String uri) {
         try {
             return Optional.of(new URI(uri));
@@ -732,38 +1362,94 @@ public class Node {
         return replyQueue.size();
     }
 
-    public class FIFOCache<K, V> {
+    public int getPersistQueueSize() {
+        int size = 0;
+        for (final BoundedPriorityBlockingQueue<?> persistQueue : persistQueues) {
+            size += persistQueue.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return received transactions dropped by the ingest pipeline because a stage could not keep up
+     */
+    public long getNumberOfDroppedTransactions() {
+        long dropped = hashingDropped.get() + receiveQueue.getDroppedCount() + updateQueue.getDroppedCount();
+        for (final BoundedPriorityBlockingQueue<?> persistQueue : persistQueues) {
+            dropped += persistQueue.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the recorder received messages are captured with, or <tt>null</tt> if they are not captured
+     */
+    public PacketRecorder getPacketRecorder() {
+        return packetRecorder;
+    }
+
+    public LoadShedder getLoadShedder() {
+        return loadShedder;
+    }
+
+    public int getUpdateQueueSize() {
+        return updateQueue.size();
+    }
+
+    public long getRecentSeenBytesHitCount() {
+        return recentSeenBytes.getHitCount();
+    }
+
+    public long getRecentSeenBytesMissCount() {
+        return recentSeenBytes.getMissCount();
+    }
+
+    public int getHashingQueueSize() {
+        return hashingQueue.size();
+    }
 
-        private final int capacity;
-        private final double dropRate;
-        private LinkedHashMap<K, V> map;
-        private final SecureRandom rnd = new SecureRandom();
+    /**
+     * @return whether the hashing stage, and the subtangle sync for the sync neighbor, have room for the transactions
+     * of another message of the neighbor, tcp sources stop reading while they have not
+     */
+    public boolean hasReceiveRoom(Neighbor neighbor) {
+        return hashingQueue.remainingCapacity() >= MessageCodec.MAX_TRANSACTIONS
+                && (subtangleSync == null || subtangleSync.hasIngestRoom(neighbor));
+    }
 
-        public FIFOCache(int capacity, double dropRate) {
-            this.capacity = capacity;
-            this.dropRate = dropRate;
-            this.map = new LinkedHashMap<>();
+    /**
+     * A request to answer, ordered by the score its neighbor had when it was queued, so the best neighbors are
+     * answered first and the worst ones' requests are dropped first when the queue overflows.
+     */
+    private static class ReplyRequest implements Comparable<ReplyRequest> {
+        private final Hash hash;
+        private final Neighbor neighbor;
+        private final double score;
+
+        private ReplyRequest(Hash hash, Neighbor neighbor) {
+            this.hash = hash;
+            this.neighbor = neighbor;
+            this.score = neighbor.getScore().getScore();
         }
 
-        public V get(K key) {
-            V value = this.map.get(key);
-            if (value != null && (rnd.nextDouble() < this.dropRate)) {
-                this.map.remove(key);
-                return null;
-            }
-            return value;
+        @Override
+        public int compareTo(ReplyRequest other) {
+            final int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : compareHash(hash, other.hash);
         }
+    }
 
-        public V put(K key, V value) {
-            if (this.map.containsKey(key)) {
-                return value;
-            }
-            if (this.map.size() >= this.capacity) {
-                Iterator<K> it = this.map.keySet().iterator();
-                it.next();
-                it.remove();
-            }
-            return this.map.put(key, value);
+    private static class HashingRequest {
+        private final byte[] data;
+        private final long fingerprint;
+        private final Neighbor neighbor;
+        private final boolean reply;
+
+        private HashingRequest(byte[] data, long fingerprint, Neighbor neighbor, boolean reply) {
+            this.data = data;
+            this.fingerprint = fingerprint;
+            this.neighbor = neighbor;
+            this.reply = reply;
         }
     }
 
@@ -0,0 +1,143 @@
+package com.iota.iri.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Appends received messages to capture files, to be fed into a node again by {@link PacketReplayer}.
+ *
+ * Captures roll over to a new file once the current one reaches its maximum size, and only the newest files are kept.
+ * The files are named after the capture path with an increasing number appended, <tt>path.0</tt>, <tt>path.1</tt>
+ * and so on. Each file starts with {@link #MAGIC} and {@link #VERSION}, followed by records of:
+ * <ul>
+ *     <li>the arrival time in microseconds since the epoch, as a long</li>
+ *     <li>the transport, {@link #UDP} or {@link #TCP}, as a byte</li>
+ *     <li>the sender's address length as a byte, followed by the address and its port as a short</li>
+ *     <li>the message length as a short, followed by the message</li>
+ * </ul>
+ */
+public class PacketRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(PacketRecorder.class);
+
+    static final int MAGIC = 0x49524943;
+    static final int VERSION = 1;
+    static final byte UDP = 0;
+    static final byte TCP = 1;
+
+    private final String path;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private DataOutputStream out;
+    private int fileNumber;
+    private long recorded = 0;
+    private boolean failed = false;
+
+    /**
+     * @param maxFileSize the bytes after which a new file is started
+     * @param maxFiles the number of files to keep, older ones are deleted
+     */
+    public PacketRecorder(String path, long maxFileSize, int maxFiles) {
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        //continue after the files of earlier captures instead of overwriting them
+        final List<File> files = files(path);
+        this.fileNumber = files.isEmpty() ? -1 : fileNumber(files.get(files.size() - 1));
+    }
+
+    public synchronized void record(byte[] message, int length, SocketAddress senderAddress, String uriScheme) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (out == null || out.size() >= maxFileSize) {
+                roll();
+            }
+            out.writeLong(startMillis * 1000 + (System.nanoTime() - startNanos) / 1000);
+            out.writeByte("tcp".equals(uriScheme) ? TCP : UDP);
+            if (senderAddress instanceof InetSocketAddress && ((InetSocketAddress) senderAddress).getAddress() != null) {
+                final InetSocketAddress address = (InetSocketAddress) senderAddress;
+                final byte[] host = address.getAddress().getAddress();
+                out.writeByte(host.length);
+                out.write(host);
+                out.writeShort(address.getPort());
+            } else {
+                out.writeByte(0);
+                out.writeShort(0);
+            }
+            out.writeShort(length);
+            out.write(message, 0, length);
+            recorded++;
+        } catch (IOException e) {
+            log.error("Stopped capturing packets to " + path, e);
+            failed = true;
+            close();
+        }
+    }
+
+    private void roll() throws IOException {
+        close();
+        fileNumber++;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + "." + fileNumber)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        final File expired = new File(path + "." + (fileNumber - maxFiles));
+        if (expired.exists() && !expired.delete()) {
+            log.warn("Could not delete old capture file {}", expired);
+        }
+    }
+
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.error("Error closing capture file", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * @return the capture files written to <tt>path</tt>, oldest first
+     */
+    static List<File> files(String path) {
+        final File base = new File(path).getAbsoluteFile();
+        final String prefix = base.getName() + ".";
+        final List<File> files = new ArrayList<>();
+        final File[] candidates = base.getParentFile().listFiles();
+        if (candidates != null) {
+            for (final File file : candidates) {
+                if (file.getName().startsWith(prefix) && file.getName().substring(prefix.length()).matches("\\d+")) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparingInt(PacketRecorder::fileNumber));
+        return files;
+    }
+
+    private static int fileNumber(File file) {
+        final String name = file.getName();
+        return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+    }
+}
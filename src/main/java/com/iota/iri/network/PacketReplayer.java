@@ -0,0 +1,112 @@
+package com.iota.iri.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Feeds the messages captured by a {@link PacketRecorder} into a node again, at the pace they arrived, some multiple
+ * of it, or as fast as the node takes them.
+ *
+ * Messages are only handled if their senders are neighbors of the node, so it has to be configured with the
+ * neighbors of the node the capture was taken on.
+ */
+public class PacketReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(PacketReplayer.class);
+
+    public interface Receiver {
+        void receive(byte[] message, int length, SocketAddress senderAddress, String uriScheme);
+    }
+
+    private final String path;
+    private final double speed;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+
+    /**
+     * @param path the path the capture was recorded to, all of its files are replayed oldest first
+     * @param speed how many times faster than recorded to replay, 0 or less for as fast as possible
+     */
+    public PacketReplayer(String path, double speed) {
+        this.path = path;
+        this.speed = speed;
+    }
+
+    /**
+     * @return the number of messages replayed
+     */
+    public long replay(Receiver receiver) throws IOException, InterruptedException {
+        final byte[] message = new byte[Node.TRANSACTION_PACKET_SIZE];
+        long replayed = 0;
+        long firstTime = -1;
+        long startNanos = 0;
+        for (final File file : PacketRecorder.files(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != PacketRecorder.MAGIC || in.readInt() != PacketRecorder.VERSION) {
+                    log.warn("Skipping {}, it is not a capture file of this version", file);
+                    continue;
+                }
+                while (!shuttingDown.get()) {
+                    final long time;
+                    try {
+                        time = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final String uriScheme = in.readByte() == PacketRecorder.TCP ? "tcp" : "udp";
+                    final byte[] host = new byte[in.readUnsignedByte()];
+                    in.readFully(host);
+                    final int port = in.readUnsignedShort();
+                    final int length = in.readUnsignedShort();
+                    in.readFully(message, 0, length);
+
+                    if (firstTime < 0) {
+                        firstTime = time;
+                        startNanos = System.nanoTime();
+                    } else if (speed > 0) {
+                        final long wait = startNanos + (long) ((time - firstTime) * 1000 / speed) - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                        }
+                    }
+                    final SocketAddress senderAddress = host.length == 0 ? null
+                            : new InetSocketAddress(InetAddress.getByAddress(host), port);
+                    receiver.receive(message, length, senderAddress, uriScheme);
+                    replayed++;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    public Runnable spawnReplayThread(Node node) {
+        return () -> {
+
+            log.info("Spawning Replay Thread for {} at {}x", path, speed > 0 ? speed : "max");
+            try {
+                final long start = System.currentTimeMillis();
+                final long replayed = replay(node::preProcessReceivedMessage);
+                log.info("Replayed {} messages in {}ms", replayed, System.currentTimeMillis() - start);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException e) {
+                log.error("Replay Thread Exception:", e);
+            }
+            log.info("Shutting down Replay Thread");
+        };
+    }
+
+    public void shutdown() {
+        shuttingDown.set(true);
+    }
+}
@@ -0,0 +1,52 @@
+package com.iota.iri.network;
+
+import com.iota.iri.model.Hash;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lossy set of recently added transaction hashes.
+ *
+ * Every hash maps to a single slot, so newer hashes overwrite older ones and {@link #mightContain(Hash)}
+ * may forget a hash early. A false positive needs two hashes with the same 64 bit fingerprint, which is seeded per
+ * filter like the one of {@link RecentSeenBytesCache}, so senders can't make their hashes hide others.
+ */
+public class RecentHashFilter {
+
+    private static final long EMPTY = 0L;
+
+    private final AtomicLongArray fingerprints;
+    private final int mask;
+    private final long seed = new SecureRandom().nextLong();
+
+    public RecentHashFilter(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(1, capacity));
+        if (slots < capacity) {
+            slots <<= 1;
+        }
+        this.fingerprints = new AtomicLongArray(slots);
+        this.mask = slots - 1;
+    }
+
+    public void add(Hash hash) {
+        final long fingerprint = fingerprint(hash);
+        fingerprints.lazySet(slot(fingerprint), fingerprint);
+    }
+
+    public boolean mightContain(Hash hash) {
+        final long fingerprint = fingerprint(hash);
+        return fingerprints.get(slot(fingerprint)) == fingerprint;
+    }
+
+    private int slot(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    private long fingerprint(Hash hash) {
+        final byte[] bytes = hash.bytes();
+        final long fingerprint = RecentSeenBytesCache.fingerprint(seed, bytes, bytes.length);
+        // 0 marks an empty slot
+        return fingerprint == EMPTY ? 1L : fingerprint;
+    }
+}
@@ -0,0 +1,162 @@
+package com.iota.iri.network;
+
+import com.iota.iri.model.Hash;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the hashes of recently received transaction bytes so duplicates skip hashing and validation.
+ *
+ * Entries are keyed on a seeded 64 bit fingerprint of the bytes and stored in fixed arrays of
+ * {@link #WAYS}-way buckets, each bucket evicting its oldest entry first. Buckets are guarded by
+ * striped locks, so lookups neither allocate nor contend on a single monitor.
+ */
+public class RecentSeenBytesCache {
+
+    static final int WAYS = 4;
+    private static final int STRIPES = 64;
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+    private final long[] fingerprints;
+    private final boolean[] occupied;
+    private final Hash[] hashes;
+    private final int[] nextSlot;
+    private final int bucketMask;
+    private final Object[] locks = new Object[STRIPES];
+
+    private final double dropRate;
+    // per node secret, so fingerprint collisions can't be precomputed
+    private final long seed = new SecureRandom().nextLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RecentSeenBytesCache(int capacity, double dropRate) {
+        int buckets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+        if (buckets * WAYS < capacity) {
+            buckets <<= 1;
+        }
+        this.bucketMask = buckets - 1;
+        this.fingerprints = new long[buckets * WAYS];
+        this.occupied = new boolean[buckets * WAYS];
+        this.hashes = new Hash[buckets * WAYS];
+        this.nextSlot = new int[buckets];
+        this.dropRate = dropRate;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public long fingerprint(byte[] bytes, int length) {
+        return fingerprint(seed, bytes, length);
+    }
+
+    /**
+     * @return a 64 bit fingerprint of the first <tt>length</tt> bytes, which without the seed can't be aimed at a collision
+     */
+    static long fingerprint(long seed, byte[] bytes, int length) {
+        long h = seed ^ (length * PRIME_3);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            h ^= mix(readLong(bytes, i));
+            h = Long.rotateLeft(h, 27) * PRIME_1 + PRIME_3;
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += Byte.SIZE) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+        h ^= mix(tail);
+        h ^= h >>> 33;
+        h *= PRIME_2;
+        h ^= h >>> 29;
+        h *= PRIME_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * @return the cached hash, or <tt>null</tt> if the fingerprint is unknown or its entry was randomly dropped
+     */
+    public Hash get(long fingerprint) {
+        final int bucket = bucket(fingerprint);
+        final int base = bucket * WAYS;
+        synchronized (lock(bucket)) {
+            for (int i = base; i < base + WAYS; i++) {
+                if (occupied[i] && fingerprints[i] == fingerprint) {
+                    if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+                        occupied[i] = false;
+                        hashes[i] = null;
+                        break;
+                    }
+                    hits.increment();
+                    return hashes[i];
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(long fingerprint, Hash hash) {
+        final int bucket = bucket(fingerprint);
+        final int base = bucket * WAYS;
+        synchronized (lock(bucket)) {
+            int free = -1;
+            for (int i = base; i < base + WAYS; i++) {
+                if (occupied[i]) {
+                    if (fingerprints[i] == fingerprint) {
+                        return;
+                    }
+                } else if (free < 0) {
+                    free = i;
+                }
+            }
+            if (free < 0) {
+                // evict the oldest entry of the bucket
+                free = base + nextSlot[bucket];
+                nextSlot[bucket] = (nextSlot[bucket] + 1) % WAYS;
+            }
+            fingerprints[free] = fingerprint;
+            hashes[free] = hash;
+            occupied[free] = true;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private int bucket(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & bucketMask;
+    }
+
+    private Object lock(int bucket) {
+        return locks[bucket & (STRIPES - 1)];
+    }
+
+    private static long mix(long k) {
+        k *= PRIME_2;
+        k = Long.rotateLeft(k, 31);
+        return k * PRIME_1;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+    }
+}
@@ -0,0 +1,61 @@
+package com.iota.iri.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, latency and drop counters of one stage of the {@link Node} ingest pipeline.
+ *
+ * Latency is the time a worker spends on an item, averaged over the items processed since the last
+ * {@link #resetInterval()}.
+ */
+public class StageMetrics {
+
+    private final String name;
+    private final int workers;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder intervalProcessed = new LongAdder();
+    private final LongAdder intervalNanos = new LongAdder();
+
+    public StageMetrics(String name, int workers) {
+        this.name = name;
+        this.workers = workers;
+    }
+
+    public void record(int items, long nanos) {
+        processed.add(items);
+        intervalProcessed.add(items);
+        intervalNanos.add(nanos);
+    }
+
+    public void incDropped() {
+        dropped.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getAverageLatencyMicros() {
+        long items = intervalProcessed.sum();
+        return items == 0 ? 0 : intervalNanos.sum() / items / 1000;
+    }
+
+    public void resetInterval() {
+        intervalProcessed.reset();
+        intervalNanos.reset();
+    }
+}
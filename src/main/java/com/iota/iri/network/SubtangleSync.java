@@ -0,0 +1,454 @@
+package com.iota.iri.network;
+
+import com.iota.iri.Milestone;
+import com.iota.iri.TransactionValidator;
+import com.iota.iri.controllers.MilestoneViewModel;
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.hash.BatchHasher;
+import com.iota.iri.hash.SpongeFactory;
+import com.iota.iri.model.Hash;
+import com.iota.iri.storage.Indexable;
+import com.iota.iri.storage.Persistable;
+import com.iota.iri.storage.Tangle;
+import com.iota.iri.utils.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.iota.iri.network.Node.TRANSACTION_PACKET_SIZE;
+
+/**
+ * Catches up on milestones by having a single tcp neighbor stream whole subtangles, instead of requesting every
+ * missing transaction on its own.
+ *
+ * While we are behind the latest milestone, the sync neighbor is asked for the subtangle of the milestone following
+ * the last one we received completely: every transaction the milestone confirms, approvees before approvers.
+ * It is streamed over the replicator connection and closed by a done message. Received transactions are hashed in
+ * batches and stored with one write per batch, and are not broadcast. After a restart the sync resumes from the
+ * latest solid milestone.
+ */
+public class SubtangleSync {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtangleSync.class);
+
+    private static final long REQUEST_TIMEOUT = 60000L;
+    private static final long REQUEST_INTERVAL = 1000L;
+    private static final long SEND_TIMEOUT = 10000L;
+    private static final int QUEUE_POLL_TIMEOUT = 100;
+    private static final int INGEST_QUEUE_SIZE = 10000;
+    private static final int SERVE_QUEUE_SIZE = 16;
+    static final int MAX_SUBTANGLE_SIZE = 100000;
+
+    private final Node node;
+    private final Tangle tangle;
+    private final TransactionValidator transactionValidator;
+    private final Milestone milestone;
+    private final InetSocketAddress syncAddress;
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+
+    // received transactions, and done messages as milestone index and count
+    private final BlockingQueue<Object> ingestQueue = new ArrayBlockingQueue<>(INGEST_QUEUE_SIZE);
+    private final BlockingQueue<Pair<TCPNeighbor, Integer>> serveQueue = new ArrayBlockingQueue<>(SERVE_QUEUE_SIZE);
+    private final byte[] requestMessage = new byte[TRANSACTION_PACKET_SIZE];
+
+    private volatile int syncedIndex = -1;
+    private volatile int requestedIndex = -1;
+    private volatile long requestTime = 0;
+    // transactions of the requested milestone received so far, only touched by the ingest thread
+    private int receivedCount = 0;
+    private boolean incomplete = false;
+
+    private final AtomicLong ingestDropped = new AtomicLong(0L);
+    private final AtomicLong syncedTransactions = new AtomicLong(0L);
+
+    /**
+     * @param syncNeighbor the uri of the tcp neighbor to sync from, or an empty string to only serve other nodes
+     */
+    public SubtangleSync(Node node, Tangle tangle, TransactionValidator transactionValidator, Milestone milestone,
+                         String syncNeighbor) {
+        this.node = node;
+        this.tangle = tangle;
+        this.transactionValidator = transactionValidator;
+        this.milestone = milestone;
+        this.syncAddress = Node.uri(syncNeighbor)
+                .filter(uri -> "tcp".equals(uri.getScheme()))
+                .map(uri -> new InetSocketAddress(uri.getHost(), uri.getPort()))
+                .orElse(null);
+        if (syncAddress == null && !syncNeighbor.isEmpty()) {
+            log.warn("Ignoring sync neighbor {}, it has to be a tcp neighbor", syncNeighbor);
+        }
+    }
+
+    public boolean isEnabled() {
+        return syncAddress != null && milestone != null;
+    }
+
+    public void shutdown() {
+        shuttingDown.set(true);
+    }
+
+    /**
+     * Queues a sync request of a neighbor, to be answered by the serving thread.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    boolean syncRequestReceived(Neighbor neighbor, byte[] message, int length) {
+        final int index = MessageCodec.syncRequestIndex(message, length);
+        if (index < 0) {
+            return false;
+        }
+        if (neighbor instanceof TCPNeighbor && !serveQueue.offer(new Pair<>((TCPNeighbor) neighbor, index))) {
+            log.warn("Dropped sync request of {} for milestone #{}", neighbor.getAddress(), index);
+        }
+        return true;
+    }
+
+    /**
+     * Queues the transactions of a subtangle streamed by the sync neighbor.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    boolean syncTransactionsReceived(Neighbor neighbor, byte[] message, int length) {
+        final boolean fromSyncNeighbor = isSyncNeighbor(neighbor);
+        int offset = MessageCodec.TRANSACTIONS_HEADER_BYTES;
+        for (int i = MessageCodec.transactionCount(message); i > 0; i--) {
+            final byte[] transaction = new byte[TransactionViewModel.SIZE];
+            offset = MessageCodec.nextTransaction(message, length, offset, transaction);
+            if (offset < 0) {
+                return false;
+            }
+            if (fromSyncNeighbor) {
+                ingest(transaction);
+            }
+        }
+        return offset == length;
+    }
+
+    /**
+     * Queues the end of a subtangle, so it is handled after all of its transactions.
+     * @return <tt>false</tt> if the message is malformed
+     */
+    boolean syncDoneReceived(Neighbor neighbor, byte[] message, int length) {
+        if (!MessageCodec.isSyncDone(message, length)) {
+            return false;
+        }
+        if (isSyncNeighbor(neighbor)) {
+            ingest(new int[]{MessageCodec.syncDoneIndex(message), MessageCodec.syncDoneCount(message)});
+        }
+        return true;
+    }
+
+    // the sync neighbor is read by a replicator I/O loop, which stops reading while there is no room instead of waiting
+    private void ingest(Object item) {
+        if (!ingestQueue.offer(item)) {
+            ingestDropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return whether the transactions of another message of the neighbor fit in the ingest queue, always for other
+     * neighbors than the sync neighbor
+     */
+    boolean hasIngestRoom(Neighbor neighbor) {
+        return !isSyncNeighbor(neighbor) || ingestQueue.remainingCapacity() >= MessageCodec.MAX_TRANSACTIONS;
+    }
+
+    private boolean isSyncNeighbor(Neighbor neighbor) {
+        return syncAddress != null && neighbor instanceof TCPNeighbor && neighbor.getAddress().equals(syncAddress);
+    }
+
+    private TCPNeighbor syncNeighbor() {
+        for (final Neighbor neighbor : node.getNeighbors()) {
+            if (isSyncNeighbor(neighbor) && neighbor.getProtocolVersion() >= MessageCodec.PROTOCOL_VERSION) {
+                return (TCPNeighbor) neighbor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Asks for the next milestone while we are behind, once the previous one is done or timed out.
+     */
+    Runnable spawnSyncRequesterThread() {
+        return () -> {
+
+            log.info("Spawning Subtangle Sync Requester Thread");
+
+            long lastStatus = System.currentTimeMillis();
+            while (!shuttingDown.get()) {
+                try {
+                    final long now = System.currentTimeMillis();
+                    if (requestedIndex < 0 || now - requestTime > REQUEST_TIMEOUT) {
+                        requestNext(requestedIndex);
+                    }
+                    if (now - lastStatus > 10000L) {
+                        lastStatus = now;
+                        log.info("Subtangle sync: milestone #{} received, {} transactions stored, {} dropped",
+                                syncedIndex, syncedTransactions.get(), ingestDropped.get());
+                    }
+                    Thread.sleep(REQUEST_INTERVAL);
+                } catch (final InterruptedException e) {
+                    log.error("Subtangle Sync Requester Thread Interrupted");
+                } catch (final Exception e) {
+                    log.error("Subtangle Sync Requester Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Subtangle Sync Requester Thread");
+        };
+    }
+
+    /**
+     * Requests the milestone following the last one received completely, unless the request for
+     * <tt>expectedIndex</tt> was replaced meanwhile.
+     */
+    private synchronized void requestNext(int expectedIndex) throws InterruptedException {
+        if (requestedIndex != expectedIndex) {
+            return;
+        }
+        requestedIndex = -1;
+        syncedIndex = Math.max(syncedIndex, milestone.latestSolidSubtangleMilestoneIndex);
+        final int index = syncedIndex + 1;
+        final TCPNeighbor neighbor = syncNeighbor();
+        if (neighbor == null || index > milestone.latestMilestoneIndex) {
+            return;
+        }
+        final int length = MessageCodec.encodeSyncRequest(index, requestMessage);
+        if (neighbor.send(new DatagramPacket(requestMessage, length), SEND_TIMEOUT)) {
+            requestedIndex = index;
+            requestTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Hashes, validates and stores the received transactions in batches, and completes milestones on their done messages.
+     */
+    Runnable spawnSyncIngestThread() {
+        return () -> {
+
+            log.info("Spawning Subtangle Sync Ingest Thread");
+
+            final BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+            final List<Object> items = new ArrayList<>(BatchHasher.MAX_BATCH_SIZE);
+            final List<byte[]> batchData = new ArrayList<>(BatchHasher.MAX_BATCH_SIZE);
+
+            while (!shuttingDown.get()) {
+                try {
+                    final Object item = ingestQueue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (item == null) {
+                        continue;
+                    }
+                    items.add(item);
+                    ingestQueue.drainTo(items, BatchHasher.MAX_BATCH_SIZE - 1);
+                    for (final Object i : items) {
+                        if (i instanceof byte[]) {
+                            batchData.add((byte[]) i);
+                        } else {
+                            //everything before the done message has to be stored first
+                            store(batchHasher, batchData);
+                            batchData.clear();
+                            done(((int[]) i)[0], ((int[]) i)[1]);
+                        }
+                    }
+                    store(batchHasher, batchData);
+                } catch (final InterruptedException e) {
+                    log.error("Subtangle Sync Ingest Thread Interrupted");
+                } catch (final Exception e) {
+                    log.error("Subtangle Sync Ingest Thread Exception:", e);
+                    incomplete = true;
+                } finally {
+                    items.clear();
+                    batchData.clear();
+                }
+            }
+            log.info("Shutting down Subtangle Sync Ingest Thread");
+        };
+    }
+
+    private void store(BatchHasher batchHasher, List<byte[]> batchData) throws Exception {
+        if (batchData.isEmpty()) {
+            return;
+        }
+        receivedCount += batchData.size();
+        final Hash[] hashes = batchHasher.hash(batchData);
+        final List<TransactionViewModel> transactionViewModels = new ArrayList<>(hashes.length);
+        final List<Pair<Indexable, Persistable>> batch = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            final TransactionViewModel transactionViewModel;
+            try {
+                transactionViewModel = TransactionValidator.validate(batchData.get(i),
+                        transactionValidator.getMinWeightMagnitude(), hashes[i]);
+            } catch (final RuntimeException e) {
+                incomplete = true;
+                continue;
+            }
+            if (!TransactionViewModel.exists(tangle, transactionViewModel.getHash())) {
+                transactionViewModels.add(transactionViewModel);
+                batch.addAll(transactionViewModel.getSaveBatch());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        tangle.saveBatch(batch);
+
+        final String sender = syncAddress.toString();
+        for (final TransactionViewModel transactionViewModel : transactionViewModels) {
+            transactionViewModel.setArrivalTime(System.currentTimeMillis());
+            transactionViewModel.updateSender(sender);
+            transactionValidator.updateStatus(transactionViewModel);
+            transactionViewModel.update(tangle, "arrivalTime|sender");
+        }
+        syncedTransactions.addAndGet(transactionViewModels.size());
+    }
+
+    private void done(int index, int count) throws InterruptedException {
+        final boolean complete = count >= 0 && count == receivedCount && !incomplete;
+        receivedCount = 0;
+        incomplete = false;
+        if (index != requestedIndex) {
+            return;
+        }
+        if (count < 0) {
+            //the neighbor is not there yet, try again once the request timed out
+            log.info("Sync neighbor does not know milestone #{} yet", index);
+            return;
+        }
+        if (complete) {
+            syncedIndex = Math.max(syncedIndex, index);
+        } else {
+            log.warn("Subtangle of milestone #{} was received incompletely, requesting it again", index);
+        }
+        requestNext(index);
+    }
+
+    /**
+     * Answers sync requests one at a time, so a catching up neighbor cannot occupy more than a single thread.
+     */
+    Runnable spawnSyncServerThread() {
+        return () -> {
+
+            log.info("Spawning Subtangle Sync Server Thread");
+
+            final byte[] message = new byte[TRANSACTION_PACKET_SIZE];
+            while (!shuttingDown.get()) {
+                try {
+                    final Pair<TCPNeighbor, Integer> request = serveQueue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (request != null) {
+                        serve(request.low, request.hi, message);
+                    }
+                } catch (final InterruptedException e) {
+                    log.error("Subtangle Sync Server Thread Interrupted");
+                } catch (final Exception e) {
+                    log.error("Subtangle Sync Server Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Subtangle Sync Server Thread");
+        };
+    }
+
+    private void serve(TCPNeighbor neighbor, int index, byte[] message) throws Exception {
+        final MilestoneViewModel milestoneViewModel = milestone != null && index <= milestone.latestSolidSubtangleMilestoneIndex
+                ? MilestoneViewModel.get(tangle, index) : null;
+        if (milestoneViewModel == null) {
+            send(neighbor, message, MessageCodec.encodeSyncDone(index, -1, message));
+            return;
+        }
+        final Set<Hash> visited = new HashSet<>();
+        final List<Hash> subtangle = subtangle(tangle, milestoneViewModel.getHash(), index, visited);
+        int length = MessageCodec.startTransactions(message, MessageCodec.TYPE_SYNC_TRANSACTIONS);
+        for (final Hash hash : subtangle) {
+            final byte[] transaction = TransactionViewModel.fromHash(tangle, hash).getBytes();
+            int next = MessageCodec.appendTransaction(message, length, transaction);
+            if (next < 0) {
+                if (!send(neighbor, message, length)) {
+                    return;
+                }
+                length = MessageCodec.startTransactions(message, MessageCodec.TYPE_SYNC_TRANSACTIONS);
+                next = MessageCodec.appendTransaction(message, length, transaction);
+            }
+            length = next;
+        }
+        if (MessageCodec.transactionCount(message) > 0 && !send(neighbor, message, length)) {
+            return;
+        }
+        //a count above what was sent keeps the neighbor from taking a truncated subtangle for the whole milestone
+        final boolean truncated = visited.size() >= MAX_SUBTANGLE_SIZE;
+        send(neighbor, message, MessageCodec.encodeSyncDone(index, subtangle.size() + (truncated ? 1 : 0), message));
+    }
+
+    private boolean send(TCPNeighbor neighbor, byte[] message, int length) throws InterruptedException {
+        //streaming waits for the send limits instead of dropping, but yields to any other traffic
+        final long deadline = System.currentTimeMillis() + SEND_TIMEOUT;
+        boolean allowed;
+        while (!(allowed = node.consumeSendTokens(neighbor, length, Neighbor.PRIORITY_BROADCAST))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        if (!allowed || neighbor.isStopped() || !neighbor.send(new DatagramPacket(message, length), SEND_TIMEOUT)) {
+            log.warn("Stopped streaming a subtangle to {}", neighbor.getAddress());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Walks the transactions referenced by a milestone that no earlier milestone confirmed, depth first.
+     * @return their hashes in topological order, every transaction after its trunk and branch
+     */
+    static List<Hash> subtangle(Tangle tangle, Hash milestoneHash, int index) throws Exception {
+        return subtangle(tangle, milestoneHash, index, new HashSet<>());
+    }
+
+    /**
+     * @param visited collects the hashes the walk looked at, the walk stopped early if they reach {@link #MAX_SUBTANGLE_SIZE}
+     */
+    private static List<Hash> subtangle(Tangle tangle, Hash milestoneHash, int index, Set<Hash> visited) throws Exception {
+        final List<Hash> order = new ArrayList<>();
+        // a transaction is expanded when popped the first time, and stays below its approvees until they are emitted
+        final Deque<Pair<Hash, TransactionViewModel>> stack = new ArrayDeque<>();
+        stack.push(new Pair<>(milestoneHash, null));
+        while (!stack.isEmpty()) {
+            final Pair<Hash, TransactionViewModel> entry = stack.pop();
+            if (entry.hi != null) {
+                order.add(entry.low);
+                continue;
+            }
+            final TransactionViewModel transactionViewModel = include(tangle, entry.low, index, visited);
+            if (transactionViewModel == null) {
+                continue;
+            }
+            stack.push(new Pair<>(entry.low, transactionViewModel));
+            if (visited.size() >= MAX_SUBTANGLE_SIZE) {
+                continue;
+            }
+            for (final Hash approvee : new Hash[]{transactionViewModel.getBranchTransactionHash(),
+                    transactionViewModel.getTrunkTransactionHash()}) {
+                if (!visited.contains(approvee)) {
+                    stack.push(new Pair<>(approvee, null));
+                }
+            }
+        }
+        if (visited.size() >= MAX_SUBTANGLE_SIZE) {
+            log.warn("Subtangle of milestone #{} exceeds {} transactions, sending a part of it", index, MAX_SUBTANGLE_SIZE);
+        }
+        return order;
+    }
+
+    private static TransactionViewModel include(Tangle tangle, Hash hash, int index, Set<Hash> visited) throws Exception {
+        if (hash.equals(Hash.NULL_HASH) || !visited.add(hash)) {
+            return null;
+        }
+        final TransactionViewModel transactionViewModel = TransactionViewModel.fromHash(tangle, hash);
+        if (transactionViewModel.getType() != TransactionViewModel.FILLED_SLOT
+                || (transactionViewModel.snapshotIndex() != 0 && transactionViewModel.snapshotIndex() < index)) {
+            return null;
+        }
+        return transactionViewModel;
+    }
+}
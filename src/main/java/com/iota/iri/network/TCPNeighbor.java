@@ -6,9 +6,11 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -19,17 +21,20 @@ public class TCPNeighbor extends Neighbor {
     private static final Logger log = LoggerFactory.getLogger(Neighbor.class);
     private int tcpPort;
 
-    private final ArrayBlockingQueue<ByteBuffer> sendQueue = new ArrayBlockingQueue<>(10);
-    private boolean stopped = false;
+    public static final int SEND_QUEUE_SIZE = 256;
+    private final ArrayBlockingQueue<ByteBuffer> sendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_SIZE);
+    private volatile Runnable sendListener;
+    private volatile boolean stopped = false;
 
     public TCPNeighbor(InetSocketAddress address, boolean isConfigured, final double limit) {
         super(address, isConfigured, limit);
         this.tcpPort = address.getPort();
     }
 
-    private Socket source = null;
+    private volatile SocketChannel source = null;
+    private volatile int sourcePort = -1;
 
-    public Socket getSource() {
+    public SocketChannel getSource() {
         return source;
     }
 
@@ -43,9 +48,9 @@ public class TCPNeighbor extends Neighbor {
         return stopped;
     }
 
-    public void setSource(Socket source) {
+    public void setSource(SocketChannel source) {
         if (source == null) {
-            if (this.source != null && !this.source.isClosed()) {
+            if (this.source != null && this.source.isOpen()) {
                 try {
                     this.source.close();
                     log.info("Source {} closed", this.getHostAddress());
@@ -53,19 +58,22 @@ public class TCPNeighbor extends Neighbor {
                     log.info("Source {} close failure {}", this.getHostAddress());
                 }
             }
+            sourcePort = -1;
+        } else {
+            sourcePort = source.socket().getPort();
         }
         this.source = source;
     }
 
-    private Socket sink = null;
+    private volatile SocketChannel sink = null;
 
-    public Socket getSink() {
+    public SocketChannel getSink() {
         return sink;
     }
 
-    public void setSink(Socket sink) {
+    public void setSink(SocketChannel sink) {
         if (sink == null) {
-            if (this.sink != null && !this.sink.isClosed()) {
+            if (this.sink != null && this.sink.isOpen()) {
                 try {
                     this.sink.close();
                     log.info("Sink {} closed", this.getHostAddress());
@@ -77,12 +85,58 @@ public class TCPNeighbor extends Neighbor {
         this.sink = sink;
     }
 
+    /**
+     * @param sendListener called whenever a message is queued, so the sink can start writing
+     */
+    public void setSendListener(Runnable sendListener) {
+        this.sendListener = sendListener;
+    }
+
     @Override
     public void send(DatagramPacket packet) {
-        if ( sendQueue.remainingCapacity() == 0 ) {
-            sendQueue.poll();
+        queueMessage(packet);
+        notifySendListener();
+    }
+
+    @Override
+    public void send(DatagramPacket[] packets, int count) {
+        for (int i = 0; i < count; i++) {
+            queueMessage(packets[i]);
+        }
+        notifySendListener();
+    }
+
+    /**
+     * Waits up to <tt>timeout</tt> milliseconds for room in the send queue, for bulk transfers that must not drop messages.
+     * @return <tt>false</tt> if the message could not be queued in time
+     */
+    public boolean send(DatagramPacket packet, long timeout) throws InterruptedException {
+        final boolean queued = sendQueue.offer(ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength())),
+                timeout, TimeUnit.MILLISECONDS);
+        notifySendListener();
+        return queued;
+    }
+
+    private void queueMessage(DatagramPacket packet) {
+        // the packet is reused by the sending thread, so its data has to be copied
+        if (!sendQueue.offer(ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength())))) {
+            incDroppedTransactions(1);
         }
-        sendQueue.add(ByteBuffer.wrap(packet.getData()));
+    }
+
+    private void notifySendListener() {
+        final Runnable listener = sendListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    public int drainMessages(Collection<? super ByteBuffer> target, int maxElements) {
+        return sendQueue.drainTo(target, maxElements);
+    }
+
+    public boolean hasMessages() {
+        return !sendQueue.isEmpty();
     }
 
     @Override
@@ -99,14 +153,10 @@ public class TCPNeighbor extends Neighbor {
         this.tcpPort = tcpPort;
     }
 
-    public ByteBuffer getNextMessage() throws InterruptedException {
-        return (this.sendQueue.poll(10000, TimeUnit.MILLISECONDS));
-    }
-
     @Override
     public boolean matches(SocketAddress address) {
         if (address.toString().contains(this.getHostAddress())) {
-            int port = this.getSource().getPort();
+            int port = sourcePort;
             if (address.toString().contains(Integer.toString(port))) {
                 return true;
             }
@@ -0,0 +1,82 @@
+package com.iota.iri.network;
+
+/**
+ * Limits the bytes sent to a rate, refilling continuously and allowing bursts of up to the bucket's capacity.
+ *
+ * Less important traffic has to leave a share of the bucket to more important traffic, see {@link #RESERVES}, so
+ * when the limit is reached broadcasts are throttled first and replies to requests last.
+ * The bucket also measures the rate of the bytes actually sent, whether there is a limit or not.
+ */
+public class TokenBucket {
+
+    // the share of the capacity that has to remain after sending, by priority, see Neighbor.PRIORITY_REPLY and on
+    private static final double[] RESERVES = {0, 0.25, 0.5};
+    private static final long RATE_WINDOW = 1000000000L;
+
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    private long windowStart;
+    private long windowBytes = 0;
+    private long measuredRate = 0;
+
+    /**
+     * @param rate the bytes per second to allow, or a negative value to only measure the rate
+     * @param capacity the largest burst in bytes
+     */
+    public TokenBucket(double rate, double capacity) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * @return <tt>true</tt> if <tt>bytes</tt> may be sent now, in which case they are taken from the bucket
+     */
+    public synchronized boolean tryConsume(int bytes, int priority) {
+        final long now = System.nanoTime();
+        if (rate >= 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / RATE_WINDOW);
+            lastRefill = now;
+            if (tokens - bytes < RESERVES[priority] * capacity) {
+                return false;
+            }
+            tokens -= bytes;
+        }
+        if (now - windowStart >= RATE_WINDOW) {
+            measuredRate = windowBytes * RATE_WINDOW / (now - windowStart);
+            windowStart = now;
+            windowBytes = 0;
+        }
+        windowBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Returns bytes taken by {@link #tryConsume(int, int)} that were not sent after all.
+     */
+    public synchronized void refund(int bytes) {
+        if (rate >= 0) {
+            tokens = Math.min(capacity, tokens + bytes);
+        }
+        windowBytes = Math.max(0, windowBytes - bytes);
+    }
+
+    /**
+     * @return the bytes per second sent recently
+     */
+    public synchronized long getRate() {
+        final long elapsed = System.nanoTime() - windowStart;
+        return elapsed >= RATE_WINDOW ? windowBytes * RATE_WINDOW / elapsed : measuredRate;
+    }
+
+    /**
+     * @return the bytes per second allowed, or a negative value if there is no limit
+     */
+    public long getLimit() {
+        return (long) rate;
+    }
+}
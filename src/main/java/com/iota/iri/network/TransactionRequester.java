@@ -2,35 +2,60 @@ package com.iota.iri.network;
 
 import com.iota.iri.controllers.TransactionViewModel;
 import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
 import com.iota.iri.zmq.MessageQ;
 import com.iota.iri.storage.Tangle;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by paul on 3/27/17.
+ *
+ * Schedules the transactions we are missing for requests. Hashes needed to solidify a milestone are handed out
+ * before all others, and within each kind the ones found closest to the milestone or tip being checked go first.
+ * A hash that was handed out waits for an exponentially growing delay before it is handed out again, and other
+ * hashes than milestone ones are given up on after a number of tries.
+ *
+ * A missing hash referenced by a transaction some neighbor sent us is first kept for requests to that neighbor,
+ * which most likely has it, and only offered to the others if it was not requested within {@link #ORIGIN_TIMEOUT}
+ * or is retried. Neighbors are credited for the requests they answer, see {@link Neighbor#getRequestAnswerRatio()}.
  */
 public class TransactionRequester {
 
     private static final Logger log = LoggerFactory.getLogger(TransactionRequester.class);
     private final MessageQ messageQ;
-    private final Set<Hash> milestoneTransactionsToRequest = new LinkedHashSet<>();
-    private final Set<Hash> transactionsToRequest = new LinkedHashSet<>();
 
     public static final int MAX_TX_REQ_QUEUE_SIZE = 10000;
-
-    private static volatile long lastTime = System.currentTimeMillis();
     public  static final int REQUEST_HASH_SIZE = 46;
 
-    private static double P_REMOVE_REQUEST;
-    private static boolean initialized = false;
-    private final SecureRandom random = new SecureRandom();
+    private static final long RETRY_DELAY = 1000L;
+    private static final int MAX_BACKOFF_SHIFT = 5;
+    private static final long ORIGIN_TIMEOUT = 2000L;
+
+    private final Map<Hash, Request> requests = new ConcurrentHashMap<>();
+    // requests waiting to be handed out, in order of priority
+    private final ConcurrentSkipListSet<Request> milestoneTransactionsToRequest = new ConcurrentSkipListSet<>(Request.PRIORITY);
+    private final ConcurrentSkipListSet<Request> transactionsToRequest = new ConcurrentSkipListSet<>(Request.PRIORITY);
+    // requests kept for the neighbor that sent us a transaction referencing them, by neighbor address
+    private final Map<String, ConcurrentSkipListSet<Request>> transactionsToRequestByOrigin = new ConcurrentHashMap<>();
+    private final DelayQueue<OriginExpiry> originExpiries = new DelayQueue<>();
+    // requests handed out already, until their retry is due
+    private final DelayQueue<Request> retries = new DelayQueue<>();
+    private final AtomicInteger numberOfNonMilestoneRequests = new AtomicInteger(0);
+    private final AtomicLong sequence = new AtomicLong(0L);
+
+    private int maxQueueSize = MAX_TX_REQ_QUEUE_SIZE;
+    private int maxRetries = Integer.MAX_VALUE;
 
-    private final Object syncObj = new Object();
     private final Tangle tangle;
 
     public TransactionRequester(Tangle tangle, MessageQ messageQ) {
@@ -38,96 +63,305 @@ public class TransactionRequester {
         this.messageQ = messageQ;
     }
 
-    public void init(double p_REMOVE_REQUEST) {
-        if(!initialized) {
-            initialized = true;
-            P_REMOVE_REQUEST = p_REMOVE_REQUEST;
-        }
+    /**
+     * @param p_REMOVE_REQUEST the inverse of the number of times a non milestone hash is requested before giving up on it
+     * @param maxQueueSize the maximum number of non milestone hashes to request
+     */
+    public void init(double p_REMOVE_REQUEST, int maxQueueSize) {
+        this.maxRetries = p_REMOVE_REQUEST > 0 ? (int) Math.ceil(1 / p_REMOVE_REQUEST) : Integer.MAX_VALUE;
+        this.maxQueueSize = maxQueueSize;
     }
 
     public Hash[] getRequestedTransactions() {
-        synchronized (syncObj) {
-            return ArrayUtils.addAll(transactionsToRequest.stream().toArray(Hash[]::new),
-                    milestoneTransactionsToRequest.stream().toArray(Hash[]::new));
-        }
+        return requests.keySet().toArray(new Hash[0]);
     }
 
     public int numberOfTransactionsToRequest() {
-        return transactionsToRequest.size() + milestoneTransactionsToRequest.size();
+        return requests.size();
+    }
+
+    public boolean isTransactionRequested(Hash hash) {
+        return requests.containsKey(hash);
     }
 
     public boolean clearTransactionRequest(Hash hash) {
-        synchronized (syncObj) {
-            boolean milestone = milestoneTransactionsToRequest.remove(hash);
-            boolean normal = transactionsToRequest.remove(hash);
-            return normal || milestone;
+        return clearTransactionRequest(hash, null);
+    }
+
+    /**
+     * @param sender the address of the neighbor that sent the transaction, which is credited if we asked it last
+     */
+    public boolean clearTransactionRequest(Hash hash, String sender) {
+        final Request request = requests.get(hash);
+        if (request == null || !remove(request)) {
+            return false;
         }
+        final Neighbor requestedFrom = request.requestedFrom;
+        if (requestedFrom != null && sender != null && requestedFrom.getAddress().toString().equals(sender)) {
+            requestedFrom.incAnsweredRequests(System.currentTimeMillis() - request.requestTime);
+        }
+        return true;
     }
 
     public void requestTransaction(Hash hash, boolean milestone) throws Exception {
-        if (!hash.equals(Hash.NULL_HASH) && !TransactionViewModel.exists(tangle, hash)) {
-            synchronized (syncObj) {
-                if(milestone) {
-                    transactionsToRequest.remove(hash);
-                    milestoneTransactionsToRequest.add(hash);
-                } else {
-                    if(!milestoneTransactionsToRequest.contains(hash) && !transactionsToRequestIsFull()) {
-                        transactionsToRequest.add(hash);
-                    }
+        requestTransaction(hash, milestone, 0);
+    }
+
+    public void requestTransaction(Hash hash, boolean milestone, int distance) throws Exception {
+        requestTransaction(hash, milestone, distance, null);
+    }
+
+    /**
+     * @param distance how far from the milestone or tip being checked the hash was found, lower values go first
+     * @param origin the address of the neighbor that sent us a transaction referencing the hash, if known
+     */
+    public void requestTransaction(Hash hash, boolean milestone, int distance, String origin) throws Exception {
+        if (hash.equals(Hash.NULL_HASH)) {
+            return;
+        }
+        Request existing = requests.get(hash);
+        if (existing != null && (existing.milestone || !milestone) || exists(hash)) {
+            return;
+        }
+        final Request request = new Request(hash, milestone, distance, sequence.incrementAndGet(),
+                origin == null || origin.isEmpty() ? null : origin);
+        if (milestone) {
+            //a milestone request replaces a request of the same hash for anything else
+            while (existing != null && !existing.milestone) {
+                if (requests.replace(hash, existing, request)) {
+                    numberOfNonMilestoneRequests.decrementAndGet();
+                    unqueue(existing);
+                    queue(request);
+                    return;
                 }
+                existing = requests.get(hash);
+            }
+            if (existing == null && requests.putIfAbsent(hash, request) == null) {
+                queue(request);
+            }
+        } else if (reserveNonMilestoneRequest()) {
+            if (requests.putIfAbsent(hash, request) == null) {
+                queue(request);
+            } else {
+                numberOfNonMilestoneRequests.decrementAndGet();
             }
         }
     }
 
-    private boolean transactionsToRequestIsFull() {
-        return transactionsToRequest.size() >= TransactionRequester.MAX_TX_REQ_QUEUE_SIZE;
+    private void queue(Request request) {
+        if (request.origin != null) {
+            //the sets of the origins are created and dropped atomically, so no request is added to a dropped one
+            transactionsToRequestByOrigin.compute(request.origin, (origin, originRequests) -> {
+                originRequests = originRequests != null ? originRequests : new ConcurrentSkipListSet<>(Request.ORIGIN_PRIORITY);
+                originRequests.add(request);
+                return originRequests;
+            });
+            originExpiries.add(new OriginExpiry(request, System.currentTimeMillis() + ORIGIN_TIMEOUT));
+        } else {
+            (request.milestone ? milestoneTransactionsToRequest : transactionsToRequest).add(request);
+        }
+    }
+
+    private void unqueue(Request request) {
+        (request.milestone ? milestoneTransactionsToRequest : transactionsToRequest).remove(request);
+        if (request.origin != null) {
+            unqueueFromOrigin(request);
+        }
+    }
+
+    private boolean unqueueFromOrigin(Request request) {
+        final boolean[] removed = {false};
+        transactionsToRequestByOrigin.computeIfPresent(request.origin, (origin, originRequests) -> {
+            removed[0] = originRequests.remove(request);
+            return originRequests.isEmpty() ? null : originRequests;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Offers the requests kept for a neighbor that was removed to all others.
+     *
+     * @param origin the address of the removed neighbor
+     */
+    public void removeOrigin(String origin) {
+        final ConcurrentSkipListSet<Request> originRequests = transactionsToRequestByOrigin.remove(origin);
+        if (originRequests == null) {
+            return;
+        }
+        for (final Request request : originRequests) {
+            if (originRequests.remove(request)) {
+                (request.milestone ? milestoneTransactionsToRequest : transactionsToRequest).add(request);
+            }
+        }
+    }
+
+    private boolean reserveNonMilestoneRequest() {
+        int count;
+        do {
+            count = numberOfNonMilestoneRequests.get();
+            if (count >= maxQueueSize) {
+                return false;
+            }
+        } while (!numberOfNonMilestoneRequests.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Looks the hash up in the bloom filters and memtables first, so a missing transaction does not cost a read.
+     */
+    private boolean exists(Hash hash) throws Exception {
+        return tangle.maybeHas(Transaction.class, hash) && TransactionViewModel.exists(tangle, hash);
     }
 
+    private boolean remove(Request request) {
+        if (!requests.remove(request.hash, request)) {
+            return false;
+        }
+        if (!request.milestone) {
+            numberOfNonMilestoneRequests.decrementAndGet();
+        }
+        unqueue(request);
+        return true;
+    }
+
+    /**
+     * Takes up to <tt>maxHashes</tt> different hashes in turn, for a request message to a single neighbor.
+     */
+    public List<Hash> transactionsToRequest(int maxHashes, boolean milestone, Neighbor neighbor) throws Exception {
+        final List<Hash> hashes = new ArrayList<>(Math.min(maxHashes, numberOfTransactionsToRequest()));
+        while (hashes.size() < maxHashes) {
+            final Hash hash = transactionToRequest(milestone, neighbor);
+            if (hash == null) {
+                break;
+            }
+            hashes.add(hash);
+        }
+        return hashes;
+    }
 
     public Hash transactionToRequest(boolean milestone) throws Exception {
-        final long beginningTime = System.currentTimeMillis();
-        Hash hash = null;
-        Set<Hash> requestSet;
-        if(milestone) {
-             requestSet = milestoneTransactionsToRequest;
-             if(requestSet.size() == 0) {
-                 requestSet = transactionsToRequest;
-             }
-        } else {
-            requestSet = transactionsToRequest;
-            if(requestSet.size() == 0) {
-                requestSet = milestoneTransactionsToRequest;
+        return transactionToRequest(milestone, null);
+    }
+
+    /**
+     * @param milestone whether to prefer hashes needed for a milestone, or all others
+     * @param neighbor the neighbor the request goes to, which gets the hashes it announced first
+     * @return the hash to request next, or <tt>null</tt> if no request is due
+     */
+    public Hash transactionToRequest(boolean milestone, Neighbor neighbor) throws Exception {
+        Request request;
+        while ((request = retries.poll()) != null) {
+            if (requests.get(request.hash) == request) {
+                (request.milestone ? milestoneTransactionsToRequest : transactionsToRequest).add(request);
             }
         }
-        synchronized (syncObj) {
-            while (requestSet.size() != 0) {
-                Iterator<Hash> iterator = requestSet.iterator();
-                hash = iterator.next();
-                iterator.remove();
-                if (TransactionViewModel.exists(tangle, hash)) {
-                    log.info("Removed existing tx from request list: " + hash);
-                    messageQ.publish("rtl %s", hash);
-                } else {
-                    if (!transactionsToRequestIsFull()) {
-                        requestSet.add(hash);
-                    }
-                    break;
-                }
+        OriginExpiry expiry;
+        while ((expiry = originExpiries.poll()) != null) {
+            if (unqueueFromOrigin(expiry.request)) {
+                (expiry.request.milestone ? milestoneTransactionsToRequest : transactionsToRequest).add(expiry.request);
             }
         }
 
-        if(random.nextDouble() < P_REMOVE_REQUEST && !requestSet.equals(milestoneTransactionsToRequest)) {
-            synchronized (syncObj) {
-                transactionsToRequest.remove(hash);
+        final String address = neighbor != null ? neighbor.getAddress().toString() : null;
+        final ConcurrentSkipListSet<Request> originRequests = address != null ? transactionsToRequestByOrigin.get(address) : null;
+        while ((request = originRequests != null ? pollOrigin(address, originRequests) : null) != null
+                || (request = milestone ? poll(milestoneTransactionsToRequest, transactionsToRequest)
+                : poll(transactionsToRequest, milestoneTransactionsToRequest)) != null) {
+            if (requests.get(request.hash) != request) {
+                continue;
+            }
+            if (exists(request.hash)) {
+                remove(request);
+                log.info("Removed existing tx from request list: " + request.hash);
+                messageQ.publish("rtl %s", request.hash);
+                continue;
+            }
+            final long now = System.currentTimeMillis();
+            request.tries++;
+            request.requestedFrom = neighbor;
+            request.requestTime = now;
+            if (neighbor != null) {
+                neighbor.incSentRequests();
+            }
+            if (!request.milestone && request.tries >= maxRetries) {
+                remove(request);
+            } else {
+                request.due = now + (RETRY_DELAY << Math.min(request.tries - 1, MAX_BACKOFF_SHIFT));
+                retries.add(request);
             }
+            return request.hash;
         }
+        return null;
+    }
 
-        long now = System.currentTimeMillis();
-        if ((now - lastTime) > 10000L) {
-            lastTime = now;
-            //log.info("Transactions to request = {}", numberOfTransactionsToRequest() + " / " + TransactionViewModel.getNumberOfStoredTransactions() + " (" + (now - beginningTime) + " ms ). " );
+    private Request pollOrigin(String origin, ConcurrentSkipListSet<Request> originRequests) {
+        final Request request = originRequests.pollFirst();
+        if (originRequests.isEmpty()) {
+            transactionsToRequestByOrigin.computeIfPresent(origin, (address, current) -> current.isEmpty() ? null : current);
         }
-        return hash;
+        return request;
+    }
+
+    private static Request poll(ConcurrentSkipListSet<Request> first, ConcurrentSkipListSet<Request> second) {
+        final Request request = first.pollFirst();
+        return request != null ? request : second.pollFirst();
     }
 
+    private static class Request implements Delayed {
+
+        static final Comparator<Request> PRIORITY = Comparator.<Request>comparingInt(r -> r.distance)
+                .thenComparingLong(r -> r.sequence);
+        static final Comparator<Request> ORIGIN_PRIORITY = Comparator.<Request, Boolean>comparing(r -> !r.milestone)
+                .thenComparing(PRIORITY);
+
+        final Hash hash;
+        final boolean milestone;
+        final int distance;
+        final long sequence;
+        final String origin;
+        // only touched by the thread that took the request from a queue
+        int tries = 0;
+        long due = 0;
+        volatile Neighbor requestedFrom;
+        volatile long requestTime;
+
+        Request(Hash hash, boolean milestone, int distance, long sequence, String origin) {
+            this.hash = hash;
+            this.milestone = milestone;
+            this.distance = distance;
+            this.sequence = sequence;
+            this.origin = origin;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(due, ((Request) other).due);
+        }
+    }
+
+    private static class OriginExpiry implements Delayed {
+
+        final Request request;
+        final long due;
+
+        OriginExpiry(Request request, long due) {
+            this.request = request;
+            this.due = due;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(due, ((OriginExpiry) other).due);
+        }
+    }
 }
@@ -4,9 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 /**
  * Created by paul on 4/15/17.
@@ -14,24 +15,77 @@ import java.net.SocketAddress;
 public class UDPNeighbor extends Neighbor {
     private static final Logger log = LoggerFactory.getLogger(UDPNeighbor.class);
 
-    private DatagramSocket socket;
+    /**
+     * How often UDP neighbors are told that we speak protocol version 2. Neighbors that stay silent for
+     * {@link #HELLO_TIMEOUT} are assumed to have been replaced by a node that does not.
+     */
+    public static final long HELLO_INTERVAL = 60000L;
+    private static final long HELLO_TIMEOUT = 3 * HELLO_INTERVAL;
 
-    public UDPNeighbor(final InetSocketAddress address, final DatagramSocket socket, final boolean isConfigured, final double limit) {
+    private DatagramChannel channel;
+    private volatile long lastHello = 0;
+
+    public UDPNeighbor(final InetSocketAddress address, final DatagramChannel channel, final boolean isConfigured, final double limit) {
         super(address, isConfigured, limit);
-        this.socket = socket;
+        this.channel = channel;
     }
 
     @Override
     public void send(DatagramPacket packet) {
         try {
-            packet.setSocketAddress(getAddress());
-            socket.send(packet);
-            incSentTransactions();
+            // the channel is non-blocking, a full socket send buffer drops the datagram
+            if (channel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), getAddress()) > 0) {
+                incSentTransactions();
+            } else {
+                incDroppedTransactions(1);
+            }
+        } catch (final Exception e) {
+            log.error("UDP send error: {}",e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the batch back to back through the neighbor's channel. Once the socket send buffer is full the rest
+     * of the batch is dropped instead of being retried.
+     */
+    @Override
+    public void send(DatagramPacket[] packets, int count) {
+        for (int i = 0; i < count; i++) {
+            final DatagramPacket packet = packets[i];
+            try {
+                if (channel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), getAddress()) == 0) {
+                    incDroppedTransactions(count - i);
+                    return;
+                }
+                incSentTransactions();
+            } catch (final Exception e) {
+                log.error("UDP send error: {}",e.getMessage());
+            }
+        }
+    }
+
+    public void sendHello() {
+        try {
+            channel.send(ByteBuffer.wrap(MessageCodec.hello()), getAddress());
         } catch (final Exception e) {
             log.error("UDP send error: {}",e.getMessage());
         }
     }
 
+    @Override
+    public int getProtocolVersion() {
+        if (System.currentTimeMillis() - lastHello > HELLO_TIMEOUT) {
+            return 1;
+        }
+        return super.getProtocolVersion();
+    }
+
+    @Override
+    public void setProtocolVersion(int protocolVersion) {
+        lastHello = System.currentTimeMillis();
+        super.setProtocolVersion(protocolVersion);
+    }
+
     @Override
     public int getPort() {
         return getAddress().getPort();
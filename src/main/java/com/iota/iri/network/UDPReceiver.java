@@ -1,18 +1,22 @@
 package com.iota.iri.network;
 
-import com.iota.iri.hash.Sponge;
-import com.iota.iri.hash.SpongeFactory;
-import com.iota.iri.model.Hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.Arrays;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.iota.iri.network.Node.TRANSACTION_PACKET_SIZE;
 
@@ -22,105 +26,290 @@ import static com.iota.iri.network.Node.TRANSACTION_PACKET_SIZE;
 public class UDPReceiver {
     private static final Logger log = LoggerFactory.getLogger(UDPReceiver.class);
 
-    private final DatagramPacket receivingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
-            TRANSACTION_PACKET_SIZE);
+    private static final int PACKETS_PER_BATCH = 64;
+    private static final int SELECT_TIMEOUT = 1000;
 
     private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
     private final int port;
+    private final int sockets;
     private final Node node;
 
-    private DatagramSocket socket;
+    private final List<SocketReceiver> receivers = new ArrayList<>();
 
-    private final int PROCESSOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() * 4 );
+    private final int PROCESSOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
 
-    private final ExecutorService processor = new ThreadPoolExecutor(PROCESSOR_THREADS, PROCESSOR_THREADS, 5000L,
-                                            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(PROCESSOR_THREADS, true),
-                                             new ThreadPoolExecutor.AbortPolicy());
-
-    private Thread receivingThread;
+    private final AtomicLong receivedPackets = new AtomicLong(0L);
+    private final AtomicLong droppedPackets = new AtomicLong(0L);
+    private final AtomicLong invalidPackets = new AtomicLong(0L);
 
     public UDPReceiver(final int port, final Node node) {
+        this(port, 1, node);
+    }
+
+    /**
+     * @param sockets number of sockets to bind to <tt>port</tt> with SO_REUSEPORT, each with its own receiving
+     *                thread and processing queue. Falls back to a single socket where SO_REUSEPORT is unavailable.
+     */
+    public UDPReceiver(final int port, final int sockets, final Node node) {
         this.port = port;
+        this.sockets = Math.max(1, sockets);
         this.node = node;
     }
 
     public void init() throws Exception {
 
-        socket = new DatagramSocket(port);
-        node.setUDPSocket(socket);
-        log.info("UDP replicator is accepting connections on udp port " + port);
+        final SocketOption<Boolean> reusePort = sockets > 1 ? reusePortOption() : null;
+        final int socketCount = reusePort == null ? 1 : sockets;
+        if (sockets > 1 && reusePort == null) {
+            log.warn("SO_REUSEPORT is not supported by this JVM, falling back to a single UDP socket");
+        }
+
+        final List<DatagramChannel> channels = new ArrayList<>(socketCount);
+        for (int i = 0; i < socketCount; i++) {
+            final DatagramChannel channel = DatagramChannel.open();
+            if (reusePort != null) {
+                channel.setOption(reusePort, true);
+            }
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            channels.add(channel);
+            receivers.add(new SocketReceiver(i, channel, Math.max(1, PROCESSOR_THREADS / socketCount)));
+        }
+        node.setUDPChannels(channels);
+        log.info("UDP replicator is accepting connections on udp port " + port + " with " + socketCount + " socket(s)");
+
+        for (final SocketReceiver receiver : receivers) {
+            receiver.start();
+        }
+    }
+
+    /**
+     * SO_REUSEPORT is only part of {@link StandardSocketOptions} since Java 9.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets.get();
+    }
 
-        receivingThread = new Thread(spawnReceiverThread(), "UDP receiving thread");
-        receivingThread.start();
+    /**
+     * @return datagrams discarded because the processing stage had no free buffers
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
     }
 
-    private Runnable spawnReceiverThread() {
-        return () -> {
+    /**
+     * @return datagrams discarded because they were empty or longer than {@link Node#TRANSACTION_PACKET_SIZE}
+     */
+    public long getInvalidPackets() {
+        return invalidPackets.get();
+    }
 
+    public void shutdown() throws InterruptedException {
+        shuttingDown.set(true);
+        for (final SocketReceiver receiver : receivers) {
+            receiver.shutdown();
+        }
+    }
 
-            log.info("Spawning Receiver Thread");
+    /**
+     * Receiving thread, buffer pool and processor threads of a single socket.
+     */
+    private class SocketReceiver {
+        private final int index;
+        private final DatagramChannel channel;
+        private final int processorThreads;
+        private final BlockingQueue<PacketBatch> freeBatches;
+        private final BlockingQueue<PacketBatch> receivedBatches;
+        private final ExecutorService processor;
 
-            final Sponge curl = SpongeFactory.create(SpongeFactory.Mode.CURLP81);
-            final byte[] requestedTransaction = new byte[Hash.SIZE_IN_BYTES];
+        private Selector selector;
+        private Thread receivingThread;
 
-            int processed = 0, dropped = 0;
+        private SocketReceiver(int index, DatagramChannel channel, int processorThreads) {
+            this.index = index;
+            this.channel = channel;
+            this.processorThreads = processorThreads;
+            this.freeBatches = new ArrayBlockingQueue<>(processorThreads * 4);
+            this.receivedBatches = new ArrayBlockingQueue<>(processorThreads * 4);
+            this.processor = Executors.newFixedThreadPool(processorThreads);
+        }
 
-            while (!shuttingDown.get()) {
+        private void start() throws IOException {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
 
-                if (((processed + dropped) % 50000 == 0)) {
-                    log.info("Receiver thread processed/dropped ratio: "+processed+"/"+dropped);
-                    processed = 0;
-                    dropped = 0;
-                }
+            while (freeBatches.remainingCapacity() > 0) {
+                freeBatches.add(new PacketBatch(PACKETS_PER_BATCH));
+            }
+            for (int i = 0; i < processorThreads; i++) {
+                processor.submit(spawnProcessorThread());
+            }
 
-                try {
-                    socket.receive(receivingPacket);
+            receivingThread = new Thread(spawnReceiverThread(), "UDP receiving thread " + index);
+            receivingThread.start();
+        }
 
-                    if (receivingPacket.getLength() == TRANSACTION_PACKET_SIZE) {
+        private Runnable spawnReceiverThread() {
+            return () -> {
 
-                        byte[] bytes = Arrays.copyOf(receivingPacket.getData(), receivingPacket.getLength());
-                        SocketAddress address = receivingPacket.getSocketAddress();
+                log.info("Spawning Receiver Thread");
 
-                        processor.submit(() -> node.preProcessReceivedData(bytes, address, "udp"));
-                        processed++;
+                // datagrams that arrive while every batch is in use are read into this buffer and discarded
+                final ByteBuffer discardBuffer = ByteBuffer.allocateDirect(TRANSACTION_PACKET_SIZE);
 
-                        Thread.yield();
+                while (!shuttingDown.get()) {
 
-                    } else {
-                        receivingPacket.setLength(TRANSACTION_PACKET_SIZE);
+                    try {
+                        if (selector.select(SELECT_TIMEOUT) == 0) {
+                            continue;
+                        }
+                        selector.selectedKeys().clear();
+
+                        // drain everything the socket holds before going back to sleep
+                        boolean drained = false;
+                        while (!drained) {
+                            final PacketBatch batch = freeBatches.poll();
+                            if (batch == null) {
+                                discardBuffer.clear();
+                                if (channel.receive(discardBuffer) == null) {
+                                    drained = true;
+                                } else {
+                                    droppedPackets.incrementAndGet();
+                                }
+                                continue;
+                            }
+                            drained = batch.receive(channel);
+                            if (batch.size() > 0) {
+                                batch.receiveTime = System.nanoTime();
+                                receivedBatches.add(batch);
+                            } else {
+                                freeBatches.add(batch);
+                            }
+                        }
+                    } catch (final Exception e) {
+                        if (!shuttingDown.get()) {
+                            log.error("Receiver Thread Exception:", e);
+                        }
                     }
-                } catch (final RejectedExecutionException e) {
-                    //no free thread, packet dropped
-                    dropped++;
+                }
+                log.info("Shutting down spawning Receiver Thread");
+            };
+        }
+
+        private Runnable spawnProcessorThread() {
+            return () -> {
 
-                } catch (final Exception e) {
-                    log.error("Receiver Thread Exception:", e);
+                final byte[] receivedData = new byte[TRANSACTION_PACKET_SIZE];
+
+                while (!shuttingDown.get()) {
+
+                    PacketBatch batch = null;
+                    try {
+                        batch = receivedBatches.poll(SELECT_TIMEOUT, TimeUnit.MILLISECONDS);
+                        if (batch == null) {
+                            continue;
+                        }
+                        node.getLoadShedder().recordLag(System.nanoTime() - batch.receiveTime);
+                        final PacketRecorder packetRecorder = node.getPacketRecorder();
+                        for (int i = 0; i < batch.size(); i++) {
+                            final ByteBuffer buffer = batch.buffers[i];
+                            buffer.flip();
+                            final int length = buffer.remaining();
+                            buffer.get(receivedData, 0, length);
+                            if (packetRecorder != null) {
+                                packetRecorder.record(receivedData, length, batch.addresses[i], "udp");
+                            }
+                            node.preProcessReceivedMessage(receivedData, length, batch.addresses[i], "udp");
+                        }
+                    } catch (final InterruptedException e) {
+                        // shutting down
+                    } catch (final Exception e) {
+                        log.error("Processor Thread Exception:", e);
+                    } finally {
+                        if (batch != null) {
+                            batch.clear();
+                            freeBatches.add(batch);
+                        }
+                    }
                 }
+            };
+        }
+
+        private void shutdown() throws InterruptedException {
+            processor.shutdown();
+            processor.awaitTermination(6, TimeUnit.SECONDS);
+            try {
+                selector.wakeup();
+                receivingThread.join(6000L);
+                selector.close();
+                channel.close();
+            }
+            catch (Exception e) {
+                // ignore
             }
-            log.info("Shutting down spawning Receiver Thread");
-        };
+        }
     }
 
-    public void send(final DatagramPacket packet) {
-        try {
-            if (socket != null) {
-                socket.send(packet);
+    /**
+     * A reusable group of direct buffers that travels from a receiving thread to a processor thread.
+     */
+    private class PacketBatch {
+        private final ByteBuffer[] buffers;
+        private final SocketAddress[] addresses;
+        private int size = 0;
+        private long receiveTime;
+
+        private PacketBatch(int capacity) {
+            buffers = new ByteBuffer[capacity];
+            addresses = new SocketAddress[capacity];
+            for (int i = 0; i < capacity; i++) {
+                // one byte more than a packet, so a longer datagram fills the buffer instead of being truncated to fit
+                buffers[i] = ByteBuffer.allocateDirect(TRANSACTION_PACKET_SIZE + 1);
             }
-        } catch (IOException e) {
-            // ignore
         }
-    }
 
-    public void shutdown() throws InterruptedException {
-        shuttingDown.set(true);
-        processor.shutdown();
-        processor.awaitTermination(6, TimeUnit.SECONDS);
-        try {
-            receivingThread.join(6000L);
+        /**
+         * Fills the batch with pending datagrams.
+         * @return <tt>true</tt> if the channel has no more datagrams, <tt>false</tt> if the batch is full
+         */
+        private boolean receive(DatagramChannel channel) throws IOException {
+            while (size < buffers.length) {
+                final ByteBuffer buffer = buffers[size];
+                final SocketAddress address = channel.receive(buffer);
+                if (address == null) {
+                    return true;
+                }
+                receivedPackets.incrementAndGet();
+                // legacy packets are TRANSACTION_PACKET_SIZE long, v2 messages are up to as long
+                if (buffer.position() > 0 && buffer.position() <= TRANSACTION_PACKET_SIZE) {
+                    addresses[size++] = address;
+                } else {
+                    invalidPackets.incrementAndGet();
+                    buffer.clear();
+                }
+            }
+            return false;
         }
-        catch (Exception e) {
-            // ignore
+
+        private int size() {
+            return size;
         }
-    }
 
+        private void clear() {
+            for (int i = 0; i < size; i++) {
+                buffers[i].clear();
+                addresses[i] = null;
+            }
+            size = 0;
+        }
+    }
 }
@@ -4,31 +4,52 @@ import com.iota.iri.network.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Replicator {
-    
-    public static final int NUM_THREADS = 32;
-    
+
+    public static final int NUM_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
     private static final Logger log = LoggerFactory.getLogger(Replicator.class);
     private final ReplicatorSinkPool replicatorSinkPool;
     private final int port;
     private ReplicatorSourcePool replicatorSourcePool;
 
+    private final ReplicatorIOLoop[] loops = new ReplicatorIOLoop[NUM_THREADS];
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+
     public Replicator(final Node node, int port, final int maxPeers, final boolean testnet) {
         this.port = port;
-        replicatorSinkPool = new ReplicatorSinkPool(node, port);
-        replicatorSourcePool = new ReplicatorSourcePool(replicatorSinkPool, node, maxPeers, testnet);
+        replicatorSinkPool = new ReplicatorSinkPool(this, node, port);
+        replicatorSourcePool = new ReplicatorSourcePool(this, replicatorSinkPool, node, maxPeers, testnet);
     }
 
-    public void init() {
+    public void init() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new ReplicatorIOLoop();
+            new Thread(loops[i], "Replicator I/O thread " + i).start();
+        }
+        replicatorSourcePool.init(port);
         new Thread(replicatorSinkPool).start();
-        new Thread(replicatorSourcePool.init(port)).start();
         log.info("Started ReplicatorSourcePool");
     }
-    
+
+    /**
+     * Connections are spread over the I/O threads round robin.
+     */
+    ReplicatorIOLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
     public void shutdown() throws InterruptedException {
-        // TODO
         replicatorSourcePool.shutdown();
         replicatorSinkPool.shutdown();
+        for (final ReplicatorIOLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
     }
-    
+
 }
@@ -0,0 +1,53 @@
+package com.iota.iri.network.replicator;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * A TCP connection served by a {@link ReplicatorIOLoop}. All methods are called from the loop's thread.
+ */
+abstract class ReplicatorConnection {
+
+    protected final ReplicatorIOLoop loop;
+    private boolean closed = false;
+
+    ReplicatorConnection(ReplicatorIOLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Handles the ready operations of the connection's key.
+     */
+    abstract void handle(SelectionKey key) throws IOException;
+
+    /**
+     * @return <tt>true</tt> if the connection was closed elsewhere or timed out, and has to be cleaned up
+     */
+    abstract boolean isStale(long now);
+
+    /**
+     * Called for a connection the loop paused, until it returns <tt>true</tt> once it reads again.
+     */
+    boolean resume() throws IOException {
+        return true;
+    }
+
+    /**
+     * Called about once per second, for connections that wait on timeouts.
+     */
+    void tick(long now) {
+    }
+
+    /**
+     * Closes the connection and releases its resources, on the first call only.
+     * @param cause the error that ended the connection, or <tt>null</tt>
+     */
+    final void closeOnce(IOException cause) {
+        if (!closed) {
+            closed = true;
+            close(cause);
+        }
+    }
+
+    protected abstract void close(IOException cause);
+}
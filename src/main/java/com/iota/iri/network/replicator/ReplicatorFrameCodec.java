@@ -0,0 +1,202 @@
+package com.iota.iri.network.replicator;
+
+import com.iota.iri.network.MessageCodec;
+import com.iota.iri.network.Node;
+
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Frames the messages sent over replicator connections, each message being followed by a checksum trailer.
+ *
+ * Legacy frames carry a {@link Node#TRANSACTION_PACKET_SIZE} byte packet and its CRC32 as 16 zero padded hex digits.
+ * Peers that negotiated protocol version 2 during the handshake exchange frames of a 2 byte length, a message of
+ * {@link MessageCodec} and its 4 byte CRC32C instead: a sink offering v2 sends its port header with a leading '+',
+ * which older peers parse as a plain port number. A source that speaks v2 answers with {@link #ACK}, after which
+ * the sink may switch. It then sends a hello message first, which no legacy frame can start with.
+ *
+ * Checksums are computed over whole packets and compared in binary, so encoding or verifying a frame allocates
+ * nothing. Instances are not thread safe.
+ */
+class ReplicatorFrameCodec {
+
+    enum Format {
+        CRC32_HEX(0, 16),
+        CRC32C(2, 4);
+
+        final int prefixBytes;
+        final int trailerBytes;
+
+        Format(int prefixBytes, int trailerBytes) {
+            this.prefixBytes = prefixBytes;
+            this.trailerBytes = trailerBytes;
+        }
+
+        int maxFrameSize() {
+            return prefixBytes + Node.TRANSACTION_PACKET_SIZE + trailerBytes;
+        }
+    }
+
+    static final int MAX_PREFIX_BYTES = Format.CRC32C.prefixBytes;
+    static final int MAX_TRAILER_BYTES = Format.CRC32_HEX.trailerBytes;
+    static final int MAX_FRAME_SIZE = Math.max(Format.CRC32_HEX.maxFrameSize(), Format.CRC32C.maxFrameSize());
+
+    static final byte CRC32C_OFFER = '+';
+    static final byte ACK = '+';
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private final CRC32 crc32 = new CRC32();
+    private final Checksum crc32c = newCrc32c();
+
+    /**
+     * @param offerCrc32c whether to announce that this node can switch to protocol version 2 frames
+     */
+    static byte[] header(int port, boolean offerCrc32c) {
+        final String fmt = "%0" + String.valueOf(ReplicatorSinkPool.PORT_BYTES) + "d";
+        final byte[] header = String.format(fmt, port).getBytes();
+        if (offerCrc32c) {
+            header[0] = CRC32C_OFFER;
+        }
+        return header;
+    }
+
+    static boolean offersCrc32c(byte[] header) {
+        return header[0] == CRC32C_OFFER;
+    }
+
+    static int port(byte[] header) {
+        // Long.parseLong accepts the leading '+' of a CRC32C offer
+        return (int) Long.parseLong(new String(header));
+    }
+
+    /**
+     * @return <tt>true</tt> if a message of <tt>length</tt> bytes can be sent in frames of <tt>format</tt>
+     */
+    static boolean fits(Format format, int length) {
+        return format == Format.CRC32C ? length > 0 && length <= Node.TRANSACTION_PACKET_SIZE
+                : length == Node.TRANSACTION_PACKET_SIZE;
+    }
+
+    /**
+     * Writes the length of the message into the first {@link Format#prefixBytes} of <tt>prefix</tt>.
+     */
+    static void encodePrefix(Format format, int length, byte[] prefix) {
+        if (format == Format.CRC32C) {
+            prefix[0] = (byte) (length >>> 8);
+            prefix[1] = (byte) length;
+        }
+    }
+
+    /**
+     * @return the message length read from the prefix, or -1 if no such message fits the frame
+     */
+    static int decodePrefix(Format format, byte[] prefix) {
+        if (format != Format.CRC32C) {
+            return Node.TRANSACTION_PACKET_SIZE;
+        }
+        final int length = ((prefix[0] & 0xFF) << 8) | (prefix[1] & 0xFF);
+        return fits(format, length) ? length : -1;
+    }
+
+    /**
+     * Writes the trailer of the message into the first {@link Format#trailerBytes} of <tt>trailer</tt>.
+     */
+    void encodeTrailer(Format format, byte[] message, int length, byte[] trailer) {
+        if (format == Format.CRC32C) {
+            final long value = checksum(crc32c, message, length);
+            trailer[0] = (byte) (value >>> 24);
+            trailer[1] = (byte) (value >>> 16);
+            trailer[2] = (byte) (value >>> 8);
+            trailer[3] = (byte) value;
+        } else {
+            long value = checksum(crc32, message, length);
+            for (int i = format.trailerBytes; i-- > 0; ) {
+                trailer[i] = HEX_DIGITS[(int) (value & 0xF)];
+                value >>>= 4;
+            }
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the first {@link Format#trailerBytes} of <tt>trailer</tt> hold the checksum of the message
+     */
+    boolean verify(Format format, byte[] message, int length, byte[] trailer) {
+        long value = 0;
+        if (format == Format.CRC32C) {
+            for (int i = 0; i < format.trailerBytes; i++) {
+                value = (value << 8) | (trailer[i] & 0xFF);
+            }
+            return value == checksum(crc32c, message, length);
+        }
+        for (int i = 0; i < format.trailerBytes; i++) {
+            final int digit = Character.digit(trailer[i], 16);
+            if (digit < 0) {
+                return false;
+            }
+            value = (value << 4) | digit;
+        }
+        return value == checksum(crc32, message, length);
+    }
+
+    private static long checksum(Checksum checksum, byte[] message, int length) {
+        checksum.reset();
+        checksum.update(message, 0, length);
+        return checksum.getValue();
+    }
+
+    /**
+     * {@code java.util.zip.CRC32C} is only part of the JDK since Java 9.
+     */
+    private static Checksum newCrc32c() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new TableCrc32c();
+        }
+    }
+
+    /**
+     * Table driven CRC32C (Castagnoli), used where the JDK has no intrinsic one.
+     */
+    static class TableCrc32c implements Checksum {
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < TABLE.length; i++) {
+                int crc = i;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int value = crc;
+            for (int i = off; i < off + len; i++) {
+                value = (value >>> 8) ^ TABLE[(value ^ b[i]) & 0xFF];
+            }
+            crc = value;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.iota.iri.network.replicator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of the replicator's I/O threads. It multiplexes the TCP connections assigned to it over a single
+ * {@link Selector}, and lends its connections read buffers from a pool of direct buffers.
+ */
+class ReplicatorIOLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicatorIOLoop.class);
+
+    private static final int SELECT_TIMEOUT = 1000;
+    // how often connections that stopped reading check whether they may go on
+    private static final int PAUSE_CHECK_INTERVAL = 10;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    static final int READ_BUFFER_SIZE = 16 * ReplicatorFrameCodec.MAX_FRAME_SIZE;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<ReplicatorConnection> connections = new HashSet<>();
+    private final Set<ReplicatorConnection> paused = new HashSet<>();
+    private final Deque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private volatile boolean shutdown = false;
+
+    ReplicatorIOLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Runs <tt>task</tt> on the loop's thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws ClosedChannelException {
+        if (attachment instanceof ReplicatorConnection) {
+            connections.add((ReplicatorConnection) attachment);
+        }
+        return channel.register(selector, ops, attachment);
+    }
+
+    /**
+     * Stops reading from the connection's channel until its {@link ReplicatorConnection#resume()} succeeds, so a
+     * connection waiting for room downstream does not hold up the others of the loop.
+     */
+    void pause(ReplicatorConnection connection, SelectionKey key) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        paused.add(connection);
+    }
+
+    ByteBuffer acquireBuffer() {
+        final ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    }
+
+    void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.push(buffer);
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        while (!shutdown) {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                selector.select(paused.isEmpty() ? SELECT_TIMEOUT : PAUSE_CHECK_INTERVAL);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                for (final ReplicatorConnection connection : new ArrayList<>(paused)) {
+                    resume(connection);
+                }
+
+                final long now = System.currentTimeMillis();
+                if (now - lastSweep >= SELECT_TIMEOUT) {
+                    lastSweep = now;
+                    for (final ReplicatorConnection connection : new ArrayList<>(connections)) {
+                        if (connection.isStale(now)) {
+                            close(connection, null);
+                        } else {
+                            connection.tick(now);
+                        }
+                    }
+                }
+            } catch (final Exception e) {
+                if (!shutdown) {
+                    log.error("Replicator I/O Thread Exception:", e);
+                }
+            }
+        }
+        for (final ReplicatorConnection connection : new ArrayList<>(connections)) {
+            close(connection, null);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // don't care.
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        final Object attachment = key.attachment();
+        if (attachment instanceof ReplicatorConnection) {
+            final ReplicatorConnection connection = (ReplicatorConnection) attachment;
+            try {
+                if (key.isValid()) {
+                    connection.handle(key);
+                }
+            } catch (final IOException e) {
+                close(connection, e);
+            }
+        } else if (attachment instanceof ReplicatorSourcePool && key.isValid() && key.isAcceptable()) {
+            ((ReplicatorSourcePool) attachment).accept();
+        }
+    }
+
+    private void resume(ReplicatorConnection connection) {
+        try {
+            if (connection.resume()) {
+                paused.remove(connection);
+            }
+        } catch (final IOException e) {
+            close(connection, e);
+        }
+    }
+
+    void close(ReplicatorConnection connection, IOException cause) {
+        connections.remove(connection);
+        paused.remove(connection);
+        try {
+            connection.closeOnce(cause);
+        } catch (final Exception e) {
+            log.error("Error closing replicator connection", e);
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+}
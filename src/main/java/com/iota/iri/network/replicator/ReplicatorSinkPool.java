@@ -1,14 +1,9 @@
 package com.iota.iri.network.replicator;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import com.iota.iri.Iota;
 import com.iota.iri.network.TCPNeighbor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,34 +11,35 @@ import org.slf4j.LoggerFactory;
 import com.iota.iri.network.Neighbor;
 import com.iota.iri.network.Node;
 
+/**
+ * Opens the outgoing connections to the tcp neighbors, and keeps reopening those of configured neighbors.
+ */
 public class ReplicatorSinkPool  implements Runnable {
-    
+
     private static final Logger log = LoggerFactory.getLogger(ReplicatorSinkPool.class);
+    private final Replicator replicator;
     private final int port;
     private final Node node;
 
-    private ExecutorService sinkPool;
-    
-    public boolean shutdown = false;
+    public volatile boolean shutdown = false;
+    private Thread thread;
 
     public final static int PORT_BYTES = 10;
 
-    private final DatagramPacket sendingPacket = new DatagramPacket(new byte[Node.TRANSACTION_PACKET_SIZE], Node.TRANSACTION_PACKET_SIZE);
-
-    public ReplicatorSinkPool(Node node, int port) {
+    public ReplicatorSinkPool(Replicator replicator, Node node, int port) {
+        this.replicator = replicator;
         this.node = node;
         this.port = port;
     }
 
     @Override
     public void run() {
-        
-        sinkPool = Executors.newFixedThreadPool(Replicator.NUM_THREADS);
-        {           
+        thread = Thread.currentThread();
+        {
             List<Neighbor> neighbors = node.getNeighbors();
             // wait until list is populated
             int loopcnt = 10;
-            while ((loopcnt-- > 0) && neighbors.size() == 0) {
+            while ((loopcnt-- > 0) && neighbors.size() == 0 && !shutdown) {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
@@ -54,8 +50,8 @@ public class ReplicatorSinkPool  implements Runnable {
                     .map(n -> ((TCPNeighbor) n))
                     .forEach(this::createSink);
         }
-        
-        while (!Thread.interrupted()) {
+
+        while (!shutdown) {
             // Restart attempt for neighbors that are in the configuration.
             try {
                 Thread.sleep(30000);
@@ -70,50 +66,39 @@ public class ReplicatorSinkPool  implements Runnable {
                     .forEach(this::createSink);
         }
     }
-    
+
     public void createSink(TCPNeighbor neighbor) {
-        Runnable proc = new ReplicatorSinkProcessor( neighbor, this, port);
-        sinkPool.submit(proc);
-    }
-    
-    public void shutdownSink(TCPNeighbor neighbor) {
-        Socket socket = neighbor.getSink();
-        if (socket != null) {
-            if (!socket.isClosed()) {
-                try {
-                    socket.close();
-                    log.info("Sink {} closed", neighbor.getHostAddress());
-                } catch (IOException e) {
-                    // TODO
-                }
+        if (shutdown) {
+            return;
+        }
+        final SocketChannel socket;
+        synchronized (neighbor) {
+            if (neighbor.getSink() != null) {
+                log.info("Sink {} already created", neighbor.getHostAddress());
+                return;
             }
+            try {
+                socket = SocketChannel.open();
+                socket.configureBlocking(false);
+            } catch (IOException e) {
+                log.error("***** NETWORK ALERT ***** No sink to host {}:{}, reason: {}", neighbor.getHostAddress(), neighbor.getPort(), e.getMessage());
+                return;
+            }
+            neighbor.setSink(socket);
         }
-        neighbor.setSink(null);
+        final ReplicatorIOLoop loop = replicator.nextLoop();
+        loop.execute(() -> new ReplicatorSinkProcessor(loop, neighbor, socket, this, port).connect());
     }
 
-    /*
-    public void broadcast(TransactionViewModel transaction) {
-        if (transaction != null) {
-            List<Neighbor> neighbors = instance.node.getNeighbors();
-            if (neighbors != null) {
-                neighbors.stream().filter(n -> n instanceof TCPNeighbor)
-                        .map(n -> ((TCPNeighbor) n))
-                        .filter(n -> n.getSink() != null && !n.getSink().isClosed())
-                        .forEach(neighbor -> {
-                            try {
-                                Node.sendPacket(sendingPacket, transaction, neighbor);
-                            } catch (final Exception e) {
-                                // ignore
-                            }
-                        });
-            }
-        }
+    public void shutdownSink(TCPNeighbor neighbor) {
+        neighbor.setSendListener(null);
+        neighbor.setSink(null);
     }
-    */
 
     public void shutdown() throws InterruptedException {
         shutdown = true;
-        sinkPool.shutdown();
-        sinkPool.awaitTermination(6, TimeUnit.SECONDS);
+        if (thread != null) {
+            thread.interrupt();
+        }
     }
 }
@@ -1,137 +1,261 @@
 package com.iota.iri.network.replicator;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.util.zip.CRC32;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.iota.iri.network.TCPNeighbor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.iota.iri.conf.Configuration;
-import com.iota.iri.conf.Configuration.DefaultConfSettings;
-import com.iota.iri.network.Node;
+import com.iota.iri.network.MessageCodec;
 
-class ReplicatorSinkProcessor implements Runnable {
+/**
+ * Writes the transactions queued on a {@link TCPNeighbor} to the outgoing connection to that neighbor.
+ *
+ * Frames are written in batches with gathering writes, the transaction packets going out without being copied.
+ * The sink offers protocol version 2 with its port header and waits up to {@link #ACK_TIMEOUT} for the neighbor to
+ * accept it before it writes its first frame, falling back to legacy frames, see {@link ReplicatorFrameCodec}.
+ */
+class ReplicatorSinkProcessor extends ReplicatorConnection {
 
     private static final Logger log = LoggerFactory.getLogger(ReplicatorSinkProcessor.class);
 
+    private static final int WRITE_BATCH_SIZE = 16;
+    private static final int MAX_BATCHES_PER_WRITE = 4;
+    private static final long CONNECT_TIMEOUT = 30000L;
+    private static final long ACK_TIMEOUT = 1000L;
+
     private final TCPNeighbor neighbor;
-    
-    public final static int CRC32_BYTES = 16;
+    private final SocketChannel socket;
     private final ReplicatorSinkPool replicatorSinkPool;
     private final int port;
+    private final String remoteAddress;
+    private final long created = System.currentTimeMillis();
+
+    private SelectionKey key;
+    private boolean connected = false;
+    private long connectedAt;
+    private final ReplicatorFrameCodec codec = new ReplicatorFrameCodec();
+    // null until the neighbor accepted protocol version 2 or the offer timed out
+    private volatile ReplicatorFrameCodec.Format format = null;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
 
-    public ReplicatorSinkProcessor(final TCPNeighbor neighbor,
+    private final List<ByteBuffer> messages = new ArrayList<>(WRITE_BATCH_SIZE);
+    // the port header or hello, then the length prefix, message and trailer per frame
+    private final ByteBuffer[] buffers = new ByteBuffer[1 + 3 * WRITE_BATCH_SIZE];
+    private final ByteBuffer[] prefixes = new ByteBuffer[WRITE_BATCH_SIZE];
+    private final ByteBuffer[] trailers = new ByteBuffer[WRITE_BATCH_SIZE];
+    private int bufferOffset = 0;
+    private int bufferCount = 0;
+    private int framesInBatch = 0;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64);
+
+    public ReplicatorSinkProcessor(final ReplicatorIOLoop loop,
+                                   final TCPNeighbor neighbor,
+                                   final SocketChannel socket,
                                    final ReplicatorSinkPool replicatorSinkPool,
                                    final int port) {
+        super(loop);
         this.neighbor = neighbor;
+        this.socket = socket;
         this.replicatorSinkPool = replicatorSinkPool;
         this.port = port;
+        this.remoteAddress = neighbor.getHostAddress();
+        for (int i = 0; i < trailers.length; i++) {
+            prefixes[i] = ByteBuffer.allocate(ReplicatorFrameCodec.MAX_PREFIX_BYTES);
+            trailers[i] = ByteBuffer.allocate(ReplicatorFrameCodec.MAX_TRAILER_BYTES);
+        }
     }
 
-    @Override
-    public void run() {
-    	try {
-    		Thread.sleep(1000);
-    	}
-    	catch (InterruptedException e) {
-    		log.info("Interrupted");
-    	}
-
-        String remoteAddress = neighbor.getHostAddress();
-        
+    void connect() {
         try {
-            Socket socket;
-            synchronized (neighbor) { 
-                Socket sink = neighbor.getSink();
-                if ( sink == null ) {
-                    log.info("Opening sink {}", remoteAddress);
-                    socket = new Socket();
-                    socket.setSoLinger(true, 0);
-                    socket.setSoTimeout(30000);
-                    neighbor.setSink(socket);
+            log.info("Opening sink {}", remoteAddress);
+            key = loop.register(socket, SelectionKey.OP_CONNECT, this);
+            if (socket.connect(new InetSocketAddress(remoteAddress, neighbor.getPort()))) {
+                connected();
+            }
+        } catch (IOException e) {
+            loop.close(this, e);
+        }
+    }
+
+    private void connected() {
+        connected = true;
+        connectedAt = System.currentTimeMillis();
+        log.info("----- NETWORK INFO ----- Sink {} is connected", remoteAddress);
+
+        // Let neighbor know our tcp listener port
+        buffers[0] = ByteBuffer.wrap(ReplicatorFrameCodec.header(port, true));
+        bufferOffset = 0;
+        bufferCount = 1;
+
+        writeScheduled.set(true);
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        neighbor.setSendListener(this::scheduleWrite);
+    }
+
+    /**
+     * Called by the sending threads whenever the neighbor has new messages.
+     */
+    private void scheduleWrite() {
+        if (format != null && writeScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                 }
-                else {
-                    // Sink already created
-                    log.info("Sink {} already created", remoteAddress);
+            });
+        }
+    }
+
+    @Override
+    void handle(SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            if (socket.finishConnect()) {
+                connected();
+            }
+            return;
+        }
+        if (key.isReadable()) {
+            // the neighbor writes no more than its acknowledgement of v2, reading otherwise only detects it closing
+            readBuffer.clear();
+            if (socket.read(readBuffer) == -1) {
+                throw new EOFException("connection closed");
+            }
+            if (format == null && readBuffer.position() > 0 && readBuffer.get(0) == ReplicatorFrameCodec.ACK) {
+                startFrames(ReplicatorFrameCodec.Format.CRC32C);
+            }
+        }
+        if (key.isValid() && key.isWritable()) {
+            write();
+        }
+    }
+
+    private void startFrames(ReplicatorFrameCodec.Format format) {
+        this.format = format;
+        log.debug("Sink {} uses {} frames", remoteAddress, format);
+        if (format == ReplicatorFrameCodec.Format.CRC32C) {
+            // the port header is out already, the hello tells the neighbor that v2 frames follow
+            buffers[0] = ByteBuffer.wrap(MessageCodec.hello());
+            bufferOffset = 0;
+            bufferCount = 1;
+            neighbor.setProtocolVersion(MessageCodec.PROTOCOL_VERSION);
+        } else {
+            neighbor.setProtocolVersion(1);
+        }
+        writeScheduled.set(true);
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void write() throws IOException {
+        for (int batches = 0; batches < MAX_BATCHES_PER_WRITE; ) {
+            if (bufferOffset == bufferCount) {
+                if (format == null) {
+                    // the port header is out, hold the frames back until the protocol version is settled
+                    key.interestOps(SelectionKey.OP_READ);
+                    writeScheduled.set(false);
                     return;
                 }
-            }
-            
-            if (socket != null) {
-                log.info("Connecting sink {}", remoteAddress);
-                socket.connect(new InetSocketAddress(remoteAddress, neighbor.getPort()), 30000);
-                if (!socket.isClosed() && socket.isConnected()) {
-                    OutputStream out = socket.getOutputStream();
-                    log.info("----- NETWORK INFO ----- Sink {} is connected", remoteAddress);
-                    
-                    // Let neighbor know our tcp listener port
-                    String fmt = "%0"+String.valueOf(ReplicatorSinkPool.PORT_BYTES)+"d";
-                    byte [] portAsByteArray = new byte [10];
-                    System.arraycopy(String.format(fmt, port).getBytes(), 0,
-                            portAsByteArray, 0, ReplicatorSinkPool.PORT_BYTES);
-                    out.write(portAsByteArray);
-                    
-                    while (!replicatorSinkPool.shutdown && !neighbor.isStopped()) {
-                        try {
-                            ByteBuffer message = neighbor.getNextMessage();
-                            if (neighbor.getSink() != null) { 
-                                if (neighbor.getSink().isClosed() || !neighbor.getSink().isConnected()) {
-                                    log.info("----- NETWORK INFO ----- Sink {} got disconnected", remoteAddress);
-                                    return;
-                                } else {
-                                    if ((message != null) && (neighbor.getSink() != null && neighbor.getSink().isConnected())
-                                        && (neighbor.getSource() != null && neighbor.getSource().isConnected())) {
-                                    
-                                        byte[] bytes = message.array();
-
-                                        if (bytes.length == Node.TRANSACTION_PACKET_SIZE) {
-                                            try {
-                                                CRC32 crc32 = new CRC32();                                        
-                                                crc32.update(message.array());
-                                                String crc32_string = Long.toHexString(crc32.getValue());
-                                                while (crc32_string.length() < CRC32_BYTES) crc32_string = "0"+crc32_string;
-                                                out.write(message.array());
-                                                out.write(crc32_string.getBytes());
-                                                out.flush();
-                                                neighbor.incSentTransactions();
-                                            } catch (IOException e2) {
-                                                if (!neighbor.getSink().isClosed() && neighbor.getSink().isConnected()) {
-                                                    out.close();
-                                                    out = neighbor.getSink().getOutputStream();
-                                                } else {
-                                                    log.info("----- NETWORK INFO ----- Sink {} thread terminating",
-                                                        remoteAddress);
-                                                    return;
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            log.error("Interrupted while waiting for send buffer");
-                        }                        
+                for (; framesInBatch > 0; framesInBatch--) {
+                    neighbor.incSentTransactions();
+                }
+                if (!fillBuffers()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    writeScheduled.set(false);
+                    if (neighbor.hasMessages()) {
+                        scheduleWrite();
                     }
+                    return;
                 }
+                batches++;
+            }
+            socket.write(buffers, bufferOffset, bufferCount - bufferOffset);
+            while (bufferOffset < bufferCount && !buffers[bufferOffset].hasRemaining()) {
+                bufferOffset++;
+            }
+            if (bufferOffset < bufferCount) {
+                // the socket send buffer is full, go on once it is writable again
+                return;
+            }
+        }
+    }
+
+    private boolean fillBuffers() {
+        bufferOffset = 0;
+        bufferCount = 0;
+        messages.clear();
+        neighbor.drainMessages(messages, WRITE_BATCH_SIZE);
+        final SocketChannel source = neighbor.getSource();
+        if (source == null || !source.isConnected()) {
+            // only send to neighbors that are connected both ways
+            neighbor.incDroppedTransactions(messages.size());
+            return false;
+        }
+        for (final ByteBuffer message : messages) {
+            final int length = message.remaining();
+            if (!ReplicatorFrameCodec.fits(format, length)) {
+                // encoded for a protocol version the connection no longer speaks
+                neighbor.incDroppedTransactions(1);
+                continue;
             }
-        } catch (Exception e) {
-            String reason = e.getMessage();
-            if (reason==null || reason.equals("null")) reason = "closed"; 
-            log.error("***** NETWORK ALERT ***** No sink to host {}:{}, reason: {}", remoteAddress, neighbor.getPort(), e.getMessage());
-            synchronized (neighbor) {
-                Socket sourceSocket = neighbor.getSource();
-                if (sourceSocket != null && (sourceSocket.isClosed() || !sourceSocket.isConnected())) {
+            if (format.prefixBytes > 0) {
+                final ByteBuffer prefix = prefixes[framesInBatch];
+                prefix.clear();
+                prefix.limit(format.prefixBytes);
+                ReplicatorFrameCodec.encodePrefix(format, length, prefix.array());
+                buffers[bufferCount++] = prefix;
+            }
+            final ByteBuffer trailer = trailers[framesInBatch++];
+            trailer.clear();
+            trailer.limit(format.trailerBytes);
+            codec.encodeTrailer(format, message.array(), length, trailer.array());
+            buffers[bufferCount++] = message;
+            buffers[bufferCount++] = trailer;
+        }
+        return bufferCount > 0;
+    }
+
+    @Override
+    boolean isStale(long now) {
+        return !socket.isOpen() || neighbor.isStopped() || neighbor.getSink() != socket
+                || (!connected && now - created > CONNECT_TIMEOUT);
+    }
+
+    @Override
+    void tick(long now) {
+        if (connected && format == null && now - connectedAt > ACK_TIMEOUT) {
+            // an older neighbor that only understands legacy frames
+            startFrames(ReplicatorFrameCodec.Format.CRC32_HEX);
+        }
+    }
+
+    @Override
+    protected void close(IOException cause) {
+        if (cause != null) {
+            log.error("***** NETWORK ALERT ***** No sink to host {}:{}, reason: {}", remoteAddress, neighbor.getPort(), cause.getMessage());
+        } else if (!connected) {
+            log.error("***** NETWORK ALERT ***** No sink to host {}:{}, reason: connect timed out", remoteAddress, neighbor.getPort());
+        }
+        synchronized (neighbor) {
+            if (neighbor.getSink() == socket) {
+                SocketChannel sourceSocket = neighbor.getSource();
+                if (sourceSocket != null && (!sourceSocket.isOpen() || !sourceSocket.isConnected())) {
                     neighbor.setSource(null);
                 }
-                neighbor.setSink(null);
+                replicatorSinkPool.shutdownSink(neighbor);
             }
         }
-
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // don't care.
+        }
     }
 
 }
@@ -1,21 +1,22 @@
 package com.iota.iri.network.replicator;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import com.iota.iri.network.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.iota.iri.conf.Configuration;
-import com.iota.iri.conf.Configuration.DefaultConfSettings;
-
-public class ReplicatorSourcePool implements Runnable {
+/**
+ * Accepts incoming replicator connections and spreads them over the I/O threads.
+ */
+public class ReplicatorSourcePool {
 
+    private final Replicator replicator;
     private final ReplicatorSinkPool replicatorSinkPool;
     private final Node node;
     private final int maxPeers;
@@ -23,63 +24,70 @@ public class ReplicatorSourcePool implements Runnable {
     private volatile boolean shutdown = false;
 
     private static final Logger log = LoggerFactory.getLogger(ReplicatorSourcePool.class);
-    private ExecutorService pool;
-    private int port;
+    private ServerSocketChannel server;
 
-    public ReplicatorSourcePool(final ReplicatorSinkPool replicatorSinkPool,
+    public ReplicatorSourcePool(final Replicator replicator,
+                                final ReplicatorSinkPool replicatorSinkPool,
                                 final Node node,
                                 final int maxPeers,
                                 final boolean testnet) {
+        this.replicator = replicator;
         this.replicatorSinkPool = replicatorSinkPool;
         this.node = node;
         this.maxPeers = maxPeers;
         this.testnet = testnet;
     }
 
-    @Override
-    public void run() {
-        ExecutorService pool;
-        ServerSocket server = null;
-        pool = Executors.newFixedThreadPool(Replicator.NUM_THREADS);
-        this.pool = pool;
+    public void init(int port) {
         try {
-            server = new ServerSocket(port);
-            log.info("TCP replicator is accepting connections on tcp port " + server.getLocalPort());
-            while (!shutdown) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            final ReplicatorIOLoop loop = replicator.nextLoop();
+            loop.execute(() -> {
                 try {
-                    Socket request = server.accept();
-                    request.setSoLinger(true, 0);
-                    Runnable proc = new ReplicatorSourceProcessor( replicatorSinkPool, request, node, maxPeers, testnet );
-                    pool.submit(proc);
-                } catch (IOException ex) {
-                    log.error("Error accepting connection", ex);
+                    loop.register(server, SelectionKey.OP_ACCEPT, this);
+                } catch (IOException e) {
+                    log.error("Error registering server socket", e);
                 }
-            }
-            log.info("ReplicatorSinkPool shutting down");
+            });
+            log.info("TCP replicator is accepting connections on tcp port " + server.socket().getLocalPort());
         } catch (IOException e) {
             log.error("***** NETWORK ALERT ***** Cannot create server socket on port {}, {}", port, e.getMessage());
-        } finally {
-            if (server != null) {
-                try {
-                    server.close();
-                }
-                catch (Exception e) {
-                    // don't care.
+        }
+    }
+
+    /**
+     * Called by the I/O thread serving the server socket.
+     */
+    void accept() {
+        while (!shutdown) {
+            try {
+                final SocketChannel request = server.accept();
+                if (request == null) {
+                    return;
                 }
+                request.setOption(StandardSocketOptions.SO_LINGER, 0);
+                request.configureBlocking(false);
+                final ReplicatorIOLoop loop = replicator.nextLoop();
+                loop.execute(() -> new ReplicatorSourceProcessor(loop, replicatorSinkPool, request, node, maxPeers, testnet).open());
+            } catch (IOException ex) {
+                log.error("Error accepting connection", ex);
+                return;
             }
         }
     }
 
     public void shutdown() throws InterruptedException {
         shutdown = true;
-        //notify();
-        pool.shutdown();
-        pool.awaitTermination(6, TimeUnit.SECONDS);
-    }
-
-    public ReplicatorSourcePool init(int port) {
-        this.port = port;
-        return this;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (Exception e) {
+                // don't care.
+            }
+        }
+        log.info("ReplicatorSourcePool shutting down");
     }
 
 }
@@ -1,46 +1,59 @@
 package com.iota.iri.network.replicator;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.List;
-import java.util.zip.CRC32;
 
 import com.iota.iri.network.TCPNeighbor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.iota.iri.network.MessageCodec;
 import com.iota.iri.network.Neighbor;
-import com.iota.iri.conf.Configuration;
-import com.iota.iri.hash.Curl;
-import com.iota.iri.model.Hash;
 import com.iota.iri.network.Node;
-import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.network.PacketRecorder;
 
-class ReplicatorSourceProcessor implements Runnable {
+/**
+ * Reads the transactions a neighbor sends over an incoming connection.
+ *
+ * The neighbor first sends its tcp listener port as {@link ReplicatorSinkPool#PORT_BYTES} decimal digits,
+ * followed by frames of a transaction packet and its checksum trailer, see {@link ReplicatorFrameCodec}.
+ */
+class ReplicatorSourceProcessor extends ReplicatorConnection {
 
     private static final Logger log = LoggerFactory.getLogger(ReplicatorSourceProcessor.class);
 
-    private final Socket connection;
+    private final SocketChannel connection;
 
     private final static int TRANSACTION_PACKET_SIZE = Node.TRANSACTION_PACKET_SIZE;
-    private final boolean shutdown = false;
     private final Node node;
     private final int maxPeers;
     private final boolean testnet;
     private final ReplicatorSinkPool replicatorSinkPool;
 
-    private boolean existingNeighbor;
-    
+    private InetSocketAddress address;
     private TCPNeighbor neighbor;
+    private ByteBuffer buffer;
+    private SelectionKey key;
+    private boolean portReceived = false;
+    private final byte[] data = new byte[TRANSACTION_PACKET_SIZE];
+    private final byte[] prefix = new byte[ReplicatorFrameCodec.MAX_PREFIX_BYTES];
+    private final byte[] trailer = new byte[ReplicatorFrameCodec.MAX_TRAILER_BYTES];
+    private final ReplicatorFrameCodec codec = new ReplicatorFrameCodec();
+    // null while we acknowledged protocol version 2 but do not know yet whether the sink went for it
+    private ReplicatorFrameCodec.Format format = ReplicatorFrameCodec.Format.CRC32_HEX;
 
-    public ReplicatorSourceProcessor(final ReplicatorSinkPool replicatorSinkPool,
-                                     final Socket connection,
+    public ReplicatorSourceProcessor(final ReplicatorIOLoop loop,
+                                     final ReplicatorSinkPool replicatorSinkPool,
+                                     final SocketChannel connection,
                                      final Node node,
                                      final int maxPeers,
                                      final boolean testnet) {
+        super(loop);
         this.connection = connection;
         this.node = node;
         this.maxPeers = maxPeers;
@@ -48,149 +61,196 @@ class ReplicatorSourceProcessor implements Runnable {
         this.replicatorSinkPool = replicatorSinkPool;
     }
 
-    @Override
-    public void run() {
-        int count;
-        byte[] data = new byte[2000];
-        int offset = 0;
-        //boolean isNew;
-        boolean finallyClose = true;
-
+    /**
+     * Matches the connection to a neighbor and starts reading from it.
+     */
+    void open() {
         try {
+            address = (InetSocketAddress) connection.getRemoteAddress();
+            final String hisAddress = address.getAddress().getHostAddress();
 
-            SocketAddress address = connection.getRemoteSocketAddress();
-            InetSocketAddress inet_socket_address = (InetSocketAddress) address;
-
-            existingNeighbor = false;
             List<Neighbor> neighbors = node.getNeighbors();
             neighbors.stream().filter(n -> n instanceof TCPNeighbor)
                     .map(n -> ((TCPNeighbor) n))
-                    .forEach(n -> {
-                        String hisAddress = inet_socket_address.getAddress().getHostAddress();
-                        if (n.getHostAddress().equals(hisAddress)) {
-                            existingNeighbor = true;
-                            neighbor = n;
-                        }
-                    });
-            
-            if (!existingNeighbor) {
+                    .filter(n -> n.getHostAddress().equals(hisAddress))
+                    .forEach(n -> neighbor = n);
+
+            if (neighbor == null) {
                 int maxPeersAllowed = maxPeers;
-                if (!testnet || Neighbor.getNumPeers() >= maxPeersAllowed) {
-                    String hostAndPort = inet_socket_address.getHostName() + ":" + String.valueOf(inet_socket_address.getPort());
-                    if (Node.rejectedAddresses.add(inet_socket_address.getHostName())) {
+                if (!testnet || Neighbor.getNumPeers() >= maxPeersAllowed || node.isCoolingDown(hisAddress)) {
+                    String hostAndPort = address.getHostName() + ":" + String.valueOf(address.getPort());
+                    if (Node.rejectedAddresses.add(address.getHostName())) {
                         String sb = "***** NETWORK ALERT ***** Got connected from unknown neighbor tcp://"
                             + hostAndPort
-                            + " (" + inet_socket_address.getAddress().getHostAddress() + ") - closing connection";                    
+                            + " (" + hisAddress + ") - closing connection";
                         if (testnet && Neighbor.getNumPeers() >= maxPeersAllowed) {
                             sb = sb + (" (max-peers allowed is "+String.valueOf(maxPeersAllowed)+")");
                         }
                         log.info(sb);
                     }
-                    connection.getInputStream().close();
-                    connection.shutdownInput();
-                    connection.shutdownOutput();
                     connection.close();
                     return;
                 } else {
-                    final TCPNeighbor fresh_neighbor = new TCPNeighbor(inet_socket_address, false, 0);
+                    final TCPNeighbor fresh_neighbor = new TCPNeighbor(address, false, 0);
                     node.getNeighbors().add(fresh_neighbor);
                     neighbor = fresh_neighbor;
                     Neighbor.incNumPeers();
                 }
             }
-            
-            if ( neighbor.getSource() != null ) {
-                log.info("Source {} already connected", inet_socket_address.getAddress().getHostAddress());
-                finallyClose = false;
+
+            if (neighbor.getSource() != null) {
+                log.info("Source {} already connected", hisAddress);
+                connection.close();
                 return;
             }
             neighbor.setSource(connection);
-            
-            // Read neighbors tcp listener port number.
-            InputStream stream = connection.getInputStream();
-            offset = 0;
-            while (((count = stream.read(data, offset, ReplicatorSinkPool.PORT_BYTES - offset)) != -1) && (offset < ReplicatorSinkPool.PORT_BYTES)) {
-                offset += count;
-            }
-          
-            if ( count == -1 || connection.isClosed() ) {
-                log.error("Did not receive neighbors listener port");
+
+            buffer = loop.acquireBuffer();
+            // read neighbors tcp listener port number first
+            buffer.limit(ReplicatorSinkPool.PORT_BYTES);
+            key = loop.register(connection, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            log.error("***** NETWORK ALERT ***** Error opening TCP connection from {}, {}", address, e.getMessage());
+            loop.close(this, e);
+        }
+    }
+
+    @Override
+    void handle(SelectionKey key) throws IOException {
+        if (!key.isReadable()) {
+            return;
+        }
+        if (connection.read(buffer) == -1) {
+            throw new EOFException("connection closed");
+        }
+
+        if (!portReceived) {
+            if (buffer.hasRemaining()) {
                 return;
             }
-            
-            byte [] pbytes = new byte [10];
-            System.arraycopy(data, 0, pbytes, 0, ReplicatorSinkPool.PORT_BYTES);
-            neighbor.setTcpPort((int)Long.parseLong(new String(pbytes)));
-            
+            byte [] pbytes = new byte [ReplicatorSinkPool.PORT_BYTES];
+            buffer.flip();
+            buffer.get(pbytes);
+            buffer.clear();
+            neighbor.setTcpPort(ReplicatorFrameCodec.port(pbytes));
+            portReceived = true;
+            if (ReplicatorFrameCodec.offersCrc32c(pbytes)) {
+                format = null;
+                connection.write(ByteBuffer.wrap(new byte[]{ReplicatorFrameCodec.ACK}));
+            }
+
             if (neighbor.getSink() == null) {
                 log.info("Creating sink for {}", neighbor.getHostAddress());
                 replicatorSinkPool.createSink(neighbor);
-            }           
-            
-            if (connection.isConnected()) {
-                log.info("----- NETWORK INFO ----- Source {} is connected", inet_socket_address.getAddress().getHostAddress());
             }
-            
-            connection.setSoTimeout(0);  // infinite timeout - blocking read
+            log.info("----- NETWORK INFO ----- Source {} is connected", address.getAddress().getHostAddress());
+            return;
+        }
 
-            offset = 0;
-            while (!shutdown && !neighbor.isStopped()) {
+        if (!processFrames()) {
+            loop.pause(this, key);
+        }
+    }
 
-                while ( ((count = stream.read(data, offset, (TRANSACTION_PACKET_SIZE - offset + ReplicatorSinkProcessor.CRC32_BYTES))) != -1) 
-                        && (offset < (TRANSACTION_PACKET_SIZE + ReplicatorSinkProcessor.CRC32_BYTES))) {
-                    offset += count;
-                }
-              
-                if ( count == -1 || connection.isClosed() ) {
-                    break;
-                }
-                
-                offset = 0;
+    @Override
+    boolean resume() throws IOException {
+        if (!processFrames()) {
+            return false;
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        return true;
+    }
 
-                try {
-                    CRC32 crc32 = new CRC32();
-                    for (int i=0; i<TRANSACTION_PACKET_SIZE; i++) {
-                        crc32.update(data[i]);
-                    }
-                    String crc32_string = Long.toHexString(crc32.getValue());
-                    while (crc32_string.length() < ReplicatorSinkProcessor.CRC32_BYTES) crc32_string = "0"+crc32_string;
-                    byte [] crc32_bytes = crc32_string.getBytes();
-                    
-                    boolean crcError = false;
-                    for (int i=0; i<ReplicatorSinkProcessor.CRC32_BYTES; i++) {
-                        if (crc32_bytes[i] != data[TRANSACTION_PACKET_SIZE + i]) {
-                            crcError = true;
-                            break;
-                        }
-                    }
-                    if (!crcError) {
-                        node.preProcessReceivedData(data, address, "tcp");
-                    }
-                }
-                  catch (IllegalStateException e) {
-                    log.error("Queue is full for neighbor IP {}",inet_socket_address.getAddress().getHostAddress());
-                } catch (final RuntimeException e) {
-                    log.error("Transaction processing runtime exception ",e);
-                    neighbor.incInvalidTransactions();
-                } catch (Exception e) {
-                    log.info("Transaction processing exception " + e.getMessage());
-                    log.error("Transaction processing exception ",e);
+    /**
+     * Processes the frames received completely, as long as the node has room for their transactions.
+     * @return <tt>false</tt> if frames are left for when the node has room again
+     */
+    private boolean processFrames() throws IOException {
+        buffer.flip();
+        if (format == null && buffer.hasRemaining()) {
+            // a sink switching to v2 frames starts them with a hello, no legacy frame starts like that
+            if (buffer.get(buffer.position()) != MessageCodec.TYPE_HELLO) {
+                format = ReplicatorFrameCodec.Format.CRC32_HEX;
+            } else if (buffer.remaining() >= MessageCodec.helloSize()) {
+                buffer.position(buffer.position() + MessageCodec.helloSize());
+                format = ReplicatorFrameCodec.Format.CRC32C;
+            }
+            if (format != null) {
+                log.debug("Source {} uses {} frames", address.getAddress().getHostAddress(), format);
+            }
+        }
+        int length;
+        boolean room;
+        while ((room = node.hasReceiveRoom(neighbor)) && format != null && (length = nextFrame()) > 0) {
+            processFrame(length);
+        }
+        buffer.compact();
+        return room;
+    }
+
+    /**
+     * Reads the next frame's message into {@link #data} and its trailer into {@link #trailer}.
+     * @return the length of the message, or -1 if the frame has not been received completely yet
+     */
+    private int nextFrame() throws IOException {
+        if (buffer.remaining() < format.prefixBytes) {
+            return -1;
+        }
+        final int start = buffer.position();
+        buffer.get(prefix, 0, format.prefixBytes);
+        final int length = ReplicatorFrameCodec.decodePrefix(format, prefix);
+        if (length < 0) {
+            throw new IOException("invalid frame length");
+        }
+        if (buffer.remaining() < length + format.trailerBytes) {
+            buffer.position(start);
+            return -1;
+        }
+        buffer.get(data, 0, length);
+        buffer.get(trailer, 0, format.trailerBytes);
+        return length;
+    }
+
+    private void processFrame(int length) {
+        try {
+            if (codec.verify(format, data, length, trailer)) {
+                final PacketRecorder packetRecorder = node.getPacketRecorder();
+                if (packetRecorder != null) {
+                    packetRecorder.record(data, length, address, "tcp");
                 }
+                node.preProcessReceivedMessage(data, length, address, "tcp");
             }
-        } catch (IOException e) {
-            log.error("***** NETWORK ALERT ***** TCP connection reset by neighbor {}, source closed, {}", neighbor.getHostAddress(), e.getMessage());
+        } catch (final RuntimeException e) {
+            log.error("Transaction processing runtime exception ",e);
+            neighbor.incInvalidTransactions();
+        } catch (Exception e) {
+            log.error("Transaction processing exception ",e);
+        }
+    }
+
+    @Override
+    boolean isStale(long now) {
+        return !connection.isOpen() || neighbor.isStopped();
+    }
+
+    @Override
+    protected void close(IOException cause) {
+        if (cause != null && neighbor != null) {
+            log.error("***** NETWORK ALERT ***** TCP connection reset by neighbor {}, source closed, {}", neighbor.getHostAddress(), cause.getMessage());
+        }
+        if (buffer != null) {
+            loop.releaseBuffer(buffer);
+            buffer = null;
+        }
+        if (neighbor != null && neighbor.getSource() == connection) {
             replicatorSinkPool.shutdownSink(neighbor);
-        } finally {
-            if (neighbor != null) {
-                if (finallyClose) {
-                    replicatorSinkPool.shutdownSink(neighbor);
-                    neighbor.setSource(null);
-                    neighbor.setSink(null);
-                    //if (!neighbor.isFlagged() ) {
-                    //   Node.instance().getNeighbors().remove(neighbor);   
-                    //}
-                }                   
-            }
+            neighbor.setSource(null);
+            neighbor.setSink(null);
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // don't care.
         }
     }
 }
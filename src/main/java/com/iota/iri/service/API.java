@@ -11,6 +11,7 @@ import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -494,15 +495,16 @@ public class API {
     }
 
     private synchronized AbstractResponse getTrytesStatement(List<String> hashes) throws Exception {
-        final List<String> elements = new LinkedList<>();
+        if (hashes.size() > maxGetTrytes){
+            return ErrorResponse.create(overMaxErrorMessage);
+        }
+        final List<Hash> transactionHashes = new ArrayList<>(hashes.size());
         for (final String hash : hashes) {
-            final TransactionViewModel transactionViewModel = TransactionViewModel.fromHash(instance.tangle, new Hash(hash));
-            if (transactionViewModel != null) {
-                elements.add(Converter.trytes(transactionViewModel.trits()));
-            }
+            transactionHashes.add(new Hash(hash));
         }
-        if (elements.size() > maxGetTrytes){
-            return ErrorResponse.create(overMaxErrorMessage);
+        final List<String> elements = new LinkedList<>();
+        for (final TransactionViewModel transactionViewModel : TransactionViewModel.fromHashes(instance.tangle, transactionHashes)) {
+            elements.add(Converter.trytes(transactionViewModel.trits()));
         }
         return GetTrytesResponse.create(elements);
     }
@@ -729,7 +731,7 @@ public class API {
         if (request.containsKey("approvees")) {
             final HashSet<String> approvees = getParameterAsSet(request,"approvees",HASH_SIZE);
             for (final String approvee : approvees) {
-                approveeTransactions.addAll(TransactionViewModel.fromHash(instance.tangle, new Hash(approvee)).getApprovers(instance.tangle).getHashes());
+                approveeTransactions.addAll(ApproveeViewModel.load(instance.tangle, new Hash(approvee)).getHashes());
             }
             foundTransactions.addAll(approveeTransactions);
             containsKey = true;
@@ -14,6 +14,9 @@ public class GetNeighborsResponse extends AbstractResponse {
 
         private String address;
         public long numberOfAllTransactions, numberOfRandomTransactionRequests, numberOfNewTransactions, numberOfInvalidTransactions, numberOfSentTransactions;
+        public long numberOfSentRequests, numberOfAnsweredRequests, averageRequestLatency;
+        public long sendRate, sendLimit;
+        public double score, usefulTransactionRatio, invalidTransactionRatio;
         public String connectionType;
 
         public String getAddress() {
@@ -36,6 +39,38 @@ public class GetNeighborsResponse extends AbstractResponse {
             return numberOfSentTransactions;
         }
 
+        public long getNumberOfSentRequests() {
+            return numberOfSentRequests;
+        }
+
+        public long getNumberOfAnsweredRequests() {
+            return numberOfAnsweredRequests;
+        }
+
+        public long getAverageRequestLatency() {
+            return averageRequestLatency;
+        }
+
+        public long getSendRate() {
+            return sendRate;
+        }
+
+        public long getSendLimit() {
+            return sendLimit;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public double getUsefulTransactionRatio() {
+            return usefulTransactionRatio;
+        }
+
+        public double getInvalidTransactionRatio() {
+            return invalidTransactionRatio;
+        }
+
         public String getConnectionType() {
             return connectionType;
         }
@@ -49,6 +84,14 @@ public class GetNeighborsResponse extends AbstractResponse {
             ne.numberOfNewTransactions = n.getNumberOfNewTransactions();
             ne.numberOfRandomTransactionRequests = n.getNumberOfRandomTransactionRequests();
             ne.numberOfSentTransactions = n.getNumberOfSentTransactions();
+            ne.numberOfSentRequests = n.getNumberOfSentRequests();
+            ne.numberOfAnsweredRequests = n.getNumberOfAnsweredRequests();
+            ne.averageRequestLatency = n.getAverageRequestLatency();
+            ne.sendRate = n.getSendBucket().getRate();
+            ne.sendLimit = n.getSendBucket().getLimit();
+            ne.score = n.getScore().getScore();
+            ne.usefulTransactionRatio = n.getScore().getUsefulRatio();
+            ne.invalidTransactionRatio = n.getScore().getInvalidRatio();
             ne.connectionType = n.connectionType();
             return ne;
         }
@@ -0,0 +1,321 @@
+package com.iota.iri.storage;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Hashes;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces the stores and metadata updates of many transactions into one write of the persistence providers. The
+ * pending writes are committed once {@link #maxWrites} of them add up, or once the oldest waited {@link #maxDelay}
+ * milliseconds.
+ *
+ * Until they are committed, the {@link Tangle} answers reads of pending transactions and index entries from here, so
+ * callers keep seeing their own writes. Those reads don't lock, they look the writes up in concurrent maps that are
+ * cleared of a batch once it is committed. Writers wait while a full batch is pending behind one being committed.
+ *
+ * A batch that fails to be written is kept pending and written again ahead of the later writes, meanwhile new writes
+ * are refused with the failure.
+ */
+public class GroupCommitWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private static final long RETRY_DELAY = 1000L;
+
+    private final int maxWrites;
+    private final long maxDelay;
+
+    private final Object commitLock = new Object();
+    private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    // what reads see of the pending and the committing batch
+    private final Map<Indexable, PendingTransaction> transactions = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<Indexable, Set<Hash>>> indexes = new ConcurrentHashMap<>();
+
+    private Batch pending = new Batch();
+    private Batch committing;
+    private Exception failure;
+    private Tangle tangle;
+    private Thread commitThread;
+
+    /**
+     * @param maxWrites the stores and updates committed together at most
+     * @param maxDelay  the milliseconds a write may be pending at most
+     */
+    public GroupCommitWriter(int maxWrites, long maxDelay) {
+        this.maxWrites = maxWrites;
+        this.maxDelay = maxDelay;
+    }
+
+    void init(Tangle tangle) {
+        this.tangle = tangle;
+        commitThread = new Thread(spawnCommitThread(), "Group Commit Writer");
+        commitThread.start();
+    }
+
+    void shutdown() throws Exception {
+        shuttingDown.set(true);
+        synchronized (this) {
+            notifyAll();
+        }
+        if (commitThread != null) {
+            commitThread.join();
+        }
+        commit();
+    }
+
+    private Runnable spawnCommitThread() {
+        return () -> {
+            while (!shuttingDown.get()) {
+                try {
+                    synchronized (this) {
+                        long delay = 0;
+                        while (!shuttingDown.get() && (pending.isEmpty()
+                                || (pending.size() < maxWrites && (delay = pending.started + maxDelay - System.currentTimeMillis()) > 0))) {
+                            wait(pending.isEmpty() ? 0 : delay);
+                        }
+                    }
+                    commit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Error writing to persistence store.", e);
+                    try {
+                        synchronized (this) {
+                            wait(RETRY_DELAY);
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes everything pending to the persistence providers, on return all writes made before are committed.
+     *
+     * @throws Exception the failure of the write, after which everything is still pending
+     */
+    public void commit() throws Exception {
+        synchronized (commitLock) {
+            final Batch batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = committing = pending;
+                pending = new Batch();
+            }
+            try {
+                tangle.writeBatch(batch.models, batch.updates);
+            } catch (Exception e) {
+                synchronized (this) {
+                    batch.addAll(pending);
+                    pending = batch;
+                    committing = null;
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            }
+            commits.increment();
+            writes.add(batch.size());
+            //later writes of the same transactions and indexes stay visible
+            batch.transactions.forEach(transactions::remove);
+            batch.indexes.forEach((model, hashes) -> {
+                final Map<Indexable, Set<Hash>> modelIndexes = indexes.get(model);
+                hashes.forEach((index, set) -> modelIndexes.computeIfPresent(index, (k, pendingHashes) -> {
+                    pendingHashes.removeAll(set);
+                    return pendingHashes.isEmpty() ? null : pendingHashes;
+                }));
+            });
+            synchronized (this) {
+                committing = null;
+                failure = null;
+                notifyAll();
+            }
+        }
+    }
+
+    void save(List<Pair<Indexable, Persistable>> models) throws Exception {
+        final List<Pair<Indexable, Persistable>> copies = new ArrayList<>(models.size());
+        for (Pair<Indexable, Persistable> model : models) {
+            if (model.hi instanceof Transaction) {
+                final Transaction copy = TransactionCache.copy((Transaction) model.hi);
+                copy.parsed = true;
+                copies.add(new Pair<>(model.low, copy));
+            } else {
+                final Hashes copy = (Hashes) model.hi.getClass().newInstance();
+                copy.set = new LinkedHashSet<>(((Hashes) model.hi).set);
+                copies.add(new Pair<>(model.low, copy));
+            }
+        }
+        synchronized (this) {
+            awaitRoom();
+            checkFailure();
+            for (Pair<Indexable, Persistable> copy : copies) {
+                pending.models.add(copy);
+                if (copy.hi instanceof Transaction) {
+                    final PendingTransaction pendingTransaction = new PendingTransaction((Transaction) copy.hi, true);
+                    transactions.put(copy.low, pendingTransaction);
+                    pending.transactions.put(copy.low, pendingTransaction);
+                } else {
+                    final Set<Hash> hashes = ((Hashes) copy.hi).set;
+                    indexes.computeIfAbsent(copy.hi.getClass(), k -> new ConcurrentHashMap<>()).compute(copy.low, (k, pendingHashes) -> {
+                        pendingHashes = pendingHashes != null ? pendingHashes : ConcurrentHashMap.newKeySet();
+                        pendingHashes.addAll(hashes);
+                        return pendingHashes;
+                    });
+                    pending.indexes.computeIfAbsent(copy.hi.getClass(), k -> new HashMap<>())
+                            .computeIfAbsent(copy.low, k -> new HashSet<>()).addAll(hashes);
+                }
+            }
+            added();
+        }
+    }
+
+    void update(Indexable index, Transaction transaction, String item) throws Exception {
+        final Transaction copy = TransactionCache.copy(transaction);
+        copy.parsed = true;
+        synchronized (this) {
+            awaitRoom();
+            checkFailure();
+            pending.updates.add(new Pair<>(index, new Pair<>(copy, item)));
+            //an update alone doesn't make the transaction stored
+            final PendingTransaction stored = transactions.get(index);
+            final PendingTransaction pendingTransaction = new PendingTransaction(copy, stored != null && stored.saved);
+            transactions.put(index, pendingTransaction);
+            pending.transactions.put(index, pendingTransaction);
+            added();
+        }
+    }
+
+    private void awaitRoom() {
+        while (pending.size() >= maxWrites && committing != null && !shuttingDown.get()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        if (failure != null) {
+            throw new Exception("Pending writes could not be committed.", failure);
+        }
+    }
+
+    private void added() {
+        if (pending.started == 0) {
+            pending.started = System.currentTimeMillis();
+            notifyAll();
+        } else if (pending.size() >= maxWrites) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the latest pending state of the transaction, or <tt>null</tt> if neither a store nor an update is pending
+     */
+    PendingTransaction get(Indexable index) {
+        return transactions.isEmpty() ? null : transactions.get(index);
+    }
+
+    /**
+     * @return a copy of the pending hashes of an index, empty if none are pending
+     */
+    Set<Hash> hashes(Class<?> model, Indexable index) {
+        final Map<Indexable, Set<Hash>> modelIndexes = indexes.get(model);
+        final Set<Hash> hashes = modelIndexes == null ? null : modelIndexes.get(index);
+        return hashes == null ? Collections.emptySet() : new HashSet<>(hashes);
+    }
+
+    /**
+     * @return whether the store of the transaction or of hashes of the index is pending, updates don't count
+     */
+    boolean isPending(Class<?> model, Indexable index) {
+        if (model == Transaction.class) {
+            final PendingTransaction pendingTransaction = get(index);
+            return pendingTransaction != null && pendingTransaction.saved;
+        }
+        final Map<Indexable, Set<Hash>> modelIndexes = indexes.get(model);
+        return modelIndexes != null && modelIndexes.containsKey(index);
+    }
+
+    boolean isPending(Class<?> model) {
+        if (model == Transaction.class) {
+            return !transactions.isEmpty();
+        }
+        final Map<Indexable, Set<Hash>> modelIndexes = indexes.get(model);
+        return modelIndexes != null && !modelIndexes.isEmpty();
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    private static class Batch {
+        private final List<Pair<Indexable, Persistable>> models = new ArrayList<>();
+        private final List<Pair<Indexable, Pair<Persistable, String>>> updates = new ArrayList<>();
+        // the latest states of the transactions and the index entries of the batch, to clear the reads of once committed
+        private final Map<Indexable, PendingTransaction> transactions = new HashMap<>();
+        private final Map<Class<?>, Map<Indexable, Set<Hash>>> indexes = new HashMap<>();
+        private long started = 0;
+
+        int size() {
+            return models.size() + updates.size();
+        }
+
+        boolean isEmpty() {
+            return models.isEmpty() && updates.isEmpty();
+        }
+
+        // appends the writes of a later batch
+        void addAll(Batch later) {
+            models.addAll(later.models);
+            updates.addAll(later.updates);
+            transactions.putAll(later.transactions);
+            later.indexes.forEach((model, hashes) -> hashes.forEach((index, set) ->
+                    indexes.computeIfAbsent(model, k -> new HashMap<>()).computeIfAbsent(index, k -> new HashSet<>()).addAll(set)));
+            if (started == 0) {
+                started = later.started;
+            }
+        }
+    }
+
+    /**
+     * The latest pending state of a transaction, and whether it is stored or only updated.
+     */
+    static final class PendingTransaction {
+        private final Transaction transaction;
+        final boolean saved;
+
+        private PendingTransaction(Transaction transaction, boolean saved) {
+            this.transaction = transaction;
+            this.saved = saved;
+        }
+
+        Transaction copy() {
+            return TransactionCache.copy(transaction);
+        }
+    }
+}
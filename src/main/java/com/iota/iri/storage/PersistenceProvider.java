@@ -3,6 +3,7 @@ package com.iota.iri.storage;
 import com.iota.iri.model.*;
 import com.iota.iri.utils.Pair;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,10 +29,24 @@ public interface PersistenceProvider {
 
     Persistable get(Class<?> model, Indexable index) throws Exception;
 
+    /**
+     * @return the objects stored for each of the indexes, in the order of the indexes, or <tt>null</tt> if the
+     * provider doesn't store them
+     */
+    Map<Indexable, Persistable> multiGet(Class<?> model, Collection<? extends Indexable> indexes) throws Exception;
+
     boolean mayExist(Class<?> model, Indexable index) throws Exception;
 
     long count(Class<?> model) throws Exception;
 
+    /**
+     * @return up to <tt>limit</tt> of the hashes an index refers to, in order and following <tt>after</tt>, or
+     * <tt>null</tt> if the provider doesn't store the index
+     */
+    List<Hash> hashesAfter(Class<?> model, Indexable index, Hash after, int limit) throws Exception;
+
+    long countHashes(Class<?> model, Indexable index) throws Exception;
+
     Set<Indexable> keysStartingWith(Class<?> modelClass, byte[] value);
 
     Persistable seek(Class<?> model, byte[] key) throws Exception;
@@ -43,6 +58,12 @@ public interface PersistenceProvider {
 
     boolean saveBatch(List<Pair<Indexable, Persistable>> models) throws Exception;
 
+    /**
+     * Stores the models like {@link #saveBatch(List)} and then applies the updates in order, each naming its items
+     * like {@link #update(Persistable, Indexable, String)}, in a single write where the provider supports it.
+     */
+    boolean writeBatch(List<Pair<Indexable, Persistable>> models, List<Pair<Indexable, Pair<Persistable, String>>> updates) throws Exception;
+
     void clear(Class<?> column) throws Exception;
     void clearMetadata(Class<?> column) throws Exception;
 }
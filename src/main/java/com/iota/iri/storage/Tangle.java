@@ -2,6 +2,7 @@ package com.iota.iri.storage;
 
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Hashes;
+import com.iota.iri.model.Transaction;
 import com.iota.iri.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,36 +17,148 @@ public class Tangle {
     private static final Logger log = LoggerFactory.getLogger(Tangle.class);
 
     private final List<PersistenceProvider> persistenceProviders = new ArrayList<>();
+    private TransactionCache transactionCache;
+    private GroupCommitWriter groupCommitWriter;
 
     public void addPersistenceProvider(PersistenceProvider provider) {
         this.persistenceProviders.add(provider);
     }
 
+    public void setTransactionCache(TransactionCache transactionCache) {
+        this.transactionCache = transactionCache;
+    }
+
+    public TransactionCache getTransactionCache() {
+        return transactionCache;
+    }
+
+    public void setGroupCommitWriter(GroupCommitWriter groupCommitWriter) {
+        this.groupCommitWriter = groupCommitWriter;
+    }
+
+    public GroupCommitWriter getGroupCommitWriter() {
+        return groupCommitWriter;
+    }
+
     public void init() throws Exception {
         for(PersistenceProvider provider: this.persistenceProviders) {
             provider.init();
         }
+        if (groupCommitWriter != null) {
+            groupCommitWriter.init(this);
+        }
     }
 
 
     public void shutdown() throws Exception {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.shutdown();
+        }
         log.info("Shutting down Tangle Persistence Providers... ");
         this.persistenceProviders.forEach(PersistenceProvider::shutdown);
         this.persistenceProviders.clear();
     }
 
     public Persistable load(Class<?> model, Indexable index) throws Exception {
+            // a pending update applies to a transaction that is stored; pending writes are looked up before the
+            // providers, which already hold them once they are no longer pending
+            GroupCommitWriter.PendingTransaction pending = null;
+            Set<Hash> pendingHashes = Collections.emptySet();
+            if (groupCommitWriter != null && index != null) {
+                if (model == Transaction.class) {
+                    pending = groupCommitWriter.get(index);
+                    if (pending != null && pending.saved) {
+                        return pending.copy();
+                    }
+                } else {
+                    pendingHashes = groupCommitWriter.hashes(model, index);
+                }
+            }
+            final boolean cached = transactionCache != null && model == Transaction.class && index != null;
+            if (cached) {
+                Transaction transaction = transactionCache.get(index);
+                if (transaction != null) {
+                    return pending != null ? pending.copy() : transaction;
+                }
+            }
             Persistable out = null;
             for(PersistenceProvider provider: this.persistenceProviders) {
                 if((out = provider.get(model, index)) != null) {
                     break;
                 }
             }
+            if (cached && out != null) {
+                transactionCache.putIfAbsent(index, (Transaction) out);
+            }
+            if (pending != null && isStored(out)) {
+                return pending.copy();
+            }
+            if (out instanceof Hashes) {
+                ((Hashes) out).set.addAll(pendingHashes);
+            }
             return out;
     }
 
+    public Map<Indexable, Persistable> multiGet(Class<?> model, Collection<? extends Indexable> indexes) throws Exception {
+        final boolean cached = transactionCache != null && model == Transaction.class;
+        Map<Indexable, Persistable> out = new LinkedHashMap<>(indexes.size() * 2);
+        Map<Indexable, GroupCommitWriter.PendingTransaction> updates = new HashMap<>();
+        Map<Indexable, Set<Hash>> pendingHashes = new HashMap<>();
+        List<Indexable> missing = new ArrayList<>(indexes.size());
+        for(Indexable index: indexes) {
+            Transaction transaction = null;
+            if(groupCommitWriter != null && model == Transaction.class) {
+                final GroupCommitWriter.PendingTransaction pending = groupCommitWriter.get(index);
+                if(pending != null && pending.saved) {
+                    transaction = pending.copy();
+                } else if(pending != null) {
+                    updates.put(index, pending);
+                }
+            } else if(groupCommitWriter != null) {
+                pendingHashes.put(index, groupCommitWriter.hashes(model, index));
+            }
+            if(transaction == null && cached) {
+                transaction = transactionCache.get(index);
+                if(isStored(transaction) && updates.containsKey(index)) {
+                    transaction = updates.get(index).copy();
+                }
+            }
+            out.put(index, transaction);
+            if(transaction == null) {
+                missing.add(index);
+            }
+        }
+        if(missing.isEmpty()) {
+            return out;
+        }
+        Map<Indexable, Persistable> loaded = null;
+        for(PersistenceProvider provider: this.persistenceProviders) {
+            if((loaded = provider.multiGet(model, missing)) != null) {
+                break;
+            }
+        }
+        for(Indexable index: missing) {
+            Persistable object = loaded != null ? loaded.get(index) : load(model, index);
+            if(cached && loaded != null && object != null) {
+                transactionCache.putIfAbsent(index, (Transaction) object);
+            }
+            if(loaded != null && object instanceof Hashes) {
+                ((Hashes) object).set.addAll(pendingHashes.getOrDefault(index, Collections.emptySet()));
+            }
+            if(isStored(object) && updates.containsKey(index)) {
+                object = updates.get(index).copy();
+            }
+            out.put(index, object);
+        }
+        return out;
+    }
+
     public Boolean saveBatch(List<Pair<Indexable, Persistable>> models) throws Exception {
         boolean exists = false;
+        if (groupCommitWriter != null && models.stream().allMatch(model -> isGrouped(model.hi))) {
+            groupCommitWriter.save(models);
+            return true;
+        }
         for(PersistenceProvider provider: persistenceProviders) {
             if(exists) {
                 provider.saveBatch(models);
@@ -53,10 +166,15 @@ public class Tangle {
                 exists = provider.saveBatch(models);
             }
         }
+        cache(models);
         return exists;
     }
     public Boolean save(Persistable model, Indexable index) throws Exception {
             boolean exists = false;
+            if (groupCommitWriter != null && isGrouped(model)) {
+                groupCommitWriter.save(Collections.singletonList(new Pair<>(index, model)));
+                return true;
+            }
             for(PersistenceProvider provider: persistenceProviders) {
                 if(exists) {
                     provider.save(model, index);
@@ -64,16 +182,24 @@ public class Tangle {
                    exists = provider.save(model, index);
                 }
             }
+            if (transactionCache != null && model instanceof Transaction) {
+                transactionCache.put(index, (Transaction) model);
+            }
             return exists;
     }
 
     public void delete(Class<?> model, Indexable index) throws Exception {
+            commitPending(model);
             for(PersistenceProvider provider: persistenceProviders) {
                 provider.delete(model, index);
             }
+            if (transactionCache != null && model == Transaction.class) {
+                transactionCache.invalidate(index);
+            }
     }
 
     public Pair<Indexable, Persistable> getLatest(Class<?> model, Class<?> index) throws Exception {
+            commitPending(model);
             Pair<Indexable, Persistable> latest = null;
             for(PersistenceProvider provider: persistenceProviders) {
                 if (latest == null) {
@@ -85,6 +211,10 @@ public class Tangle {
 
     public Boolean update(Persistable model, Indexable index, String item) throws Exception {
             boolean success = false;
+            if (groupCommitWriter != null && model instanceof Transaction && ((Transaction) model).bytes != null) {
+                groupCommitWriter.update(index, (Transaction) model, item);
+                return success;
+            }
             for(PersistenceProvider provider: this.persistenceProviders) {
                 if(success) {
                     provider.update(model, index, item);
@@ -92,10 +222,15 @@ public class Tangle {
                     success = provider.update(model, index, item);
                 }
             }
+            if (transactionCache != null && model instanceof Transaction) {
+                transactionCache.put(index, (Transaction) model);
+            }
             return success;
     }
 
     public Set<Indexable> keysWithMissingReferences(Class<?> modelClass, Class<?> referencedClass) throws Exception {
+            commitPending(modelClass);
+            commitPending(referencedClass);
             Set<Indexable> output = null;
             for(PersistenceProvider provider: this.persistenceProviders) {
                 output = provider.keysWithMissingReferences(modelClass, referencedClass);
@@ -106,7 +241,8 @@ public class Tangle {
             return output;
     }
 
-    public Set<Indexable> keysStartingWith(Class<?> modelClass, byte[] value) {
+    public Set<Indexable> keysStartingWith(Class<?> modelClass, byte[] value) throws Exception {
+            commitPending(modelClass);
             Set<Indexable> output = null;
             for(PersistenceProvider provider: this.persistenceProviders) {
                 output = provider.keysStartingWith(modelClass, value);
@@ -118,6 +254,9 @@ public class Tangle {
     }
 
     public Boolean exists(Class<?> modelClass, Indexable hash) throws Exception {
+            if (groupCommitWriter != null && groupCommitWriter.isPending(modelClass, hash)) {
+                return true;
+            }
             for(PersistenceProvider provider: this.persistenceProviders) {
                 if(provider.exists(modelClass, hash)) return true;
             }
@@ -125,6 +264,9 @@ public class Tangle {
     }
 
     public Boolean maybeHas(Class<?> model, Indexable index) throws Exception {
+            if (groupCommitWriter != null && groupCommitWriter.isPending(model, index)) {
+                return true;
+            }
             for(PersistenceProvider provider: this.persistenceProviders) {
                 if(provider.mayExist(model, index)) return true;
             }
@@ -132,6 +274,7 @@ public class Tangle {
     }
 
     public Long getCount(Class<?> modelClass) throws Exception {
+            commitPending(modelClass);
             long value = 0;
             for(PersistenceProvider provider: this.persistenceProviders) {
                 if((value = provider.count(modelClass)) != 0) {
@@ -141,7 +284,30 @@ public class Tangle {
             return value;
     }
 
+    public List<Hash> hashesAfter(Class<?> model, Indexable index, Hash after, int limit) throws Exception {
+            commitPending(model, index);
+            List<Hash> hashes = null;
+            for(PersistenceProvider provider: this.persistenceProviders) {
+                if((hashes = provider.hashesAfter(model, index, after, limit)) != null) {
+                    break;
+                }
+            }
+            return hashes == null ? Collections.emptyList() : hashes;
+    }
+
+    public long countHashes(Class<?> model, Indexable index) throws Exception {
+            commitPending(model, index);
+            long value = 0;
+            for(PersistenceProvider provider: this.persistenceProviders) {
+                if((value = provider.countHashes(model, index)) != 0) {
+                    break;
+                }
+            }
+            return value;
+    }
+
     public Persistable find(Class<?> model, byte[] key) throws Exception {
+            commitPending(model);
             Persistable out = null;
             for (PersistenceProvider provider : this.persistenceProviders) {
                 if ((out = provider.seek(model, key)) != null) {
@@ -152,6 +318,7 @@ public class Tangle {
     }
 
     public Pair<Indexable, Persistable> next(Class<?> model, Indexable index) throws Exception {
+            commitPending(model);
             Pair<Indexable, Persistable> latest = null;
             for(PersistenceProvider provider: persistenceProviders) {
                 if(latest == null) {
@@ -162,6 +329,7 @@ public class Tangle {
     }
 
     public Pair<Indexable, Persistable> previous(Class<?> model, Indexable index) throws Exception {
+            commitPending(model);
             Pair<Indexable, Persistable> latest = null;
             for(PersistenceProvider provider: persistenceProviders) {
                 if(latest == null) {
@@ -172,6 +340,7 @@ public class Tangle {
     }
 
     public Pair<Indexable, Persistable > getFirst(Class<?> model, Class<?> index) throws Exception {
+            commitPending(model);
             Pair<Indexable, Persistable> latest = null;
             for(PersistenceProvider provider: persistenceProviders) {
                 if(latest == null) {
@@ -182,15 +351,73 @@ public class Tangle {
     }
 
     public void clearColumn(Class<?> column) throws Exception {
+        commitPending(column);
         for(PersistenceProvider provider: persistenceProviders) {
             provider.clear(column);
         }
+        if (transactionCache != null && column == Transaction.class) {
+            transactionCache.clear();
+        }
     }
 
     public void clearMetadata(Class<?> column) throws Exception {
+        commitPending(column);
         for(PersistenceProvider provider: persistenceProviders) {
             provider.clearMetadata(column);
         }
+        if (transactionCache != null && column == Transaction.class) {
+            transactionCache.clear();
+        }
+    }
+
+    /**
+     * Stores the models and applies the updates with every provider, as committed by the {@link GroupCommitWriter}.
+     * The transactions are cached once written.
+     */
+    void writeBatch(List<Pair<Indexable, Persistable>> models, List<Pair<Indexable, Pair<Persistable, String>>> updates) throws Exception {
+        for(PersistenceProvider provider: persistenceProviders) {
+            provider.writeBatch(models, updates);
+        }
+        cache(models);
+        if (transactionCache != null) {
+            for (Pair<Indexable, Pair<Persistable, String>> update : updates) {
+                if (update.hi.low instanceof Transaction) {
+                    transactionCache.put(update.low, (Transaction) update.hi.low);
+                }
+            }
+        }
+    }
+
+    private void cache(List<Pair<Indexable, Persistable>> models) {
+        if (transactionCache != null) {
+            for (Pair<Indexable, Persistable> entry : models) {
+                if (entry.hi instanceof Transaction) {
+                    transactionCache.put(entry.low, (Transaction) entry.hi);
+                }
+            }
+        }
+    }
+
+    // the providers answer a transaction that is not stored with an empty one
+    private static boolean isStored(Persistable transaction) {
+        return transaction != null && ((Transaction) transaction).bytes != null;
+    }
+
+    private static boolean isGrouped(Persistable model) {
+        return model instanceof Transaction || model instanceof Hashes;
+    }
+
+    // reads the pending writes can't answer see them committed first
+    private void commitPending(Class<?> model) throws Exception {
+        if (groupCommitWriter != null && groupCommitWriter.isPending(model)) {
+            groupCommitWriter.commit();
+        }
+    }
+
+    private void commitPending(Class<?> model, Indexable index) throws Exception {
+        if (groupCommitWriter != null && groupCommitWriter.isPending(model, index)) {
+            groupCommitWriter.commit();
+        }
     }
 
     /*
@@ -0,0 +1,205 @@
+package com.iota.iri.storage;
+
+import com.iota.iri.model.Transaction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps recently loaded and stored transactions in memory, so hot parts of the tangle are not read from the
+ * persistence providers over and over.
+ *
+ * Entries are spread over {@link #SEGMENTS} segments, each evicting its least recently used transactions once it
+ * holds more than its share of the byte budget. Callers get a copy of the cached transaction, as view models change
+ * their transaction's fields without storing them.
+ */
+public class TransactionCache {
+
+    static final int SEGMENTS = 16;
+    // key, map entry, the transaction object and its hashes besides the transaction bytes
+    static final int ENTRY_OVERHEAD = 800;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxBytes the approximate memory the cached transactions may take
+     */
+    public TransactionCache(long maxBytes) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return a copy of the cached transaction, or <tt>null</tt> if it is not cached
+     */
+    public Transaction get(Indexable index) {
+        final Transaction transaction = segment(index).get(index);
+        if (transaction == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(transaction);
+    }
+
+    /**
+     * Caches a transaction that was just stored, replacing what is cached for it.
+     */
+    public void put(Indexable index, Transaction transaction) {
+        if (transaction.bytes == null) {
+            invalidate(index);
+            return;
+        }
+        final Transaction copy = copy(transaction);
+        // its metadata was stored along, as loading it would tell
+        copy.parsed = true;
+        segment(index).put(index, copy, true);
+    }
+
+    /**
+     * Caches a transaction that was just loaded, unless it was stored meanwhile and the load may be stale.
+     */
+    public void putIfAbsent(Indexable index, Transaction transaction) {
+        if (transaction.bytes != null) {
+            segment(index).put(index, copy(transaction), false);
+        }
+    }
+
+    public void invalidate(Indexable index) {
+        segment(index).remove(index);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getBytes();
+        }
+        return bytes;
+    }
+
+    private Segment segment(Indexable index) {
+        final int h = index.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    static long weight(Transaction transaction) {
+        return transaction.bytes.length + transaction.sender.length() * 2 + ENTRY_OVERHEAD;
+    }
+
+    static Transaction copy(Transaction transaction) {
+        final Transaction copy = new Transaction();
+        copy.bytes = transaction.bytes;
+        copy.address = transaction.address;
+        copy.bundle = transaction.bundle;
+        copy.trunk = transaction.trunk;
+        copy.branch = transaction.branch;
+        copy.obsoleteTag = transaction.obsoleteTag;
+        copy.value = transaction.value;
+        copy.currentIndex = transaction.currentIndex;
+        copy.lastIndex = transaction.lastIndex;
+        copy.timestamp = transaction.timestamp;
+        copy.tag = transaction.tag;
+        copy.attachmentTimestamp = transaction.attachmentTimestamp;
+        copy.attachmentTimestampLowerBound = transaction.attachmentTimestampLowerBound;
+        copy.attachmentTimestampUpperBound = transaction.attachmentTimestampUpperBound;
+        copy.validity = transaction.validity;
+        copy.type = transaction.type;
+        copy.arrivalTime = transaction.arrivalTime;
+        copy.parsed = transaction.parsed;
+        copy.solid = transaction.solid;
+        copy.height = transaction.height;
+        copy.sender = transaction.sender;
+        copy.snapshot = transaction.snapshot;
+        return copy;
+    }
+
+    private static class Segment {
+
+        private final long maxBytes;
+        private final LinkedHashMap<Indexable, Transaction> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes = 0;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Transaction get(Indexable index) {
+            return entries.get(index);
+        }
+
+        synchronized void put(Indexable index, Transaction transaction, boolean replace) {
+            if (!replace && entries.containsKey(index)) {
+                return;
+            }
+            final long weight = weight(transaction);
+            if (weight > maxBytes) {
+                remove(index);
+                return;
+            }
+            final Transaction previous = entries.put(index, transaction);
+            if (previous != null) {
+                bytes -= weight(previous);
+            }
+            bytes += weight;
+            final Iterator<Map.Entry<Indexable, Transaction>> iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                bytes -= weight(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+
+        synchronized void remove(Indexable index) {
+            final Transaction previous = entries.remove(index);
+            if (previous != null) {
+                bytes -= weight(previous);
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+    }
+}
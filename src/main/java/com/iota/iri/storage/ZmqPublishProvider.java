@@ -1,6 +1,8 @@
 package com.iota.iri.storage;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -98,6 +100,11 @@ public class ZmqPublishProvider implements PersistenceProvider {
         return null;
     }
 
+    @Override
+    public Map<Indexable, Persistable> multiGet(Class<?> model, Collection<? extends Indexable> indexes) throws Exception {
+        return null;
+    }
+
     @Override
     public boolean mayExist(Class<?> model, Indexable index) throws Exception {
         return false;
@@ -108,6 +115,16 @@ public class ZmqPublishProvider implements PersistenceProvider {
         return 0;
     }
 
+    @Override
+    public List<Hash> hashesAfter(Class<?> model, Indexable index, Hash after, int limit) throws Exception {
+        return null;
+    }
+
+    @Override
+    public long countHashes(Class<?> model, Indexable index) throws Exception {
+        return 0;
+    }
+
     @Override
     public Set<Indexable> keysStartingWith(Class<?> modelClass, byte[] value) {
         return null;
@@ -138,6 +155,15 @@ public class ZmqPublishProvider implements PersistenceProvider {
         return false;
     }
 
+    @Override
+    public boolean writeBatch(List<Pair<Indexable, Persistable>> models, List<Pair<Indexable, Pair<Persistable, String>>> updates) throws Exception {
+        saveBatch(models);
+        for(Pair<Indexable, Pair<Persistable, String>> update: updates) {
+            update(update.hi.low, update.low, update.hi.hi);
+        }
+        return false;
+    }
+
     @Override
     public void clear(Class<?> column) throws Exception {
 
@@ -22,6 +22,14 @@ import java.util.stream.Collectors;
  */
 public class RocksDBPersistenceProvider implements PersistenceProvider {
 
+    /**
+     * How writes reach the write ahead log: not at all, written but left to the OS to sync, or synced before a write
+     * returns. Losing the log loses the writes since the last memtable flush on a crash.
+     */
+    public enum WalPolicy {
+        NONE, ASYNC, SYNC
+    }
+
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(RocksDBPersistenceProvider.class);
     private static final int BLOOM_FILTER_BITS_PER_KEY = 10;
 
@@ -34,12 +42,28 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             "address",
             "approvee",
             "bundle",
-            "tag"
+            "tag",
+            "transaction-flags",
+            "address-index",
+            "approvee-index",
+            "bundle-index",
+            "tag-index"
     );
+    // keyed by the indexed hash followed by each transaction hash it refers to, with empty values
+    private static final Set<String> INDEX_COLUMN_FAMILIES = new HashSet<>(Arrays.asList(
+            "address-index", "approvee-index", "bundle-index", "tag-index"));
+    private static final int INDEX_PREFIX_SIZE = Hash.SIZE_IN_BYTES;
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+    private static final int MULTI_GET_BATCH_SIZE = 1000;
+    private static final byte[] EMPTY = new byte[0];
+    // transaction fields updated in place of the whole metadata, see Transaction#flags()
+    private static final Set<String> TRANSACTION_FLAGS = new HashSet<>(Arrays.asList(
+            "validity", "arrivalTime", "height", "solid", "snapshot", "sender"));
     private List<ColumnFamilyHandle> columnFamilyHandles = new ArrayList<>();
     private final String dbPath;
     private final String logPath;
     private final int cacheSize;
+    private final WalPolicy walPolicy;
 
     private ColumnFamilyHandle transactionHandle;
     private ColumnFamilyHandle transactionMetadataHandle;
@@ -49,23 +73,38 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
     private ColumnFamilyHandle approveeHandle;
     private ColumnFamilyHandle bundleHandle;
     private ColumnFamilyHandle tagHandle;
+    private ColumnFamilyHandle transactionFlagsHandle;
+    private ColumnFamilyHandle addressIndexHandle;
+    private ColumnFamilyHandle approveeIndexHandle;
+    private ColumnFamilyHandle bundleIndexHandle;
+    private ColumnFamilyHandle tagIndexHandle;
 
     private List<ColumnFamilyHandle> transactionGetList;
 
     private final AtomicReference<Map<Class<?>, ColumnFamilyHandle>> classTreeMap = new AtomicReference<>();
     private final AtomicReference<Map<Class<?>, ColumnFamilyHandle>> metadataReference = new AtomicReference<>();
+    // the merged, comma delimited hash lists indexes were stored as before, only read to migrate them
+    private final AtomicReference<Map<Class<?>, ColumnFamilyHandle>> legacyIndexReference = new AtomicReference<>();
 
     private final SecureRandom seed = new SecureRandom();
 
     private RocksDB db;
     private DBOptions options;
     private BloomFilter bloomFilter;
+    private ReadOptions prefixReadOptions;
+    private ReadOptions totalOrderReadOptions;
+    private WriteOptions writeOptions;
     private boolean available;
 
     public RocksDBPersistenceProvider(String dbPath, String logPath, int cacheSize) {
+        this(dbPath, logPath, cacheSize, WalPolicy.ASYNC);
+    }
+
+    public RocksDBPersistenceProvider(String dbPath, String logPath, int cacheSize, WalPolicy walPolicy) {
         this.dbPath = dbPath;
         this.logPath = logPath;
         this.cacheSize = cacheSize;
+        this.walPolicy = walPolicy;
 
     }
 
@@ -74,6 +113,9 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
         log.info("Initializing Database Backend... ");
         initDB(dbPath, logPath);
         initClassTreeMap();
+        for (Class<?> model : legacyIndexReference.get().keySet()) {
+            migrateIndex(model);
+        }
         available = true;
         log.info("RocksDB persistence provider initialized.");
     }
@@ -89,12 +131,19 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
         classMap.put(Transaction.class, transactionHandle);
         classMap.put(Milestone.class, milestoneHandle);
         classMap.put(StateDiff.class, stateDiffHandle);
-        classMap.put(Address.class, addressHandle);
-        classMap.put(Approvee.class, approveeHandle);
-        classMap.put(Bundle.class, bundleHandle);
-        classMap.put(Tag.class, tagHandle);
+        classMap.put(Address.class, addressIndexHandle);
+        classMap.put(Approvee.class, approveeIndexHandle);
+        classMap.put(Bundle.class, bundleIndexHandle);
+        classMap.put(Tag.class, tagIndexHandle);
         classTreeMap.set(classMap);
 
+        Map<Class<?>, ColumnFamilyHandle> legacyIndexMap = new HashMap<>();
+        legacyIndexMap.put(Address.class, addressHandle);
+        legacyIndexMap.put(Approvee.class, approveeHandle);
+        legacyIndexMap.put(Bundle.class, bundleHandle);
+        legacyIndexMap.put(Tag.class, tagHandle);
+        legacyIndexReference.set(legacyIndexMap);
+
         Map<Class<?>, ColumnFamilyHandle> metadataHashMap = new HashMap<>();
         metadataHashMap.put(Transaction.class, transactionMetadataHandle);
         metadataReference.set(metadataHashMap);
@@ -115,20 +164,35 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
         if (db != null) db.close();
         options.close();
         bloomFilter.close();
+        prefixReadOptions.close();
+        totalOrderReadOptions.close();
+        writeOptions.close();
     }
 
     @Override
     public boolean save(Persistable thing, Indexable index) throws Exception {
         ColumnFamilyHandle handle = classTreeMap.get().get(thing.getClass());
+        if(thing instanceof Hashes) {
+            WriteBatch writeBatch = new WriteBatch();
+            for(Hash hash: ((Hashes) thing).set) {
+                writeBatch.put(handle, indexKey(index.bytes(), hash.bytes()), EMPTY);
+            }
+            db.write(writeOptions, writeBatch);
+            writeBatch.close();
+            return true;
+        }
         /*
         if( !db.keyMayExist(handle, index.bytes(), new StringBuffer()) ) {
             counts.put(thing.getClass(), counts.get(thing.getClass()) + 1);
         }
         */
-        db.put(handle, index.bytes(), thing.bytes());
+        db.put(handle, writeOptions, index.bytes(), thing.bytes());
         ColumnFamilyHandle referenceHandle = metadataReference.get().get(thing.getClass());
         if(referenceHandle != null) {
-            db.put(referenceHandle, index.bytes(), thing.metadata());
+            db.put(referenceHandle, writeOptions, index.bytes(), thing.metadata());
+        }
+        if(thing instanceof Transaction) {
+            db.put(transactionFlagsHandle, writeOptions, index.bytes(), ((Transaction) thing).flags());
         }
         return true;
     }
@@ -140,17 +204,43 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             counts.put(model, counts.get(model) + 1);
         }
         */
-        db.delete(classTreeMap.get().get(model), index.bytes());
+        if(Hashes.class.isAssignableFrom(model)) {
+            deleteIndex(classTreeMap.get().get(model), index.bytes());
+            return;
+        }
+        db.delete(classTreeMap.get().get(model), writeOptions, index.bytes());
+    }
+
+    private void deleteIndex(ColumnFamilyHandle handle, byte[] prefix) throws RocksDBException {
+        WriteBatch writeBatch = new WriteBatch();
+        RocksIterator iterator = db.newIterator(handle, prefixReadOptions);
+        try {
+            for(iterator.seek(prefix); iterator.isValid() && startsWith(iterator.key(), prefix); iterator.next()) {
+                writeBatch.remove(handle, iterator.key());
+            }
+            db.write(writeOptions, writeBatch);
+        } finally {
+            iterator.close();
+            writeBatch.close();
+        }
     }
 
     @Override
     public boolean exists(Class<?> model, Indexable key) throws Exception {
         ColumnFamilyHandle handle = classTreeMap.get().get(model);
+        if(handle != null && Hashes.class.isAssignableFrom(model)) {
+            return !indexedHashes(handle, key.bytes(), null, 1).isEmpty();
+        }
         return handle != null && db.get(handle, key.bytes()) != null;
     }
 
     @Override
     public Pair<Indexable, Persistable> latest(Class<?> model, Class<?> indexModel) throws Exception {
+        if(Hashes.class.isAssignableFrom(model)) {
+            RocksIterator iterator = db.newIterator(classTreeMap.get().get(model), totalOrderReadOptions);
+            iterator.seekToLast();
+            return indexPair(model, (Indexable) indexModel.newInstance(), iterator);
+        }
         final Indexable index;
         final Persistable object;
         RocksIterator iterator = db.newIterator(classTreeMap.get().get(model));
@@ -160,10 +250,7 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             index = (Indexable) indexModel.newInstance();
             index.read(iterator.key());
             object.read(iterator.value());
-            ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
-            if(referenceHandle != null) {
-                object.readMetadata(db.get(referenceHandle, iterator.key()));
-            }
+            readMetadata(model, object, iterator.key());
         } else {
             object = null;
             index = null;
@@ -176,11 +263,20 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
     public Set<Indexable> keysWithMissingReferences(Class<?> model, Class<?> other) throws Exception {
         ColumnFamilyHandle handle = classTreeMap.get().get(model);
         ColumnFamilyHandle otherHandle = classTreeMap.get().get(other);
-        RocksIterator iterator = db.newIterator(handle);
+        RocksIterator iterator = db.newIterator(handle, totalOrderReadOptions);
         Set<Indexable> indexables = new HashSet<>();
+        byte[] previous = null;
         for(iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
-            if(db.get(otherHandle, iterator.key()) == null) {
-                indexables.add(new Hash(iterator.key()));
+            byte[] key = iterator.key();
+            if(Hashes.class.isAssignableFrom(model)) {
+                // every indexed hash is checked once, not once per transaction it refers to
+                if(previous != null && startsWith(key, previous)) {
+                    continue;
+                }
+                key = previous = Arrays.copyOf(key, INDEX_PREFIX_SIZE);
+            }
+            if(db.get(otherHandle, key) == null) {
+                indexables.add(new Hash(key));
             }
         }
         iterator.close();
@@ -190,17 +286,228 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
     @Override
     public Persistable get(Class<?> model, Indexable index) throws Exception {
         Persistable object = (Persistable) model.newInstance();
+        if(object instanceof Hashes) {
+            if(index != null) {
+                ((Hashes) object).set = new LinkedHashSet<>(
+                        indexedHashes(classTreeMap.get().get(model), index.bytes(), null, Integer.MAX_VALUE));
+            }
+            return object;
+        }
         object.read(db.get(classTreeMap.get().get(model), index == null? new byte[0]: index.bytes()));
+        readMetadata(model, object, index == null? new byte[0]: index.bytes());
+        return object;
+    }
+
+
+    @Override
+    public Map<Indexable, Persistable> multiGet(Class<?> model, Collection<? extends Indexable> indexes) throws Exception {
+        Map<Indexable, Persistable> objects = new LinkedHashMap<>(indexes.size() * 2);
+        if(Hashes.class.isAssignableFrom(model)) {
+            for(Indexable index: indexes) {
+                objects.put(index, get(model, index));
+            }
+            return objects;
+        }
+        List<Indexable> batch = new ArrayList<>(MULTI_GET_BATCH_SIZE);
+        for(Indexable index: indexes) {
+            batch.add(index);
+            if(batch.size() == MULTI_GET_BATCH_SIZE) {
+                multiGetBatch(model, batch, objects);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()) {
+            multiGetBatch(model, batch, objects);
+        }
+        return objects;
+    }
+
+    /**
+     * Reads the column families an object is stored in for a batch of keys with one multiGet.
+     * RocksDB returns the values keyed by the key arrays passed in, so each column family is given its own copy.
+     */
+    private void multiGetBatch(Class<?> model, List<Indexable> batch, Map<Indexable, Persistable> objects) throws Exception {
+        List<ColumnFamilyHandle> modelHandles = new ArrayList<>(3);
+        modelHandles.add(classTreeMap.get().get(model));
         ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
         if(referenceHandle != null) {
-            object.readMetadata(db.get(referenceHandle, index == null? new byte[0]: index.bytes()));
+            modelHandles.add(referenceHandle);
+        }
+        if(model == Transaction.class) {
+            modelHandles.add(transactionFlagsHandle);
+        }
+        List<ColumnFamilyHandle> handles = new ArrayList<>(batch.size() * modelHandles.size());
+        List<byte[]> keys = new ArrayList<>(batch.size() * modelHandles.size());
+        for(Indexable index: batch) {
+            byte[] key = index.bytes();
+            for(ColumnFamilyHandle handle: modelHandles) {
+                handles.add(handle);
+                keys.add(Arrays.copyOf(key, key.length));
+            }
+        }
+        Map<byte[], byte[]> values = db.multiGet(handles, keys);
+        int i = 0;
+        for(Indexable index: batch) {
+            Persistable object = (Persistable) model.newInstance();
+            object.read(values.get(keys.get(i++)));
+            if(referenceHandle != null) {
+                object.readMetadata(values.get(keys.get(i++)));
+            }
+            if(object instanceof Transaction) {
+                ((Transaction) object).readFlags(values.get(keys.get(i++)));
+            }
+            objects.put(index, object);
+        }
+    }
+
+    private void readMetadata(Class<?> model, Persistable object, byte[] key) throws RocksDBException {
+        ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
+        if(referenceHandle != null) {
+            object.readMetadata(db.get(referenceHandle, key));
+        }
+        if(object instanceof Transaction) {
+            // transactions stored before the flags had their own column only have them in the metadata
+            ((Transaction) object).readFlags(db.get(transactionFlagsHandle, key));
         }
-        return object;
     }
 
+    @Override
+    public List<Hash> hashesAfter(Class<?> model, Indexable index, Hash after, int limit) throws Exception {
+        ColumnFamilyHandle handle = classTreeMap.get().get(model);
+        if(handle == null || !Hashes.class.isAssignableFrom(model)) {
+            return null;
+        }
+        return indexedHashes(handle, index.bytes(), after, limit);
+    }
+
+    @Override
+    public long countHashes(Class<?> model, Indexable index) throws Exception {
+        ColumnFamilyHandle handle = classTreeMap.get().get(model);
+        if(handle == null || !Hashes.class.isAssignableFrom(model)) {
+            return 0;
+        }
+        byte[] prefix = index.bytes();
+        long count = 0;
+        RocksIterator iterator = db.newIterator(handle, prefixReadOptions);
+        try {
+            for(iterator.seek(prefix); iterator.isValid() && startsWith(iterator.key(), prefix); iterator.next()) {
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return count;
+    }
+
+    /**
+     * @return up to <tt>limit</tt> hashes stored under <tt>prefix</tt>, in order, starting after <tt>after</tt> or with
+     * the first one if it is <tt>null</tt>
+     */
+    private List<Hash> indexedHashes(ColumnFamilyHandle handle, byte[] prefix, Hash after, int limit) {
+        List<Hash> hashes = new ArrayList<>();
+        RocksIterator iterator = db.newIterator(handle, prefixReadOptions);
+        try {
+            iterator.seek(after == null ? prefix : indexKey(prefix, after.bytes()));
+            for(; iterator.isValid() && hashes.size() < limit; iterator.next()) {
+                byte[] key = iterator.key();
+                if(!startsWith(key, prefix)) {
+                    break;
+                }
+                Hash hash = new Hash(key, prefix.length, Hash.SIZE_IN_BYTES);
+                if(after == null || !hash.equals(after)) {
+                    hashes.add(hash);
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        return hashes;
+    }
+
+    private Pair<Indexable, Persistable> indexPair(Class<?> model, Indexable indexable, RocksIterator iterator) throws Exception {
+        try {
+            if(!iterator.isValid()) {
+                return new Pair<>(null, null);
+            }
+            indexable.read(Arrays.copyOf(iterator.key(), INDEX_PREFIX_SIZE));
+        } finally {
+            iterator.close();
+        }
+        return new Pair<>(indexable, get(model, indexable));
+    }
+
+    /**
+     * Moves the hashes of an index from the merged hash lists of its legacy column family to the prefix keyed one.
+     * Each batch of keys is added and removed at once, so an interrupted migration continues on the next start.
+     */
+    private void migrateIndex(Class<?> model) throws RocksDBException {
+        ColumnFamilyHandle legacyHandle = legacyIndexReference.get().get(model);
+        ColumnFamilyHandle handle = classTreeMap.get().get(model);
+        WriteBatch writeBatch = new WriteBatch();
+        WriteOptions writeOptions = new WriteOptions();
+        RocksIterator iterator = db.newIterator(legacyHandle);
+        long keys = 0;
+        try {
+            for(iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                Hashes hashes = new Hashes();
+                hashes.read(iterator.value());
+                for(Hash hash: hashes.set) {
+                    writeBatch.put(handle, indexKey(iterator.key(), hash.bytes()), EMPTY);
+                }
+                writeBatch.remove(legacyHandle, iterator.key());
+                if(++keys % MIGRATION_BATCH_SIZE == 0) {
+                    db.write(writeOptions, writeBatch);
+                    writeBatch.clear();
+                    log.info("Migrated {} {} keys to the prefix index", keys, model.getSimpleName());
+                }
+            }
+            db.write(writeOptions, writeBatch);
+        } finally {
+            iterator.close();
+            writeBatch.close();
+            writeOptions.close();
+        }
+        if(keys > 0) {
+            log.info("Migrated {} {} keys to the prefix index", keys, model.getSimpleName());
+        }
+    }
+
+    private static byte[] indexKey(byte[] prefix, byte[] hash) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + hash.length);
+        System.arraycopy(hash, 0, key, prefix.length, hash.length);
+        return key;
+    }
+
+    /**
+     * @return the smallest key greater than all keys starting with <tt>prefix</tt>, or <tt>null</tt> if there is none
+     */
+    private static byte[] nextPrefix(byte[] prefix) {
+        byte[] next = Arrays.copyOf(prefix, prefix.length);
+        for(int i = next.length - 1; i >= 0; i--) {
+            if(++next[i] != 0) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if(key.length < prefix.length) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++) {
+            if(key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     @Override
     public boolean mayExist(Class<?> model, Indexable index) throws Exception {
+        if(Hashes.class.isAssignableFrom(model)) {
+            return exists(model, index);
+        }
         ColumnFamilyHandle handle = classTreeMap.get().get(model);
         return db.keyMayExist(handle, index.bytes(), new StringBuilder());
     }
@@ -253,6 +560,15 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
 
     @Override
     public Pair<Indexable, Persistable> next(Class<?> model, Indexable index) throws Exception {
+        if(Hashes.class.isAssignableFrom(model)) {
+            byte[] nextPrefix = nextPrefix(index.bytes());
+            if(nextPrefix == null) {
+                return new Pair<>(null, null);
+            }
+            RocksIterator iterator = db.newIterator(classTreeMap.get().get(model), totalOrderReadOptions);
+            iterator.seek(nextPrefix);
+            return indexPair(model, index.getClass().newInstance(), iterator);
+        }
         RocksIterator iterator = db.newIterator(classTreeMap.get().get(model));
         final Persistable object;
         final Indexable indexable;
@@ -263,10 +579,7 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             indexable = index.getClass().newInstance();
             indexable.read(iterator.key());
             object.read(iterator.value());
-            ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
-            if(referenceHandle != null) {
-                object.readMetadata(db.get(referenceHandle, iterator.key()));
-            }
+            readMetadata(model, object, iterator.key());
         } else {
             object = null;
             indexable = null;
@@ -277,6 +590,16 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
 
     @Override
     public Pair<Indexable, Persistable> previous(Class<?> model, Indexable index) throws Exception {
+        if(Hashes.class.isAssignableFrom(model)) {
+            RocksIterator iterator = db.newIterator(classTreeMap.get().get(model), totalOrderReadOptions);
+            iterator.seek(index.bytes());
+            if(iterator.isValid()) {
+                iterator.prev();
+            } else {
+                iterator.seekToLast();
+            }
+            return indexPair(model, index.getClass().newInstance(), iterator);
+        }
         RocksIterator iterator = db.newIterator(classTreeMap.get().get(model));
         final Persistable object;
         final Indexable indexable;
@@ -287,10 +610,7 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             object.read(iterator.value());
             indexable = (Indexable) index.getClass().newInstance();
             indexable.read(iterator.key());
-            ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
-            if(referenceHandle != null) {
-                object.readMetadata(db.get(referenceHandle, iterator.key()));
-            }
+            readMetadata(model, object, iterator.key());
         } else {
             object = null;
             indexable = null;
@@ -301,6 +621,11 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
 
     @Override
     public Pair<Indexable, Persistable> first(Class<?> model, Class<?> index) throws Exception {
+        if(Hashes.class.isAssignableFrom(model)) {
+            RocksIterator iterator = db.newIterator(classTreeMap.get().get(model), totalOrderReadOptions);
+            iterator.seekToFirst();
+            return indexPair(model, (Indexable) index.newInstance(), iterator);
+        }
         RocksIterator iterator = db.newIterator(classTreeMap.get().get(model));
         final Persistable object;
         final Indexable indexable;
@@ -310,10 +635,7 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
             object.read(iterator.value());
             indexable = (Indexable) index.newInstance();
             indexable.read(iterator.key());
-            ColumnFamilyHandle referenceHandle = metadataReference.get().get(model);
-            if(referenceHandle != null) {
-                object.readMetadata(db.get(referenceHandle, iterator.key()));
-            }
+            readMetadata(model, object, iterator.key());
         } else {
             object = null;
             indexable = null;
@@ -324,47 +646,92 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
 
     public boolean merge(Persistable model, Indexable index) throws Exception {
         boolean exists = mayExist(model.getClass(), index);
-        db.merge(classTreeMap.get().get(model.getClass()), index.bytes(), model.bytes());
+        if(model instanceof Hashes) {
+            save(model, index);
+            return exists;
+        }
+        db.merge(classTreeMap.get().get(model.getClass()), writeOptions, index.bytes(), model.bytes());
         return exists;
     }
 
     @Override
     public boolean saveBatch(List<Pair<Indexable, Persistable>> models) throws Exception {
+        return writeBatch(models, Collections.emptyList());
+    }
+
+    @Override
+    public boolean writeBatch(List<Pair<Indexable, Persistable>> models, List<Pair<Indexable, Pair<Persistable, String>>> updates) throws Exception {
         WriteBatch writeBatch = new WriteBatch();
-        WriteOptions writeOptions = new WriteOptions();
-        for(Pair<Indexable, Persistable> entry: models) {
-            Indexable key = entry.low;
-            Persistable value = entry.hi;
-            ColumnFamilyHandle handle = classTreeMap.get().get(value.getClass());
-            ColumnFamilyHandle referenceHandle = metadataReference.get().get(value.getClass());
-            if(value.merge()) {
-                writeBatch.merge(handle, key.bytes(), value.bytes());
-            } else {
-                writeBatch.put(handle, key.bytes(), value.bytes());
+        try {
+            for(Pair<Indexable, Persistable> entry: models) {
+                addSave(writeBatch, entry.low, entry.hi);
             }
-            if(referenceHandle != null) {
-                writeBatch.put(referenceHandle, key.bytes(), value.metadata());
+            for(Pair<Indexable, Pair<Persistable, String>> entry: updates) {
+                addUpdate(writeBatch, entry.hi.low, entry.low, entry.hi.hi);
             }
+            db.write(writeOptions, writeBatch);
+        } finally {
+            writeBatch.close();
         }
-        db.write(writeOptions, writeBatch);
-        writeBatch.close();
-        writeOptions.close();
         return true;
     }
 
+    private void addSave(WriteBatch writeBatch, Indexable key, Persistable value) throws Exception {
+        ColumnFamilyHandle handle = classTreeMap.get().get(value.getClass());
+        ColumnFamilyHandle referenceHandle = metadataReference.get().get(value.getClass());
+        if(value instanceof Hashes) {
+            for(Hash hash: ((Hashes) value).set) {
+                writeBatch.put(handle, indexKey(key.bytes(), hash.bytes()), EMPTY);
+            }
+            return;
+        }
+        if(value.merge()) {
+            writeBatch.merge(handle, key.bytes(), value.bytes());
+        } else {
+            writeBatch.put(handle, key.bytes(), value.bytes());
+        }
+        if(referenceHandle != null) {
+            writeBatch.put(referenceHandle, key.bytes(), value.metadata());
+        }
+        if(value instanceof Transaction) {
+            writeBatch.put(transactionFlagsHandle, key.bytes(), ((Transaction) value).flags());
+        }
+    }
+
+    private void addUpdate(WriteBatch writeBatch, Persistable thing, Indexable index, String item) throws Exception {
+        if(thing instanceof Transaction && item != null
+                && Arrays.stream(item.split("\\|")).allMatch(TRANSACTION_FLAGS::contains)) {
+            writeBatch.put(transactionFlagsHandle, index.bytes(), ((Transaction) thing).flags());
+            return;
+        }
+        ColumnFamilyHandle referenceHandle = metadataReference.get().get(thing.getClass());
+        if(referenceHandle != null) {
+            writeBatch.put(referenceHandle, index.bytes(), thing.metadata());
+            if(thing instanceof Transaction) {
+                writeBatch.put(transactionFlagsHandle, index.bytes(), ((Transaction) thing).flags());
+            }
+        }
+    }
+
     @Override
     public void clear(Class<?> column) throws Exception {
         flushHandle(classTreeMap.get().get(column));
+        if(legacyIndexReference.get().containsKey(column)) {
+            flushHandle(legacyIndexReference.get().get(column));
+        }
     }
 
     @Override
     public void clearMetadata(Class<?> column) throws Exception {
         flushHandle(metadataReference.get().get(column));
+        if(column == Transaction.class) {
+            flushHandle(transactionFlagsHandle);
+        }
     }
 
     private void flushHandle(ColumnFamilyHandle handle) throws RocksDBException {
         List<byte[]> itemsToDelete = new ArrayList<>();
-        RocksIterator iterator = db.newIterator(handle);
+        RocksIterator iterator = db.newIterator(handle, totalOrderReadOptions);
         for(iterator.seekToLast(); iterator.isValid(); iterator.prev()) {
             itemsToDelete.add(iterator.key());
         }
@@ -380,9 +747,14 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
 
     @Override
     public boolean update(Persistable thing, Indexable index, String item) throws Exception {
-        ColumnFamilyHandle referenceHandle = metadataReference.get().get(thing.getClass());
-        if(referenceHandle != null) {
-            db.put(referenceHandle, index.bytes(), thing.metadata());
+        WriteBatch writeBatch = new WriteBatch();
+        try {
+            addUpdate(writeBatch, thing, index, item);
+            if(writeBatch.count() > 0) {
+                db.write(writeOptions, writeBatch);
+            }
+        } finally {
+            writeBatch.close();
         }
         return false;
     }
@@ -463,6 +835,10 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
         ;
         options.setMaxSubcompactions(Runtime.getRuntime().availableProcessors());
 
+        writeOptions = new WriteOptions()
+                .setDisableWAL(walPolicy == WalPolicy.NONE)
+                .setSync(walPolicy == WalPolicy.SYNC);
+
         bloomFilter = new BloomFilter(BLOOM_FILTER_BITS_PER_KEY);
         PlainTableConfig plainTableConfig = new PlainTableConfig();
         BlockBasedTableConfig blockBasedTableConfig = new BlockBasedTableConfig().setFilter(bloomFilter);
@@ -502,11 +878,20 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
                 */
                 ;
         //columnFamilyOptions.setMemTableConfig(hashSkipListMemTableConfig);
+        ColumnFamilyOptions indexColumnFamilyOptions = new ColumnFamilyOptions()
+                .setTableFormatConfig(blockBasedTableConfig)
+                .setMaxWriteBufferNumber(2)
+                .setWriteBufferSize(2 * SizeUnit.MB)
+                .useFixedLengthPrefixExtractor(INDEX_PREFIX_SIZE)
+                .setMemtablePrefixBloomSizeRatio(0.1);
+        prefixReadOptions = new ReadOptions().setPrefixSameAsStart(true);
+        totalOrderReadOptions = new ReadOptions().setTotalOrderSeek(true);
 
         //List<ColumnFamilyDescriptor> familyDescriptors = columnFamilyNames.stream().map(name -> new ColumnFamilyDescriptor(name.getBytes(), columnFamilyOptions)).collect(Collectors.toList());
         //familyDescriptors.add(0, new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, new ColumnFamilyOptions()));
 
-        List<ColumnFamilyDescriptor> columnFamilyDescriptors = columnFamilyNames.stream().map(name -> new ColumnFamilyDescriptor(name.getBytes(), columnFamilyOptions)).collect(Collectors.toList());
+        List<ColumnFamilyDescriptor> columnFamilyDescriptors = columnFamilyNames.stream().map(name -> new ColumnFamilyDescriptor(name.getBytes(),
+                INDEX_COLUMN_FAMILIES.contains(name) ? indexColumnFamilyOptions : columnFamilyOptions)).collect(Collectors.toList());
         db = RocksDB.open(options, path, columnFamilyDescriptors, columnFamilyHandles);
         db.enableFileDeletions(true);
 
@@ -524,6 +909,11 @@ public class RocksDBPersistenceProvider implements PersistenceProvider {
         approveeHandle = columnFamilyHandles.get(++i);
         bundleHandle = columnFamilyHandles.get(++i);
         tagHandle = columnFamilyHandles.get(++i);
+        transactionFlagsHandle = columnFamilyHandles.get(++i);
+        addressIndexHandle = columnFamilyHandles.get(++i);
+        approveeIndexHandle = columnFamilyHandles.get(++i);
+        bundleIndexHandle = columnFamilyHandles.get(++i);
+        tagIndexHandle = columnFamilyHandles.get(++i);
         //hashesHandle = familyHandles.get(++i);
 
         for(; ++i < columnFamilyHandles.size();) {
@@ -0,0 +1,175 @@
+package com.iota.iri.utils;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, blocking queue that hands out elements in comparator order.
+ *
+ * Elements comparing equal to a queued element are ignored. When an insertion exceeds the capacity
+ * the last element in comparator order is dropped, which may be the inserted element itself.
+ */
+public class BoundedPriorityBlockingQueue<E> {
+
+    private final int capacity;
+    private final TreeSet<E> elements;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong(0L);
+
+    public BoundedPriorityBlockingQueue(int capacity, Comparator<? super E> comparator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.elements = new TreeSet<>(comparator);
+    }
+
+    /**
+     * @return <tt>true</tt> if <tt>element</tt> was queued and not immediately dropped
+     */
+    public boolean offer(E element) {
+        lock.lock();
+        try {
+            return insert(element);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts <tt>element</tt> if the queue has room, waiting up to <tt>timeout</tt> for a consumer to make some.
+     * Nothing is dropped, so producers can use it to slow down to the pace of the consumers.
+     * @return <tt>true</tt> if <tt>element</tt> was queued, <tt>false</tt> if the queue stayed full or
+     *         already holds an equal element
+     */
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (elements.size() >= capacity) {
+                if (nanos <= 0 || elements.contains(element)) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return insert(element);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(E element) {
+        lock.lock();
+        try {
+            return elements.contains(element);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean insert(E element) {
+        if (!elements.add(element)) {
+            return false;
+        }
+        boolean queued = true;
+        if (elements.size() > capacity) {
+            queued = elements.pollLast() != element;
+            dropped.incrementAndGet();
+        }
+        notEmpty.signal();
+        return queued;
+    }
+
+    /**
+     * Removes the first element, or returns <tt>null</tt> if the queue is empty.
+     */
+    public E poll() {
+        lock.lock();
+        try {
+            return take();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first element, waiting up to <tt>timeout</tt> for one to arrive.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (elements.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return take();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to <tt>maxElements</tt> elements into <tt>target</tt>, waiting up to <tt>timeout</tt> for the first one.
+     * @return number of elements moved
+     */
+    public int drainTo(Collection<? super E> target, int maxElements, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (elements.isEmpty()) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int count = 0;
+            E element;
+            while (count < maxElements && (element = elements.pollFirst()) != null) {
+                target.add(element);
+                count++;
+            }
+            notFull.signalAll();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private E take() {
+        final E element = elements.pollFirst();
+        if (element != null) {
+            notFull.signal();
+        }
+        return element;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return elements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of elements dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,8 @@
+package com.iota.iri;
+
+/**
+ * JUnit category of the tests that run several nodes and take long or depend on the machine, they are left out of the
+ * build unless the <tt>integration-tests</tt> profile is active.
+ */
+public interface Integration {
+}
@@ -1,13 +1,18 @@
 package com.iota.iri.controllers;
 
 import com.iota.iri.model.Hash;
+import com.iota.iri.network.Neighbor;
 import com.iota.iri.network.TransactionRequester;
+import com.iota.iri.network.UDPNeighbor;
 import com.iota.iri.storage.Tangle;
 import com.iota.iri.zmq.MessageQ;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
 import static org.junit.Assert.*;
 
 /**
@@ -112,4 +117,89 @@ public class TransactionRequesterTest {
         assertEquals(capacity + capacity * 2, txReq.numberOfTransactionsToRequest());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void milestoneRequestsFirst() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        Hash hash = TransactionViewModelTest.getRandomTransactionHash();
+        Hash farMilestoneHash = TransactionViewModelTest.getRandomTransactionHash();
+        Hash nearMilestoneHash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(hash, false);
+        txReq.requestTransaction(farMilestoneHash, true, 20);
+        txReq.requestTransaction(nearMilestoneHash, true, 3);
+        assertEquals(nearMilestoneHash, txReq.transactionToRequest(true));
+        assertEquals(hash, txReq.transactionToRequest(false));
+        assertEquals(farMilestoneHash, txReq.transactionToRequest(false));
+    }
+
+    @Test
+    public void requestedHashBacksOff() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        Hash hash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(hash, false);
+        assertEquals(hash, txReq.transactionToRequest(false));
+        assertNull(txReq.transactionToRequest(false));
+        assertEquals(1, txReq.numberOfTransactionsToRequest());
+    }
+
+    @Test
+    public void requestGivenUpAfterRetries() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        txReq.init(1, TransactionRequester.MAX_TX_REQ_QUEUE_SIZE);
+        Hash hash = TransactionViewModelTest.getRandomTransactionHash();
+        Hash milestoneHash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(hash, false);
+        txReq.requestTransaction(milestoneHash, true);
+        assertEquals(Arrays.asList(milestoneHash, hash), txReq.transactionsToRequest(10, true, null));
+        assertEquals(1, txReq.numberOfTransactionsToRequest());
+    }
+
+    @Test
+    public void milestoneRequestReplacesRequest() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        Hash hash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(TransactionViewModelTest.getRandomTransactionHash(), true);
+        txReq.requestTransaction(hash, false);
+        txReq.requestTransaction(hash, true, 1);
+        assertEquals(2, txReq.numberOfTransactionsToRequest());
+        txReq.transactionToRequest(true);
+        assertEquals(hash, txReq.transactionToRequest(false));
+        assertTrue(txReq.clearTransactionRequest(hash));
+        assertFalse(txReq.clearTransactionRequest(hash));
+        assertEquals(1, txReq.numberOfTransactionsToRequest());
+    }
+
+    @Test
+    public void requestGoesToOriginFirst() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        Neighbor origin = new UDPNeighbor(new InetSocketAddress("127.0.0.1", 14600), null, false, 0);
+        Neighbor other = new UDPNeighbor(new InetSocketAddress("127.0.0.1", 14601), null, false, 0);
+        Hash hash = TransactionViewModelTest.getRandomTransactionHash();
+        Hash originHash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(hash, false);
+        txReq.requestTransaction(originHash, false, 0, origin.getAddress().toString());
+
+        assertEquals(hash, txReq.transactionToRequest(false, other));
+        assertNull(txReq.transactionToRequest(false, other));
+        assertEquals(originHash, txReq.transactionToRequest(false, origin));
+        assertEquals(1, origin.getNumberOfSentRequests());
+
+        assertTrue(txReq.clearTransactionRequest(originHash, origin.getAddress().toString()));
+        assertEquals(1, origin.getNumberOfAnsweredRequests());
+        assertTrue(txReq.clearTransactionRequest(hash, origin.getAddress().toString()));
+        assertEquals(0, other.getNumberOfAnsweredRequests());
+    }
+
+    @Test
+    public void removedOriginRequestGoesToOthers() throws Exception {
+        TransactionRequester txReq = new TransactionRequester(tangle, mq);
+        Neighbor origin = new UDPNeighbor(new InetSocketAddress("127.0.0.1", 14600), null, false, 0);
+        Neighbor other = new UDPNeighbor(new InetSocketAddress("127.0.0.1", 14601), null, false, 0);
+        Hash originHash = TransactionViewModelTest.getRandomTransactionHash();
+        txReq.requestTransaction(originHash, false, 0, origin.getAddress().toString());
+
+        assertNull(txReq.transactionToRequest(false, other));
+        txReq.removeOrigin(origin.getAddress().toString());
+        assertEquals(originHash, txReq.transactionToRequest(false, other));
+        assertNull(txReq.transactionToRequest(false, origin));
+    }
+}
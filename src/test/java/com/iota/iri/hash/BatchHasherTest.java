@@ -0,0 +1,63 @@
+package com.iota.iri.hash;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import com.iota.iri.utils.Converter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionTrits;
+
+public class BatchHasherTest {
+
+    private static List<byte[]> randomTransactions(int count) {
+        List<byte[]> transactions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = Converter.allocateBytesForTrits(TransactionViewModel.TRINARY_SIZE);
+            Converter.bytes(getRandomTransactionTrits(), bytes);
+            transactions.add(bytes);
+        }
+        return transactions;
+    }
+
+    private static void assertMatchesSerialHash(List<byte[]> transactions, Hash[] hashes) {
+        Assert.assertEquals(transactions.size(), hashes.length);
+        for (int i = 0; i < hashes.length; i++) {
+            Hash expected = Hash.calculate(transactions.get(i), TransactionViewModel.TRINARY_SIZE,
+                    SpongeFactory.create(SpongeFactory.Mode.CURLP81));
+            Assert.assertEquals(expected, hashes[i]);
+        }
+    }
+
+    @Test
+    public void fullBatchMatchesSerialHash() {
+        BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+        List<byte[]> transactions = randomTransactions(BatchHasher.MAX_BATCH_SIZE);
+        assertMatchesSerialHash(transactions, batchHasher.hash(transactions));
+    }
+
+    @Test
+    public void partialBatchesMatchSerialHash() {
+        BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+        List<byte[]> transactions = randomTransactions(5);
+        assertMatchesSerialHash(transactions, batchHasher.hash(transactions));
+        transactions = randomTransactions(1);
+        assertMatchesSerialHash(transactions, batchHasher.hash(transactions));
+    }
+
+    @Test
+    public void emptyBatch() {
+        BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+        Assert.assertEquals(0, batchHasher.hash(Collections.emptyList()).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedBatchIsRejected() {
+        BatchHasher batchHasher = new BatchHasher(SpongeFactory.Mode.CURLP81, TransactionViewModel.TRINARY_SIZE);
+        batchHasher.hash(randomTransactions(BatchHasher.MAX_BATCH_SIZE + 1));
+    }
+}
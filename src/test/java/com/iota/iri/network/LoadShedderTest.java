@@ -0,0 +1,77 @@
+package com.iota.iri.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadShedderTest {
+
+    @Test
+    public void dropRateRisesUnderLoadAndDecays() {
+        LoadShedder loadShedder = new LoadShedder(100);
+        Assert.assertFalse(loadShedder.shed(LoadShedder.SHED_OVER_LIMIT));
+
+        for (int i = 0; i < 100; i++) {
+            loadShedder.update(1.0);
+        }
+        Assert.assertEquals(LoadShedder.MAX_DROP_RATE, loadShedder.getDropRate(), 1e-9);
+
+        double previous = loadShedder.getDropRate();
+        loadShedder.update(0.0);
+        Assert.assertTrue(loadShedder.getDropRate() < previous);
+        for (int i = 0; i < 100; i++) {
+            loadShedder.update(0.0);
+        }
+        Assert.assertEquals(0, loadShedder.getDropRate(), 0);
+        Assert.assertFalse(loadShedder.shed(LoadShedder.SHED_OVER_LIMIT));
+    }
+
+    @Test
+    public void lagCountsAsLoad() {
+        LoadShedder loadShedder = new LoadShedder(100);
+        loadShedder.recordLag(300 * 1000000L);
+        loadShedder.update(0.0);
+        Assert.assertEquals(3.0, loadShedder.getLoad(), 1e-9);
+        Assert.assertTrue(loadShedder.getDropRate() > 0);
+
+        //the lag is the largest one since the last update only
+        loadShedder.update(0.0);
+        Assert.assertEquals(0, loadShedder.getLoad(), 0);
+    }
+
+    @Test
+    public void moderateLoadKeepsDropRate() {
+        LoadShedder loadShedder = new LoadShedder(100);
+        loadShedder.update(1.0);
+        double rate = loadShedder.getDropRate();
+        loadShedder.update(LoadShedder.HIGH_WATERMARK * 0.75);
+        Assert.assertEquals(rate, loadShedder.getDropRate(), 0);
+    }
+
+    @Test
+    public void lowPriorityTrafficIsShedFirst() {
+        LoadShedder loadShedder = new LoadShedder(100);
+        for (int i = 0; i < 3; i++) {
+            loadShedder.update(1.0);
+        }
+        int[] shed = new int[3];
+        for (int i = 0; i < 10000; i++) {
+            for (int kind = 0; kind < shed.length; kind++) {
+                if (loadShedder.shed(kind)) {
+                    shed[kind]++;
+                }
+            }
+        }
+        Assert.assertTrue(shed[LoadShedder.SHED_OVER_LIMIT] > shed[LoadShedder.SHED_RANDOM_TIP]);
+        Assert.assertTrue(shed[LoadShedder.SHED_RANDOM_TIP] > shed[LoadShedder.SHED_UNREQUESTED]);
+        Assert.assertEquals(shed[LoadShedder.SHED_UNREQUESTED], loadShedder.getShed(LoadShedder.SHED_UNREQUESTED));
+    }
+
+    @Test
+    public void disabledSheddingNeverDrops() {
+        LoadShedder loadShedder = new LoadShedder(0);
+        loadShedder.recordLag(Long.MAX_VALUE);
+        loadShedder.update(1.0);
+        Assert.assertEquals(0, loadShedder.getDropRate(), 0);
+        Assert.assertFalse(loadShedder.shed(LoadShedder.SHED_OVER_LIMIT));
+    }
+}
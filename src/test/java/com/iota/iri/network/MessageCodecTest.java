@@ -0,0 +1,138 @@
+package com.iota.iri.network;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MessageCodecTest {
+
+    private static final Random random = new Random();
+
+    private static byte[] randomPacket(int signatureBytes) {
+        byte[] packet = new byte[Node.TRANSACTION_PACKET_SIZE];
+        for (int i = 0; i < packet.length; i++) {
+            packet[i] = (byte) (random.nextInt(243) - 121);
+        }
+        Arrays.fill(packet, signatureBytes, MessageCodec.SIGNATURE_BYTES, (byte) 0);
+        return packet;
+    }
+
+    private static byte[] encode(byte[] packet, byte[] message) {
+        byte[] transaction = Arrays.copyOf(packet, TransactionViewModel.SIZE);
+        byte[] requestHash = Arrays.copyOfRange(packet, TransactionViewModel.SIZE, Node.TRANSACTION_PACKET_SIZE);
+        int length = MessageCodec.encodeTransaction(transaction, requestHash, message);
+        return length < 0 ? null : Arrays.copyOf(message, length);
+    }
+
+    @Test
+    public void zeroSignatureIsTrimmed() {
+        byte[] packet = randomPacket(0);
+        byte[] message = encode(packet, new byte[Node.TRANSACTION_PACKET_SIZE]);
+        Assert.assertNotNull(message);
+        Assert.assertTrue(message.length < Node.TRANSACTION_PACKET_SIZE / 4);
+        Assert.assertFalse(MessageCodec.isLegacyPacket(message, message.length));
+
+        byte[] decoded = new byte[Node.TRANSACTION_PACKET_SIZE];
+        Arrays.fill(decoded, (byte) 1);
+        Assert.assertTrue(MessageCodec.decodeTransaction(message, message.length, decoded));
+        Assert.assertArrayEquals(packet, decoded);
+    }
+
+    @Test
+    public void partialSignatureRoundTrips() {
+        byte[] packet = randomPacket(700);
+        byte[] message = encode(packet, new byte[Node.TRANSACTION_PACKET_SIZE]);
+        Assert.assertNotNull(message);
+        byte[] decoded = new byte[Node.TRANSACTION_PACKET_SIZE];
+        Assert.assertTrue(MessageCodec.decodeTransaction(message, message.length, decoded));
+        Assert.assertArrayEquals(packet, decoded);
+        Assert.assertFalse(MessageCodec.decodeTransaction(message, message.length - 1, decoded));
+    }
+
+    @Test
+    public void fullSignatureStaysLegacy() {
+        byte[] packet = randomPacket(MessageCodec.SIGNATURE_BYTES);
+        packet[MessageCodec.SIGNATURE_BYTES - 1] = 1;
+        Assert.assertNull(encode(packet, new byte[Node.TRANSACTION_PACKET_SIZE]));
+        Assert.assertTrue(MessageCodec.isLegacyPacket(packet, packet.length));
+    }
+
+    @Test
+    public void transactionsArePackedUntilFull() {
+        byte[] message = new byte[Node.TRANSACTION_PACKET_SIZE];
+        List<byte[]> packed = new ArrayList<>();
+        int length = MessageCodec.startTransactions(message);
+        while (true) {
+            byte[] transaction = Arrays.copyOf(randomPacket(100), TransactionViewModel.SIZE);
+            int appended = MessageCodec.appendTransaction(message, length, transaction);
+            if (appended < 0) {
+                break;
+            }
+            packed.add(transaction);
+            length = appended;
+        }
+        Assert.assertTrue(packed.size() > 1);
+        Assert.assertEquals(packed.size(), MessageCodec.transactionCount(message));
+
+        byte[] decoded = new byte[Node.TRANSACTION_PACKET_SIZE];
+        int offset = MessageCodec.TRANSACTIONS_HEADER_BYTES;
+        for (byte[] transaction : packed) {
+            offset = MessageCodec.nextTransaction(message, length, offset, decoded);
+            Assert.assertArrayEquals(transaction, Arrays.copyOf(decoded, TransactionViewModel.SIZE));
+        }
+        Assert.assertEquals(length, offset);
+    }
+
+    @Test
+    public void requestCarriesHashes() {
+        List<Hash> hashes = new ArrayList<>();
+        for (int i = 0; i < MessageCodec.MAX_REQUEST_HASHES + 5; i++) {
+            hashes.add(new Hash(Arrays.copyOf(randomPacket(0), Node.REQUEST_HASH_SIZE), 0, Node.REQUEST_HASH_SIZE));
+        }
+        byte[] message = new byte[Node.TRANSACTION_PACKET_SIZE];
+        int length = MessageCodec.encodeRequest(hashes, 0, message);
+        Assert.assertTrue(length <= Node.TRANSACTION_PACKET_SIZE);
+        Assert.assertEquals(MessageCodec.MAX_REQUEST_HASHES, MessageCodec.requestCount(message, length));
+        Assert.assertEquals(hashes.get(7), MessageCodec.requestedHash(message, 7));
+
+        length = MessageCodec.encodeRequest(hashes, MessageCodec.MAX_REQUEST_HASHES, message);
+        Assert.assertEquals(5, MessageCodec.requestCount(message, length));
+        Assert.assertEquals(hashes.get(MessageCodec.MAX_REQUEST_HASHES), MessageCodec.requestedHash(message, 0));
+        Assert.assertEquals(-1, MessageCodec.requestCount(message, length + 1));
+    }
+
+    @Test
+    public void helloAnnouncesVersion() {
+        byte[] hello = MessageCodec.hello();
+        Assert.assertEquals(MessageCodec.PROTOCOL_VERSION, MessageCodec.helloVersion(hello, hello.length));
+        Assert.assertEquals(0, MessageCodec.helloVersion(hello, hello.length - 1));
+        hello[1] = 'X';
+        Assert.assertEquals(0, MessageCodec.helloVersion(hello, hello.length));
+    }
+
+    @Test
+    public void syncMessagesCarryMilestoneIndex() {
+        byte[] message = new byte[Node.TRANSACTION_PACKET_SIZE];
+        int length = MessageCodec.encodeSyncRequest(338123, message);
+        Assert.assertTrue(MessageCodec.isTypeByte(message[0]));
+        Assert.assertEquals(338123, MessageCodec.syncRequestIndex(message, length));
+        Assert.assertEquals(-1, MessageCodec.syncRequestIndex(message, length + 1));
+
+        length = MessageCodec.encodeSyncDone(338123, -1, message);
+        Assert.assertTrue(MessageCodec.isTypeByte(message[0]));
+        Assert.assertTrue(MessageCodec.isSyncDone(message, length));
+        Assert.assertEquals(338123, MessageCodec.syncDoneIndex(message));
+        Assert.assertEquals(-1, MessageCodec.syncDoneCount(message));
+        Assert.assertFalse(MessageCodec.isSyncDone(message, length - 1));
+
+        MessageCodec.startTransactions(message, MessageCodec.TYPE_SYNC_TRANSACTIONS);
+        Assert.assertTrue(MessageCodec.isTypeByte(message[0]));
+        Assert.assertEquals(0, MessageCodec.transactionCount(message));
+    }
+}
@@ -0,0 +1,50 @@
+package com.iota.iri.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NeighborScoreTest {
+
+    @Test
+    public void usefulNeighborScoresHigher() {
+        NeighborScore useful = new NeighborScore();
+        NeighborScore redundant = new NeighborScore();
+        for (int i = 1; i <= 10; i++) {
+            useful.update(100 * i, 80 * i, 0, 10 * i, 100 * 10 * i, 1);
+            redundant.update(100 * i, 5 * i, 0, 0, 0, 0.1);
+        }
+        Assert.assertTrue(useful.getScore() > redundant.getScore());
+        Assert.assertEquals(0.8, useful.getUsefulRatio(), 0.05);
+        Assert.assertEquals(100, useful.getLatency(), 5);
+        Assert.assertEquals(0, useful.getUselessIntervals());
+    }
+
+    @Test
+    public void invalidTransactionsLowerScore() {
+        NeighborScore valid = new NeighborScore();
+        NeighborScore invalid = new NeighborScore();
+        for (int i = 1; i <= 10; i++) {
+            valid.update(100 * i, 50 * i, 0, 0, 0, 0.5);
+            invalid.update(100 * i, 50 * i, 40 * i, 0, 0, 0.5);
+        }
+        Assert.assertTrue(valid.getScore() > invalid.getScore());
+        Assert.assertEquals(0.4, invalid.getInvalidRatio(), 0.05);
+    }
+
+    @Test
+    public void silentNeighborBecomesUseless() {
+        NeighborScore score = new NeighborScore();
+        score.update(100, 50, 0, 0, 0, 0.5);
+        Assert.assertEquals(0, score.getUselessIntervals());
+        double previous = score.getScore();
+        for (int i = 0; i < 5; i++) {
+            score.update(100, 50, 0, 0, 0, 0.5);
+        }
+        Assert.assertEquals(5, score.getUselessIntervals());
+        Assert.assertTrue(score.getScore() < previous);
+
+        //answering a request counts as useful
+        score.update(100, 50, 0, 1, 100, 0.5);
+        Assert.assertEquals(0, score.getUselessIntervals());
+    }
+}
@@ -0,0 +1,324 @@
+package com.iota.iri.network;
+
+import com.iota.iri.Milestone;
+import com.iota.iri.TransactionValidator;
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.controllers.TipsViewModel;
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.hash.SpongeFactory;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.network.replicator.Replicator;
+import com.iota.iri.storage.Indexable;
+import com.iota.iri.storage.Persistable;
+import com.iota.iri.storage.Tangle;
+import com.iota.iri.storage.ZmqPublishProvider;
+import com.iota.iri.storage.rocksDB.RocksDBPersistenceProvider;
+import com.iota.iri.utils.Converter;
+import com.iota.iri.zmq.MessageQ;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a network of nodes in one JVM, connected over loopback, and measures how transactions spread.
+ *
+ * Every node has its own RocksDB in a temporary folder and the network stack of {@link com.iota.iri.Iota}: a
+ * {@link Node}, a {@link UDPReceiver} and a {@link Replicator}. Milestones are not tracked and there is no ledger, as
+ * they need the signed snapshot and a coordinator, and the minimum weight magnitude is 0 so transactions need no
+ * proof of work.
+ * Each node is connected to the next <tt>degree / 2</tt> nodes of a ring, and transactions approving earlier ones are
+ * injected at random nodes at a fixed rate.
+ *
+ * Run it with {@link #main(String[])}, configured with system properties: <tt>nodes</tt>, <tt>degree</tt>,
+ * <tt>rate</tt> in transactions per second, <tt>duration</tt> in seconds and <tt>tcp</tt>.
+ */
+public class NetworkSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(NetworkSimulator.class);
+    private static final long DRAIN_TIMEOUT = 20000L;
+    private static final int APPROVEE_WINDOW = 100;
+
+    private final int numberOfNodes;
+    private final int degree;
+    private final boolean tcp;
+    private final List<SimulatedNode> nodes = new ArrayList<>();
+    // injection times of the transactions, and when they reached each node
+    private final Map<Hash, Long> injected = new ConcurrentHashMap<>();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+    public NetworkSimulator(int numberOfNodes, int degree, boolean tcp) {
+        this.numberOfNodes = numberOfNodes;
+        this.degree = Math.max(2, Math.min(degree, numberOfNodes - 1));
+        this.tcp = tcp;
+    }
+
+    public void start() throws Exception {
+        final int[] udpPorts = new int[numberOfNodes];
+        final int[] tcpPorts = new int[numberOfNodes];
+        for (int i = 0; i < numberOfNodes; i++) {
+            udpPorts[i] = freeUdpPort();
+            tcpPorts[i] = freeTcpPort();
+        }
+        for (int i = 0; i < numberOfNodes; i++) {
+            final StringBuilder neighbors = new StringBuilder();
+            for (int j = 1; j <= degree / 2; j++) {
+                neighbors.append(uri(udpPorts, tcpPorts, (i + j) % numberOfNodes)).append(' ')
+                        .append(uri(udpPorts, tcpPorts, Math.floorMod(i - j, numberOfNodes))).append(' ');
+            }
+            nodes.add(new SimulatedNode(i, udpPorts[i], tcpPorts[i], neighbors.toString().trim()));
+        }
+        for (final SimulatedNode node : nodes) {
+            node.start();
+        }
+    }
+
+    private String uri(int[] udpPorts, int[] tcpPorts, int index) {
+        return tcp ? "tcp://127.0.0.1:" + tcpPorts[index] : "udp://127.0.0.1:" + udpPorts[index];
+    }
+
+    private static int freeUdpPort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int freeTcpPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Injects transactions at random nodes for <tt>duration</tt> milliseconds, then waits for them to spread.
+     * The transactions are generated up front, so hashing them does not slow the injection down.
+     * @return the number of transactions injected
+     */
+    public int run(double rate, long duration) throws Exception {
+        final List<TransactionViewModel> transactions = generate((int) Math.ceil(rate * duration / 1000));
+        final long interval = (long) (1000000000L / rate);
+        final long start = System.nanoTime();
+        for (int i = 0; i < transactions.size(); i++) {
+            final long wait = start + i * interval - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            }
+            inject(nodes.get(ThreadLocalRandom.current().nextInt(nodes.size())), transactions.get(i));
+        }
+        final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (getDeliveryRatio() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        return transactions.size();
+    }
+
+    /**
+     * @return transactions with random content, each approving two of the last {@link #APPROVEE_WINDOW} ones
+     */
+    private static List<TransactionViewModel> generate(int count) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<TransactionViewModel> transactions = new ArrayList<>(count);
+        final int[] trits = new int[TransactionViewModel.TRINARY_SIZE];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < trits.length; j++) {
+                trits[j] = random.nextInt(3) - 1;
+            }
+            Converter.copyTrits(System.currentTimeMillis() / 1000L, trits, TransactionViewModel.TIMESTAMP_TRINARY_OFFSET,
+                    TransactionViewModel.TIMESTAMP_TRINARY_SIZE);
+            Arrays.fill(trits, TransactionViewModel.VALUE_TRINARY_OFFSET,
+                    TransactionViewModel.VALUE_TRINARY_OFFSET + TransactionViewModel.VALUE_TRINARY_SIZE, 0);
+            if (i > 0) {
+                final int from = Math.max(0, i - APPROVEE_WINDOW);
+                System.arraycopy(transactions.get(random.nextInt(from, i)).getHash().trits(), 0, trits,
+                        TransactionViewModel.TRUNK_TRANSACTION_TRINARY_OFFSET, TransactionViewModel.TRUNK_TRANSACTION_TRINARY_SIZE);
+                System.arraycopy(transactions.get(random.nextInt(from, i)).getHash().trits(), 0, trits,
+                        TransactionViewModel.BRANCH_TRANSACTION_TRINARY_OFFSET, TransactionViewModel.BRANCH_TRANSACTION_TRINARY_SIZE);
+            }
+            //kept as bytes only, trits would take five times the memory
+            final byte[] bytes = Converter.allocateBytesForTrits(trits.length);
+            Converter.bytes(trits, 0, bytes, 0, trits.length);
+            transactions.add(new TransactionViewModel(bytes, Hash.calculate(SpongeFactory.Mode.CURLP81, trits)));
+        }
+        return transactions;
+    }
+
+    private void inject(SimulatedNode node, TransactionViewModel transactionViewModel) throws Exception {
+        injected.put(transactionViewModel.getHash(), System.nanoTime());
+        if (transactionViewModel.store(node.tangle)) {
+            transactionViewModel.setArrivalTime(System.currentTimeMillis() / 1000L);
+            node.transactionValidator.updateStatus(transactionViewModel);
+            node.node.broadcast(transactionViewModel);
+        }
+    }
+
+    private void arrived(Hash hash) {
+        final Long injectTime = injected.get(hash);
+        if (injectTime != null) {
+            latencies.add(System.nanoTime() - injectTime);
+        }
+    }
+
+    /**
+     * @return the share of the transactions that reached every node but the one they were injected at
+     */
+    public double getDeliveryRatio() {
+        final long expected = (long) injected.size() * (numberOfNodes - 1);
+        return expected == 0 ? 1 : (double) latencies.size() / expected;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the milliseconds it took transactions to reach a node
+     */
+    public double getLatencyPercentile(double percentile) {
+        final List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1e6;
+    }
+
+    public String report() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("%d nodes, degree %d, %s: delivered %.4f, latency p50 = %.1fms , p90 = %.1fms , p99 = %.1fms , max = %.1fms%n",
+                numberOfNodes, degree, tcp ? "tcp" : "udp", getDeliveryRatio(), getLatencyPercentile(50),
+                getLatencyPercentile(90), getLatencyPercentile(99), getLatencyPercentile(100)));
+        for (final SimulatedNode node : nodes) {
+            report.append(node.report()).append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Shuts the nodes down in parallel, as each waits for its threads to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>();
+        for (final SimulatedNode node : nodes) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    node.shutdown();
+                } catch (Exception e) {
+                    log.error("Failed to shut down node " + node.index, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private class SimulatedNode {
+
+        private final int index;
+        private final Configuration configuration = new Configuration();
+        private final TemporaryFolder dbFolder = new TemporaryFolder();
+        private final TemporaryFolder logFolder = new TemporaryFolder();
+        private final MessageQ messageQ = new MessageQ(0, "", 0, false);
+        private final Tangle tangle = new Tangle();
+        private final TransactionRequester transactionRequester;
+        private final TransactionValidator transactionValidator;
+        private final Node node;
+        private final UDPReceiver udpReceiver;
+        private final Replicator replicator;
+
+        private SimulatedNode(int index, int udpPort, int tcpPort, String neighbors) {
+            this.index = index;
+            configuration.put(Configuration.DefaultConfSettings.NEIGHBORS, neighbors);
+            configuration.put(Configuration.DefaultConfSettings.DNS_RESOLUTION_ENABLED, "false");
+            transactionRequester = new TransactionRequester(tangle, messageQ);
+            transactionValidator = new TransactionValidator(tangle, new TipsViewModel(), transactionRequester, messageQ);
+            //never initialized, so it stays at the start index and the tip requester sends an empty milestone
+            final Milestone milestone = new Milestone(tangle, Hash.NULL_HASH, null, transactionValidator, true, messageQ);
+            node = new Node(configuration, tangle, transactionValidator, transactionRequester, new TipsViewModel(), milestone, messageQ);
+            udpReceiver = new UDPReceiver(udpPort, node);
+            replicator = new Replicator(node, tcpPort, 0, false);
+        }
+
+        private void start() throws Exception {
+            dbFolder.create();
+            logFolder.create();
+            tangle.addPersistenceProvider(new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                    logFolder.getRoot().getAbsolutePath(), 1000));
+            // the node records the sender of every transaction a neighbor delivers
+            tangle.addPersistenceProvider(new ZmqPublishProvider(messageQ) {
+                @Override
+                public boolean update(Persistable model, Indexable index, String item) {
+                    if (model instanceof Transaction && item.contains("sender")) {
+                        arrived((Hash) index);
+                    }
+                    return false;
+                }
+            });
+            tangle.init();
+            transactionValidator.init(true, 0, 0);
+            // not configurable below 13, which would take proof of work
+            final Field minWeightMagnitude = TransactionValidator.class.getDeclaredField("MIN_WEIGHT_MAGNITUDE");
+            minWeightMagnitude.setAccessible(true);
+            minWeightMagnitude.setInt(transactionValidator, 0);
+            transactionRequester.init(configuration.doubling(Configuration.DefaultConfSettings.P_REMOVE_REQUEST.name()),
+                    configuration.integer(Configuration.DefaultConfSettings.MAX_TX_REQ_QUEUE_SIZE));
+            udpReceiver.init();
+            replicator.init();
+            node.init();
+        }
+
+        private String report() {
+            long received = 0;
+            long fresh = 0;
+            long outboundDropped = 0;
+            for (final Neighbor neighbor : node.getNeighbors()) {
+                received += neighbor.getNumberOfAllTransactions();
+                fresh += neighbor.getNumberOfNewTransactions();
+                outboundDropped += neighbor.getNumberOfDroppedTransactions();
+            }
+            final LoadShedder loadShedder = node.getLoadShedder();
+            return String.format("node %d : received = %d , duplicates = %.3f , dropped udp = %d , pipeline = %d , outbound = %d , shed = %d",
+                    index, received, received == 0 ? 0 : 1 - (double) fresh / received, udpReceiver.getDroppedPackets(),
+                    node.getNumberOfDroppedTransactions(), outboundDropped,
+                    loadShedder.getShed(LoadShedder.SHED_OVER_LIMIT) + loadShedder.getShed(LoadShedder.SHED_RANDOM_TIP)
+                            + loadShedder.getShed(LoadShedder.SHED_UNREQUESTED));
+        }
+
+        private void shutdown() throws Exception {
+            node.shutdown();
+            udpReceiver.shutdown();
+            replicator.shutdown();
+            transactionValidator.shutdown();
+            tangle.shutdown();
+            dbFolder.delete();
+            logFolder.delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final NetworkSimulator simulator = new NetworkSimulator(Integer.getInteger("nodes", 5),
+                Integer.getInteger("degree", 4), Boolean.getBoolean("tcp"));
+        try {
+            simulator.start();
+            //give neighbors time to connect and exchange hellos
+            Thread.sleep(3000);
+            final int count = simulator.run(Double.parseDouble(System.getProperty("rate", "100")),
+                    Long.getLong("duration", 10L) * 1000L);
+            log.info("Injected {} transactions", count);
+            System.out.print(simulator.report());
+        } finally {
+            simulator.shutdown();
+        }
+        System.exit(0);
+    }
+}
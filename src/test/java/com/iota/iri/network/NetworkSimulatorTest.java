@@ -0,0 +1,31 @@
+package com.iota.iri.network;
+
+import com.iota.iri.Integration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class NetworkSimulatorTest {
+
+    private NetworkSimulator simulator;
+
+    @After
+    public void tearDown() throws Exception {
+        if (simulator != null) {
+            simulator.shutdown();
+        }
+    }
+
+    @Test
+    @Category(Integration.class)
+    public void transactionsReachEveryNode() throws Exception {
+        simulator = new NetworkSimulator(4, 2, false);
+        simulator.start();
+        Thread.sleep(1000);
+        int count = simulator.run(50, 2000);
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue(simulator.report(), simulator.getDeliveryRatio() >= 0.99);
+        Assert.assertTrue(simulator.getLatencyPercentile(50) <= simulator.getLatencyPercentile(99));
+    }
+}
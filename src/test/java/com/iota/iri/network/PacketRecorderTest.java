@@ -0,0 +1,109 @@
+package com.iota.iri.network;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PacketRecorderTest {
+
+    private final TemporaryFolder folder = new TemporaryFolder();
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        folder.create();
+        path = folder.getRoot().getAbsolutePath() + "/capture";
+    }
+
+    @After
+    public void tearDown() {
+        folder.delete();
+    }
+
+    private static byte[] message(int i) {
+        byte[] message = new byte[100 + i];
+        Arrays.fill(message, (byte) i);
+        return message;
+    }
+
+    private List<byte[]> replay(double speed, List<SocketAddress> senders, List<String> schemes) throws Exception {
+        List<byte[]> replayed = new ArrayList<>();
+        new PacketReplayer(path, speed).replay((message, length, senderAddress, uriScheme) -> {
+            replayed.add(Arrays.copyOf(message, length));
+            senders.add(senderAddress);
+            schemes.add(uriScheme);
+        });
+        return replayed;
+    }
+
+    @Test
+    public void replaysRecordedMessages() throws Exception {
+        InetSocketAddress udpSender = new InetSocketAddress("127.0.0.1", 14600);
+        InetSocketAddress tcpSender = new InetSocketAddress("::1", 15600);
+        PacketRecorder recorder = new PacketRecorder(path, 1 << 20, 2);
+        for (int i = 0; i < 10; i++) {
+            byte[] message = message(i);
+            recorder.record(message, message.length, i % 2 == 0 ? udpSender : tcpSender, i % 2 == 0 ? "udp" : "tcp");
+        }
+        recorder.close();
+        Assert.assertEquals(10, recorder.getRecorded());
+
+        List<SocketAddress> senders = new ArrayList<>();
+        List<String> schemes = new ArrayList<>();
+        List<byte[]> replayed = replay(0, senders, schemes);
+        Assert.assertEquals(10, replayed.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(message(i), replayed.get(i));
+            Assert.assertEquals(i % 2 == 0 ? udpSender : tcpSender, senders.get(i));
+            Assert.assertEquals(i % 2 == 0 ? "udp" : "tcp", schemes.get(i));
+        }
+    }
+
+    @Test
+    public void keepsNewestFiles() throws Exception {
+        //every record starts a new file
+        PacketRecorder recorder = new PacketRecorder(path, 1, 3);
+        for (int i = 0; i < 10; i++) {
+            byte[] message = message(i);
+            recorder.record(message, message.length, null, "udp");
+        }
+        recorder.close();
+        Assert.assertEquals(3, PacketRecorder.files(path).size());
+
+        List<byte[]> replayed = replay(0, new ArrayList<>(), new ArrayList<>());
+        Assert.assertEquals(3, replayed.size());
+        Assert.assertArrayEquals(message(7), replayed.get(0));
+        Assert.assertArrayEquals(message(9), replayed.get(2));
+
+        //a new capture continues after the existing files
+        recorder = new PacketRecorder(path, 1, 3);
+        byte[] message = message(10);
+        recorder.record(message, message.length, null, "udp");
+        recorder.close();
+        replayed = replay(0, new ArrayList<>(), new ArrayList<>());
+        Assert.assertArrayEquals(message(10), replayed.get(replayed.size() - 1));
+    }
+
+    @Test
+    public void replaysAtRecordedPace() throws Exception {
+        PacketRecorder recorder = new PacketRecorder(path, 1 << 20, 1);
+        byte[] message = message(0);
+        recorder.record(message, message.length, null, "udp");
+        Thread.sleep(200);
+        recorder.record(message, message.length, null, "udp");
+        recorder.close();
+
+        long start = System.nanoTime();
+        replay(2, new ArrayList<>(), new ArrayList<>());
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("took " + elapsed + "ms", elapsed >= 90);
+    }
+}
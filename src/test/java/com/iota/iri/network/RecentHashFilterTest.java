@@ -0,0 +1,43 @@
+package com.iota.iri.network;
+
+import com.iota.iri.model.Hash;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
+
+public class RecentHashFilterTest {
+
+    @Test
+    public void addedHashesAreRemembered() {
+        RecentHashFilter filter = new RecentHashFilter(1024);
+        Hash hash = getRandomTransactionHash();
+        Assert.assertFalse(filter.mightContain(hash));
+        filter.add(hash);
+        Assert.assertTrue(filter.mightContain(hash));
+        Assert.assertFalse(filter.mightContain(getRandomTransactionHash()));
+    }
+
+    @Test
+    public void newerHashesReplaceOlderOnes() {
+        RecentHashFilter filter = new RecentHashFilter(1);
+        Hash first = getRandomTransactionHash();
+        Hash second = getRandomTransactionHash();
+        filter.add(first);
+        filter.add(second);
+        Assert.assertFalse(filter.mightContain(first));
+        Assert.assertTrue(filter.mightContain(second));
+    }
+
+    @Test
+    public void wholeHashIsFingerprinted() {
+        RecentHashFilter filter = new RecentHashFilter(1024);
+        Hash hash = getRandomTransactionHash();
+        byte[] bytes = Arrays.copyOf(hash.bytes(), Hash.SIZE_IN_BYTES);
+        bytes[Hash.SIZE_IN_BYTES - 1] ^= 1;
+        filter.add(hash);
+        Assert.assertFalse(filter.mightContain(new Hash(bytes)));
+    }
+}
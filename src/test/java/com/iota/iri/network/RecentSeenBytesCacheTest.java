@@ -0,0 +1,68 @@
+package com.iota.iri.network;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import com.iota.iri.utils.Converter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
+
+public class RecentSeenBytesCacheTest {
+
+    private static final Random random = new Random();
+
+    private static byte[] randomBytes() {
+        byte[] bytes = new byte[Node.TRANSACTION_PACKET_SIZE];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void fingerprintIgnoresRequestHash() {
+        RecentSeenBytesCache cache = new RecentSeenBytesCache(100, 0);
+        byte[] first = randomBytes();
+        byte[] second = first.clone();
+        second[TransactionViewModel.SIZE] ^= 1;
+        Assert.assertEquals(cache.fingerprint(first, TransactionViewModel.SIZE), cache.fingerprint(second, TransactionViewModel.SIZE));
+        second[0] ^= 1;
+        Assert.assertNotEquals(cache.fingerprint(first, TransactionViewModel.SIZE), cache.fingerprint(second, TransactionViewModel.SIZE));
+    }
+
+    @Test
+    public void getReturnsStoredHash() {
+        RecentSeenBytesCache cache = new RecentSeenBytesCache(100, 0);
+        long fingerprint = cache.fingerprint(randomBytes(), TransactionViewModel.SIZE);
+        Hash hash = getRandomTransactionHash();
+        Assert.assertNull(cache.get(fingerprint));
+        cache.put(fingerprint, hash);
+        Assert.assertEquals(hash, cache.get(fingerprint));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void oldestEntriesAreEvicted() {
+        RecentSeenBytesCache cache = new RecentSeenBytesCache(RecentSeenBytesCache.WAYS, 0);
+        long[] fingerprints = new long[RecentSeenBytesCache.WAYS + 1];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = cache.fingerprint(randomBytes(), TransactionViewModel.SIZE);
+            cache.put(fingerprints[i], getRandomTransactionHash());
+        }
+        Assert.assertNull(cache.get(fingerprints[0]));
+        for (int i = 1; i < fingerprints.length; i++) {
+            Assert.assertNotNull(cache.get(fingerprints[i]));
+        }
+    }
+
+    @Test
+    public void entriesAreDroppedAtDropRate() {
+        RecentSeenBytesCache cache = new RecentSeenBytesCache(100, 1);
+        long fingerprint = cache.fingerprint(randomBytes(), TransactionViewModel.SIZE);
+        cache.put(fingerprint, getRandomTransactionHash());
+        Assert.assertNull(cache.get(fingerprint));
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+}
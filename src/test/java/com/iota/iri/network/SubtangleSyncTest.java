@@ -0,0 +1,83 @@
+package com.iota.iri.network;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import com.iota.iri.storage.Tangle;
+import com.iota.iri.storage.rocksDB.RocksDBPersistenceProvider;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionWithTrunkAndBranch;
+
+public class SubtangleSyncTest {
+
+    private static final TemporaryFolder dbFolder = new TemporaryFolder();
+    private static final TemporaryFolder logFolder = new TemporaryFolder();
+    private static Tangle tangle = new Tangle();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        dbFolder.create();
+        logFolder.create();
+        tangle.addPersistenceProvider(new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000));
+        tangle.init();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        tangle.shutdown();
+        dbFolder.delete();
+        logFolder.delete();
+    }
+
+    private static TransactionViewModel store(Hash trunk, Hash branch, int snapshotIndex) throws Exception {
+        TransactionViewModel transactionViewModel = new TransactionViewModel(getRandomTransactionWithTrunkAndBranch(trunk, branch),
+                getRandomTransactionHash());
+        transactionViewModel.store(tangle);
+        if (snapshotIndex != 0) {
+            transactionViewModel.setSnapshot(tangle, snapshotIndex);
+        }
+        return transactionViewModel;
+    }
+
+    @Test
+    public void subtangleIsTopologicallyOrdered() throws Exception {
+        TransactionViewModel confirmed = store(Hash.NULL_HASH, Hash.NULL_HASH, 9);
+        TransactionViewModel a = store(confirmed.getHash(), Hash.NULL_HASH, 10);
+        TransactionViewModel b = store(a.getHash(), confirmed.getHash(), 10);
+        TransactionViewModel c = store(a.getHash(), getRandomTransactionHash(), 10);
+        TransactionViewModel milestone = store(b.getHash(), c.getHash(), 10);
+
+        List<Hash> subtangle = SubtangleSync.subtangle(tangle, milestone.getHash(), 10);
+        Assert.assertEquals(4, subtangle.size());
+        Assert.assertFalse(subtangle.contains(confirmed.getHash()));
+        Assert.assertEquals(a.getHash(), subtangle.get(0));
+        Assert.assertTrue(subtangle.indexOf(b.getHash()) < subtangle.indexOf(milestone.getHash()));
+        Assert.assertTrue(subtangle.indexOf(c.getHash()) < subtangle.indexOf(milestone.getHash()));
+        Assert.assertEquals(milestone.getHash(), subtangle.get(3));
+    }
+
+    @Test
+    public void sharedApproveeComesFirst() throws Exception {
+        //the branch of the milestone is the trunk of its trunk as well
+        TransactionViewModel x = store(Hash.NULL_HASH, Hash.NULL_HASH, 11);
+        TransactionViewModel y = store(x.getHash(), Hash.NULL_HASH, 11);
+        TransactionViewModel milestone = store(y.getHash(), x.getHash(), 11);
+
+        Assert.assertEquals(Arrays.asList(x.getHash(), y.getHash(), milestone.getHash()),
+                SubtangleSync.subtangle(tangle, milestone.getHash(), 11));
+    }
+
+    @Test
+    public void unknownMilestoneHasNoSubtangle() throws Exception {
+        Assert.assertTrue(SubtangleSync.subtangle(tangle, getRandomTransactionHash(), 10).isEmpty());
+    }
+}
@@ -0,0 +1,48 @@
+package com.iota.iri.network;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void lowerPrioritiesLeaveReserve() {
+        //a rate this low does not refill noticeably during the test
+        TokenBucket bucket = new TokenBucket(0.001, 1000);
+        Assert.assertTrue(bucket.tryConsume(400, Neighbor.PRIORITY_BROADCAST));
+        Assert.assertFalse("broadcasts keep half of the bucket", bucket.tryConsume(200, Neighbor.PRIORITY_BROADCAST));
+        Assert.assertTrue(bucket.tryConsume(300, Neighbor.PRIORITY_RANDOM_TIP));
+        Assert.assertFalse("random tips keep a quarter of the bucket", bucket.tryConsume(100, Neighbor.PRIORITY_RANDOM_TIP));
+        Assert.assertTrue(bucket.tryConsume(300, Neighbor.PRIORITY_REPLY));
+        Assert.assertFalse(bucket.tryConsume(1, Neighbor.PRIORITY_REPLY));
+    }
+
+    @Test
+    public void refundReturnsTokens() {
+        TokenBucket bucket = new TokenBucket(0.001, 1000);
+        Assert.assertTrue(bucket.tryConsume(1000, Neighbor.PRIORITY_REPLY));
+        bucket.refund(500);
+        Assert.assertTrue(bucket.tryConsume(500, Neighbor.PRIORITY_REPLY));
+    }
+
+    @Test
+    public void bucketRefills() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100000, 1000);
+        Assert.assertTrue(bucket.tryConsume(1000, Neighbor.PRIORITY_REPLY));
+        Assert.assertFalse(bucket.tryConsume(1000, Neighbor.PRIORITY_REPLY));
+        Thread.sleep(50);
+        Assert.assertTrue(bucket.tryConsume(1000, Neighbor.PRIORITY_REPLY));
+    }
+
+    @Test
+    public void unlimitedBucketMeasuresRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(-1, 0);
+        Assert.assertEquals(-1, bucket.getLimit());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(bucket.tryConsume(10000, Neighbor.PRIORITY_BROADCAST));
+        }
+        Thread.sleep(1100);
+        long rate = bucket.getRate();
+        Assert.assertTrue("rate was " + rate, rate > 0 && rate <= 1000000);
+    }
+}
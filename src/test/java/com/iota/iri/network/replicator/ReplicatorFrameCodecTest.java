@@ -0,0 +1,86 @@
+package com.iota.iri.network.replicator;
+
+import com.iota.iri.network.Node;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class ReplicatorFrameCodecTest {
+
+    private static final Random random = new Random();
+    private final ReplicatorFrameCodec codec = new ReplicatorFrameCodec();
+
+    private static String legacyTrailer(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        String crc32_string = Long.toHexString(crc32.getValue());
+        while (crc32_string.length() < ReplicatorFrameCodec.Format.CRC32_HEX.trailerBytes) crc32_string = "0"+crc32_string;
+        return crc32_string;
+    }
+
+    @Test
+    public void trailerMatchesLegacyFormat() {
+        byte[] data = new byte[Node.TRANSACTION_PACKET_SIZE];
+        byte[] trailer = new byte[ReplicatorFrameCodec.MAX_TRAILER_BYTES];
+        for (int i = 0; i < 100; i++) {
+            random.nextBytes(data);
+            codec.encodeTrailer(ReplicatorFrameCodec.Format.CRC32_HEX, data, data.length, trailer);
+            Assert.assertEquals(legacyTrailer(data), new String(trailer));
+        }
+    }
+
+    @Test
+    public void corruptedPacketFailsCheck() {
+        byte[] data = new byte[Node.TRANSACTION_PACKET_SIZE];
+        byte[] trailer = new byte[ReplicatorFrameCodec.MAX_TRAILER_BYTES];
+        for (ReplicatorFrameCodec.Format format : ReplicatorFrameCodec.Format.values()) {
+            random.nextBytes(data);
+            codec.encodeTrailer(format, data, data.length, trailer);
+            Assert.assertTrue(codec.verify(format, data, data.length, trailer));
+            data[42] ^= 1;
+            Assert.assertFalse(codec.verify(format, data, data.length, trailer));
+        }
+    }
+
+    @Test
+    public void legacyTrailerIsNotMistakenForCrc32c() {
+        byte[] data = new byte[Node.TRANSACTION_PACKET_SIZE];
+        byte[] trailer = new byte[ReplicatorFrameCodec.MAX_TRAILER_BYTES];
+        random.nextBytes(data);
+        codec.encodeTrailer(ReplicatorFrameCodec.Format.CRC32_HEX, data, data.length, trailer);
+        Assert.assertFalse(codec.verify(ReplicatorFrameCodec.Format.CRC32C, data, data.length, trailer));
+    }
+
+    @Test
+    public void prefixRoundTripsMessageLength() {
+        byte[] prefix = new byte[ReplicatorFrameCodec.MAX_PREFIX_BYTES];
+        ReplicatorFrameCodec.encodePrefix(ReplicatorFrameCodec.Format.CRC32C, 341, prefix);
+        Assert.assertEquals(341, ReplicatorFrameCodec.decodePrefix(ReplicatorFrameCodec.Format.CRC32C, prefix));
+        ReplicatorFrameCodec.encodePrefix(ReplicatorFrameCodec.Format.CRC32C, Node.TRANSACTION_PACKET_SIZE + 1, prefix);
+        Assert.assertEquals(-1, ReplicatorFrameCodec.decodePrefix(ReplicatorFrameCodec.Format.CRC32C, prefix));
+        Assert.assertFalse(ReplicatorFrameCodec.fits(ReplicatorFrameCodec.Format.CRC32_HEX, 341));
+    }
+
+    @Test
+    public void tableCrc32cMatchesKnownValue() {
+        ReplicatorFrameCodec.TableCrc32c crc32c = new ReplicatorFrameCodec.TableCrc32c();
+        byte[] check = "123456789".getBytes();
+        crc32c.update(check, 0, check.length);
+        Assert.assertEquals(0xE3069283L, crc32c.getValue());
+    }
+
+    @Test
+    public void headerOfferIsReadAsPort() {
+        byte[] offer = ReplicatorFrameCodec.header(15600, true);
+        Assert.assertEquals(ReplicatorSinkPool.PORT_BYTES, offer.length);
+        Assert.assertTrue(ReplicatorFrameCodec.offersCrc32c(offer));
+        Assert.assertEquals(15600, ReplicatorFrameCodec.port(offer));
+        Assert.assertEquals(15600, (int) Long.parseLong(new String(offer)));
+
+        byte[] legacy = ReplicatorFrameCodec.header(15600, false);
+        Assert.assertFalse(ReplicatorFrameCodec.offersCrc32c(legacy));
+        Assert.assertEquals("0000015600", new String(legacy));
+    }
+}
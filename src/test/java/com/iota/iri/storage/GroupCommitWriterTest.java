@@ -0,0 +1,194 @@
+package com.iota.iri.storage;
+
+import com.iota.iri.controllers.AddressViewModel;
+import com.iota.iri.controllers.ApproveeViewModel;
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.storage.rocksDB.RocksDBPersistenceProvider;
+import com.iota.iri.utils.Pair;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionTrits;
+
+public class GroupCommitWriterTest {
+
+    private final TemporaryFolder dbFolder = new TemporaryFolder();
+    private final TemporaryFolder logFolder = new TemporaryFolder();
+    private RocksDBPersistenceProvider provider;
+    private Tangle tangle;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFolder.create();
+        logFolder.create();
+        provider = new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000, RocksDBPersistenceProvider.WalPolicy.SYNC);
+        tangle = new Tangle();
+        tangle.addPersistenceProvider(provider);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tangle.shutdown();
+        dbFolder.delete();
+        logFolder.delete();
+    }
+
+    private TransactionViewModel store() throws Exception {
+        TransactionViewModel transactionViewModel = new TransactionViewModel(getRandomTransactionTrits(), getRandomTransactionHash());
+        Assert.assertTrue(transactionViewModel.store(tangle));
+        return transactionViewModel;
+    }
+
+    @Test
+    public void readsPendingWrites() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(1000, 60000);
+        tangle.setGroupCommitWriter(writer);
+        tangle.init();
+
+        TransactionViewModel transactionViewModel = store();
+        Assert.assertFalse(provider.exists(Transaction.class, transactionViewModel.getHash()));
+        Assert.assertTrue(TransactionViewModel.exists(tangle, transactionViewModel.getHash()));
+        Assert.assertFalse(transactionViewModel.store(tangle));
+        Assert.assertArrayEquals(transactionViewModel.getBytes(),
+                TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).getBytes());
+        Assert.assertTrue(ApproveeViewModel.load(tangle, transactionViewModel.getTrunkTransactionHash()).getHashes()
+                .contains(transactionViewModel.getHash()));
+
+        transactionViewModel.setArrivalTime(1000L);
+        transactionViewModel.updateSender("tcp://localhost:15600");
+        transactionViewModel.update(tangle, "arrivalTime|sender");
+        Assert.assertEquals("tcp://localhost:15600",
+                TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).getSender());
+        Assert.assertEquals(0, writer.getCommitCount());
+
+        //paging an index can't be answered from the pending writes
+        Assert.assertEquals(1, AddressViewModel.count(tangle, transactionViewModel.getAddressHash()));
+        Assert.assertEquals(1, writer.getCommitCount());
+        Assert.assertEquals(7, writer.getWriteCount());
+        Transaction stored = (Transaction) provider.get(Transaction.class, transactionViewModel.getHash());
+        Assert.assertEquals(1000L, stored.arrivalTime);
+        Assert.assertEquals("tcp://localhost:15600", stored.sender);
+    }
+
+    @Test
+    public void pendingUpdatesAreNoStores() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(1000, 60000);
+        tangle.setGroupCommitWriter(writer);
+        tangle.init();
+
+        //an update alone doesn't make the transaction stored
+        TransactionViewModel unknown = new TransactionViewModel(getRandomTransactionTrits(), getRandomTransactionHash());
+        unknown.setArrivalTime(1000L);
+        unknown.update(tangle, "arrivalTime");
+        Assert.assertFalse(TransactionViewModel.exists(tangle, unknown.getHash()));
+        Assert.assertFalse(TransactionViewModel.mightExist(tangle, unknown.getHash()));
+        Assert.assertEquals(TransactionViewModel.PREFILLED_SLOT, TransactionViewModel.fromHash(tangle, unknown.getHash()).getType());
+
+        //but applies to a stored one
+        TransactionViewModel transactionViewModel = store();
+        writer.commit();
+        transactionViewModel.updateSender("tcp://localhost:15600");
+        transactionViewModel.update(tangle, "sender");
+        Assert.assertEquals("tcp://localhost:15600",
+                TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).getSender());
+        Assert.assertEquals("tcp://localhost:15600", TransactionViewModel.fromHashes(tangle,
+                Collections.singletonList(transactionViewModel.getHash())).get(0).getSender());
+    }
+
+    @Test
+    public void commitsAfterDelay() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(1000, 10);
+        tangle.setGroupCommitWriter(writer);
+        tangle.init();
+
+        TransactionViewModel transactionViewModel = store();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!provider.exists(Transaction.class, transactionViewModel.getHash()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(provider.exists(Transaction.class, transactionViewModel.getHash()));
+        Assert.assertEquals(1, writer.getCommitCount());
+    }
+
+    @Test
+    public void commitsFullBatches() throws Exception {
+        //the stores of two transactions fill a batch
+        GroupCommitWriter writer = new GroupCommitWriter(12, 60000);
+        tangle.setGroupCommitWriter(writer);
+        tangle.init();
+
+        TransactionViewModel first = store();
+        TransactionViewModel second = store();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getCommitCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, writer.getCommitCount());
+        Assert.assertTrue(provider.exists(Transaction.class, first.getHash()));
+        Assert.assertTrue(provider.exists(Transaction.class, second.getHash()));
+
+        //whatever is pending is written on shutdown
+        TransactionViewModel third = store();
+        tangle.shutdown();
+        tangle = new Tangle();
+        provider = new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000);
+        tangle.addPersistenceProvider(provider);
+        tangle.init();
+        Assert.assertTrue(TransactionViewModel.exists(tangle, third.getHash()));
+    }
+
+    @Test
+    public void keepsFailedBatches() throws Exception {
+        final boolean[] failing = {false};
+        provider = new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000) {
+            @Override
+            public boolean writeBatch(List<Pair<Indexable, Persistable>> models,
+                                      List<Pair<Indexable, Pair<Persistable, String>>> updates) throws Exception {
+                if (failing[0]) {
+                    throw new Exception("write failed");
+                }
+                return super.writeBatch(models, updates);
+            }
+        };
+        tangle = new Tangle();
+        tangle.addPersistenceProvider(provider);
+        GroupCommitWriter writer = new GroupCommitWriter(1000, 60000);
+        tangle.setGroupCommitWriter(writer);
+        tangle.init();
+
+        TransactionViewModel first = store();
+        failing[0] = true;
+        try {
+            writer.commit();
+            Assert.fail("the failed write should be thrown");
+        } catch (Exception e) {
+            Assert.assertEquals("write failed", e.getMessage());
+        }
+        Assert.assertTrue(TransactionViewModel.exists(tangle, first.getHash()));
+        Assert.assertEquals(0, writer.getCommitCount());
+        try {
+            store();
+            Assert.fail("writes should be refused while the pending ones can't be committed");
+        } catch (Exception e) {
+            Assert.assertEquals("write failed", e.getCause().getMessage());
+        }
+
+        failing[0] = false;
+        writer.commit();
+        Assert.assertTrue(provider.exists(Transaction.class, first.getHash()));
+        Assert.assertEquals(1, writer.getCommitCount());
+        Assert.assertEquals(6, writer.getWriteCount());
+        store();
+    }
+}
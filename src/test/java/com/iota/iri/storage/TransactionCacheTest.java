@@ -0,0 +1,118 @@
+package com.iota.iri.storage;
+
+import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.storage.rocksDB.RocksDBPersistenceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionTrits;
+
+public class TransactionCacheTest {
+
+    private static Transaction transaction() {
+        Transaction transaction = new Transaction();
+        transaction.bytes = new byte[Transaction.SIZE];
+        transaction.type = TransactionViewModel.FILLED_SLOT;
+        return transaction;
+    }
+
+    @Test
+    public void returnsCopies() {
+        TransactionCache cache = new TransactionCache(1 << 20);
+        Hash hash = getRandomTransactionHash();
+        Assert.assertNull(cache.get(hash));
+
+        Transaction transaction = transaction();
+        transaction.height = 7;
+        cache.putIfAbsent(hash, transaction);
+        transaction.height = 8;
+
+        Transaction cached = cache.get(hash);
+        Assert.assertEquals(7, cached.height);
+        cached.solid = true;
+        Assert.assertFalse(cache.get(hash).solid);
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(2.0 / 3, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void storedTransactionsReplaceLoadedOnes() {
+        TransactionCache cache = new TransactionCache(1 << 20);
+        Hash hash = getRandomTransactionHash();
+        Transaction stored = transaction();
+        stored.solid = true;
+        cache.put(hash, stored);
+
+        //a load that started before the store must not overwrite it
+        cache.putIfAbsent(hash, transaction());
+        Assert.assertTrue(cache.get(hash).solid);
+        Assert.assertTrue(cache.get(hash).parsed);
+
+        cache.invalidate(hash);
+        Assert.assertNull(cache.get(hash));
+        cache.put(hash, new Transaction());
+        Assert.assertNull(cache.get(hash));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        long entry = TransactionCache.weight(transaction());
+        TransactionCache cache = new TransactionCache(entry * 4 * TransactionCache.SEGMENTS);
+        Hash[] hashes = new Hash[1000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = getRandomTransactionHash();
+            cache.put(hashes[i], transaction());
+            //keep the first one in use
+            Assert.assertNotNull(cache.get(hashes[0]));
+        }
+        Assert.assertTrue(cache.getBytes() <= entry * 4 * TransactionCache.SEGMENTS);
+        Assert.assertTrue(cache.size() <= 4 * TransactionCache.SEGMENTS);
+        Assert.assertNotNull(cache.get(hashes[hashes.length - 1]));
+        Assert.assertNull(cache.get(hashes[1]));
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void tangleReadsThroughCache() throws Exception {
+        TemporaryFolder dbFolder = new TemporaryFolder(), logFolder = new TemporaryFolder();
+        dbFolder.create();
+        logFolder.create();
+        Tangle tangle = new Tangle();
+        tangle.addPersistenceProvider(new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000));
+        tangle.init();
+        TransactionCache cache = new TransactionCache(1 << 20);
+        tangle.setTransactionCache(cache);
+        try {
+            TransactionViewModel transactionViewModel = new TransactionViewModel(getRandomTransactionTrits(), getRandomTransactionHash());
+            transactionViewModel.store(tangle);
+            Assert.assertEquals(1, cache.size());
+
+            TransactionViewModel loaded = TransactionViewModel.fromHash(tangle, transactionViewModel.getHash());
+            Assert.assertArrayEquals(transactionViewModel.getBytes(), loaded.getBytes());
+            Assert.assertEquals(1, cache.getHitCount());
+
+            loaded.updateSolid(true);
+            Assert.assertFalse(TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).isSolid());
+            loaded.update(tangle, "solid");
+            Assert.assertTrue(TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).isSolid());
+
+            transactionViewModel.delete(tangle);
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(TransactionViewModel.PREFILLED_SLOT,
+                    TransactionViewModel.fromHash(tangle, transactionViewModel.getHash()).getType());
+        } finally {
+            tangle.shutdown();
+            dbFolder.delete();
+            logFolder.delete();
+        }
+    }
+}
@@ -1,20 +1,226 @@
 package com.iota.iri.storage.rocksDB;
 
 import com.iota.iri.conf.Configuration;
+import com.iota.iri.controllers.AddressViewModel;
+import com.iota.iri.controllers.ApproveeViewModel;
+import com.iota.iri.model.Address;
+import com.iota.iri.model.Approvee;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.storage.Indexable;
+import com.iota.iri.storage.Persistable;
 import com.iota.iri.storage.Tangle;
 import com.iota.iri.network.TransactionRequester;
 import com.iota.iri.controllers.TransactionViewModel;
+import com.iota.iri.utils.Pair;
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.StringAppendOperator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionHash;
 import static com.iota.iri.controllers.TransactionViewModelTest.getRandomTransactionTrits;
 
 /**
  * Created by paul on 3/4/17 for iri.
  */
 public class RocksDBPersistenceProviderTest {
-}
\ No newline at end of file
+    private final TemporaryFolder dbFolder = new TemporaryFolder();
+    private final TemporaryFolder logFolder = new TemporaryFolder();
+    private Tangle tangle;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFolder.create();
+        logFolder.create();
+        tangle = new Tangle();
+        tangle.addPersistenceProvider(new RocksDBPersistenceProvider(dbFolder.getRoot().getAbsolutePath(),
+                logFolder.getRoot().getAbsolutePath(), 1000));
+        tangle.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tangle.shutdown();
+        dbFolder.delete();
+        logFolder.delete();
+    }
+
+    @Test
+    public void flagUpdatesLeaveMetadataAlone() throws Exception {
+        TransactionViewModel transactionViewModel = new TransactionViewModel(getRandomTransactionTrits(), getRandomTransactionHash());
+        transactionViewModel.setArrivalTime(1000L);
+        transactionViewModel.store(tangle);
+
+        TransactionViewModel loaded = TransactionViewModel.fromHash(tangle, transactionViewModel.getHash());
+        loaded.updateSolid(true);
+        loaded.update(tangle, "solid");
+
+        loaded = TransactionViewModel.fromHash(tangle, transactionViewModel.getHash());
+        Assert.assertTrue(loaded.isSolid());
+        Assert.assertEquals(1000L, loaded.getArrivalTime());
+        Assert.assertEquals("", loaded.getSender());
+
+        loaded.setArrivalTime(2000L);
+        loaded.updateSender("tcp://localhost:15600");
+        loaded.update(tangle, "arrivalTime|sender");
+        loaded = TransactionViewModel.fromHash(tangle, transactionViewModel.getHash());
+        Assert.assertTrue(loaded.isSolid());
+        Assert.assertEquals(2000L, loaded.getArrivalTime());
+        Assert.assertEquals("tcp://localhost:15600", loaded.getSender());
+    }
+
+    @Test
+    public void flagsRoundTrip() throws Exception {
+        Transaction transaction = new Transaction();
+        transaction.validity = -1;
+        transaction.arrivalTime = 1234L;
+        transaction.height = 42L;
+        transaction.solid = true;
+        transaction.snapshot = 7;
+        byte[] flags = transaction.flags();
+        Assert.assertEquals(Transaction.FLAGS_SIZE, flags.length);
+        transaction.sender = "tcp://localhost:15600";
+        flags = transaction.flags();
+        Assert.assertEquals(Transaction.FLAGS_SIZE + transaction.sender.length(), flags.length);
+
+        Transaction read = new Transaction();
+        read.readFlags(flags);
+        Assert.assertEquals(-1, read.validity);
+        Assert.assertEquals(1234L, read.arrivalTime);
+        Assert.assertEquals(42L, read.height);
+        Assert.assertTrue(read.solid);
+        Assert.assertEquals(7, read.snapshot);
+        Assert.assertEquals("tcp://localhost:15600", read.sender);
+
+        //metadata stored before the flags had their own column is kept, as is the sender it ends with
+        read.readFlags(null);
+        Assert.assertEquals(42L, read.height);
+        read.readFlags(Arrays.copyOf(flags, Transaction.FLAGS_SIZE));
+        Assert.assertEquals("tcp://localhost:15600", read.sender);
+    }
+
+    @Test
+    public void loadsTransactionsInOneRead() throws Exception {
+        List<Hash> hashes = new ArrayList<>();
+        List<TransactionViewModel> stored = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TransactionViewModel transactionViewModel = new TransactionViewModel(getRandomTransactionTrits(), getRandomTransactionHash());
+            transactionViewModel.setArrivalTime(i + 1);
+            transactionViewModel.store(tangle);
+            hashes.add(transactionViewModel.getHash());
+            stored.add(transactionViewModel);
+        }
+        Hash missing = getRandomTransactionHash();
+        hashes.add(1, missing);
+        stored.add(1, null);
+
+        List<TransactionViewModel> loaded = TransactionViewModel.fromHashes(tangle, hashes);
+        Assert.assertEquals(hashes.size(), loaded.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            Assert.assertEquals(hashes.get(i), loaded.get(i).getHash());
+            if (stored.get(i) == null) {
+                Assert.assertEquals(TransactionViewModel.PREFILLED_SLOT, loaded.get(i).getType());
+            } else {
+                Assert.assertArrayEquals(stored.get(i).getBytes(), loaded.get(i).getBytes());
+                Assert.assertEquals(stored.get(i).getArrivalTime(), loaded.get(i).getArrivalTime());
+            }
+        }
+    }
+
+    @Test
+    public void pagesThroughIndexes() throws Exception {
+        Hash address = getRandomTransactionHash();
+        Set<Hash> hashes = new HashSet<>();
+        List<Pair<Indexable, Persistable>> batch = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            Hash hash = getRandomTransactionHash();
+            hashes.add(hash);
+            batch.add(new Pair<>(address, new Address(hash)));
+        }
+        tangle.saveBatch(batch);
+        //another index must not show up in the pages
+        tangle.save(new Address(getRandomTransactionHash()), getRandomTransactionHash());
+
+        Assert.assertEquals(2500, AddressViewModel.count(tangle, address));
+        Assert.assertEquals(hashes, AddressViewModel.load(tangle, address).getHashes());
+        Assert.assertEquals(hashes, AddressViewModel.stream(tangle, address).collect(Collectors.toSet()));
+
+        List<Hash> first = AddressViewModel.page(tangle, address, null, 100);
+        List<Hash> second = AddressViewModel.page(tangle, address, first.get(99), 100);
+        Assert.assertEquals(100, first.size());
+        Assert.assertEquals(100, second.size());
+        Assert.assertFalse(second.contains(first.get(99)));
+        Assert.assertTrue(hashes.containsAll(second));
+
+        AddressViewModel.load(tangle, address).delete(tangle);
+        Assert.assertEquals(0, AddressViewModel.count(tangle, address));
+        Assert.assertEquals(0, AddressViewModel.stream(tangle, address).count());
+    }
+
+    @Test
+    public void iteratesIndexesOncePerKey() throws Exception {
+        Set<Hash> indexes = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            Hash index = getRandomTransactionHash();
+            indexes.add(index);
+            for (int j = 0; j < 3; j++) {
+                tangle.save(new Approvee(getRandomTransactionHash()), index);
+            }
+        }
+        Set<Hash> iterated = new HashSet<>();
+        for (ApproveeViewModel approvee = ApproveeViewModel.first(tangle); approvee != null; approvee = approvee.next(tangle)) {
+            Assert.assertTrue(iterated.add((Hash) approvee.getIndex()));
+            Assert.assertEquals(3, approvee.size());
+        }
+        Assert.assertEquals(indexes, iterated);
+    }
+
+    @Test
+    public void migratesMergedIndexes() throws Exception {
+        TemporaryFolder legacyDbFolder = new TemporaryFolder(), legacyLogFolder = new TemporaryFolder();
+        legacyDbFolder.create();
+        legacyLogFolder.create();
+        Hash address = getRandomTransactionHash();
+        Set<Hash> hashes = new HashSet<>();
+        //write the merged, comma delimited layout of earlier versions
+        try (DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+             ColumnFamilyOptions columnFamilyOptions = new ColumnFamilyOptions().setMergeOperator(new StringAppendOperator())) {
+            List<ColumnFamilyHandle> handles = new ArrayList<>();
+            RocksDB db = RocksDB.open(options, legacyDbFolder.getRoot().getAbsolutePath(), Arrays.asList(
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, columnFamilyOptions),
+                    new ColumnFamilyDescriptor("address".getBytes(), columnFamilyOptions)), handles);
+            for (int i = 0; i < 3; i++) {
+                Hash hash = getRandomTransactionHash();
+                hashes.add(hash);
+                db.merge(handles.get(1), address.bytes(), hash.bytes());
+            }
+            handles.forEach(ColumnFamilyHandle::close);
+            db.close();
+        }
+
+        Tangle legacyTangle = new Tangle();
+        legacyTangle.addPersistenceProvider(new RocksDBPersistenceProvider(legacyDbFolder.getRoot().getAbsolutePath(),
+                legacyLogFolder.getRoot().getAbsolutePath(), 1000));
+        legacyTangle.init();
+        try {
+            Assert.assertEquals(hashes, AddressViewModel.load(legacyTangle, address).getHashes());
+            Assert.assertEquals(3, AddressViewModel.count(legacyTangle, address));
+        } finally {
+            legacyTangle.shutdown();
+            legacyDbFolder.delete();
+            legacyLogFolder.delete();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.iota.iri.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BoundedPriorityBlockingQueueTest {
+
+    @Test
+    public void elementsAreReturnedInOrder() {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(10, Comparator.reverseOrder());
+        queue.offer(3);
+        queue.offer(9);
+        queue.offer(5);
+        Assert.assertEquals(Integer.valueOf(9), queue.poll());
+        Assert.assertEquals(Integer.valueOf(5), queue.poll());
+        Assert.assertEquals(Integer.valueOf(3), queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void duplicatesAreIgnored() {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(10, Comparator.naturalOrder());
+        Assert.assertTrue(queue.offer(1));
+        Assert.assertFalse(queue.offer(1));
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void overflowDropsLastElement() {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(2, Comparator.reverseOrder());
+        Assert.assertTrue(queue.offer(5));
+        Assert.assertTrue(queue.offer(3));
+        Assert.assertTrue(queue.offer(7));
+        Assert.assertFalse(queue.offer(1));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(2, queue.getDroppedCount());
+        Assert.assertEquals(Integer.valueOf(7), queue.poll());
+        Assert.assertEquals(Integer.valueOf(5), queue.poll());
+    }
+
+    @Test
+    public void drainToMovesAtMostMaxElements() throws InterruptedException {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(10, Comparator.naturalOrder());
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        List<Integer> target = new ArrayList<>();
+        Assert.assertEquals(3, queue.drainTo(target, 3, 0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(3, target.size());
+        Assert.assertEquals(Integer.valueOf(0), target.get(0));
+        Assert.assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void pollWakesUpOnOffer() throws InterruptedException {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(10, Comparator.naturalOrder());
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            queue.offer(42);
+        });
+        producer.start();
+        Assert.assertEquals(Integer.valueOf(42), queue.poll(10, TimeUnit.SECONDS));
+        producer.join();
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void timedOfferWaitsForRoom() throws InterruptedException {
+        BoundedPriorityBlockingQueue<Integer> queue = new BoundedPriorityBlockingQueue<>(1, Comparator.naturalOrder());
+        Assert.assertTrue(queue.offer(1, 0, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(queue.offer(2, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, queue.getDroppedCount());
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            queue.poll();
+        });
+        consumer.start();
+        Assert.assertTrue(queue.offer(2, 10, TimeUnit.SECONDS));
+        consumer.join();
+        Assert.assertEquals(Integer.valueOf(2), queue.poll());
+    }
+}